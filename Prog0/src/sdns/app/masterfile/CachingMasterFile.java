@@ -0,0 +1,188 @@
+//Contains the CachingMasterFile class (see comments below)
+//Created: 10/17/26
+package sdns.app.masterfile;
+
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Master file that remembers the RRs another master file found for each question, for as long as the shortest TTL among
+ *   them (capped at MAX_TTL seconds), so repeated questions don't go back to the source.  Remembered RRs are handed out
+ *   with their TTLs cut by the whole seconds they have been remembered, so nobody downstream keeps them past their
+ *   upstream expiry.  Holds at most a given number of questions, dropping the least recently used first.  Questions the
+ *   source fails on are not remembered.
+ * Not thread safe: meant to be one per thread (e.g. one per UDP shard), so lookups never contend.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class CachingMasterFile implements MasterFile {
+    //Most seconds a question's RRs are remembered, whatever their TTLs
+    public static final int MAX_TTL = 300;
+    //Where the RRs come from
+    private final MasterFile source;
+    //Where the time comes from (nanoseconds, as System.nanoTime())
+    private final LongSupplier clock;
+    //Remembered RRs by question (lower case, since names are case insensitive), least recently used first
+    private final LinkedHashMap<String, Cached> entries;
+    //Counters
+    private long hits = 0, misses = 0;
+
+    /**
+     * RRs found for one question, when they were found, and when they stop being good
+     */
+    private static final class Cached {
+        private final List<ResourceRecord> answers, nameservers, additionals;
+        private final long fetched, expires;
+
+        /**
+         * Constructs the cached RRs
+         * @param answers answer RRs
+         * @param nameservers name server RRs
+         * @param additionals additional RRs
+         * @param fetched clock time the RRs were found
+         * @param expires clock time after which the RRs are stale
+         */
+        Cached(List<ResourceRecord> answers, List<ResourceRecord> nameservers, List<ResourceRecord> additionals,
+              long fetched, long expires) {
+            this.answers = answers;
+            this.nameservers = nameservers;
+            this.additionals = additionals;
+            this.fetched = fetched;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Constructs the cache in front of the given master file
+     * @param source master file to get RRs from
+     * @param maxEntries most questions to remember
+     * @throws NullPointerException if source is null
+     * @throws IllegalArgumentException if maxEntries is not positive
+     */
+    public CachingMasterFile(MasterFile source, int maxEntries) { this(source, maxEntries, System::nanoTime); }
+
+    /**
+     * Constructs the cache in front of the given master file, telling time by the given clock (e.g. a fake one in tests)
+     * @param source master file to get RRs from
+     * @param maxEntries most questions to remember
+     * @param clock current time in nanoseconds, like System.nanoTime()
+     * @throws NullPointerException if source or clock is null
+     * @throws IllegalArgumentException if maxEntries is not positive
+     */
+    @SuppressWarnings("serial")
+    public CachingMasterFile(MasterFile source, int maxEntries, LongSupplier clock) {
+        this.source = Objects.requireNonNull(source);
+        this.clock = Objects.requireNonNull(clock);
+        if(maxEntries <= 0){
+            throw new IllegalArgumentException("ERROR: maxEntries must be positive: " + maxEntries);
+        }
+        //access order, so the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Populate answer, name server, and additional list RRs, from the cache if the question was asked recently
+     *
+     * @param question    query for SDNS query
+     * @param answers     RR list (allocated) to add answer RRs to
+     * @param nameservers RR list (allocated) to add name server RRs to
+     * @param additionals RR list (allocated) to add additional RRs to
+     * @throws NoSuchElementException if no such domain name
+     * @throws NullPointerException   if any parameters are null
+     * @throws ValidationException    if question is invalid or anything else goes wrong while
+     *                                trying to resolve question
+     */
+    @Override
+    public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                       List<ResourceRecord> additionals)
+            throws NoSuchElementException, NullPointerException, ValidationException {
+        Objects.requireNonNull(question);
+        Objects.requireNonNull(answers);
+        Objects.requireNonNull(nameservers);
+        Objects.requireNonNull(additionals);
+
+        String key = question.toLowerCase(Locale.ROOT);
+        long now = this.clock.getAsLong();
+        Cached e = this.entries.get(key);
+        if(e != null && now - e.expires < 0){
+            this.hits++;
+            int age = (int) TimeUnit.NANOSECONDS.toSeconds(now - e.fetched);
+            addAged(e.answers, age, answers);
+            addAged(e.nameservers, age, nameservers);
+            addAged(e.additionals, age, additionals);
+            return;
+        }
+        this.misses++;
+
+        List<ResourceRecord> ans = new ArrayList<>(), ns = new ArrayList<>(), adtl = new ArrayList<>();
+        this.source.search(question, ans, ns, adtl);
+        answers.addAll(ans);
+        nameservers.addAll(ns);
+        additionals.addAll(adtl);
+
+        long ttl = Math.min(MAX_TTL, Math.min(minTTL(ans), Math.min(minTTL(ns), minTTL(adtl))));
+        if(ttl > 0 && ans.size() + ns.size() + adtl.size() > 0){
+            this.entries.put(key, new Cached(ans, ns, adtl, now, now + TimeUnit.SECONDS.toNanos(ttl)));
+        } else if(e != null){
+            this.entries.remove(key);
+        }
+    }
+
+    /**
+     * Adds remembered RRs to a list, with their TTLs cut by how long they have been remembered
+     * @param rrs remembered RRs
+     * @param age whole seconds they have been remembered
+     * @param to list to add to
+     * @throws ValidationException never (TTLs are kept non-negative)
+     */
+    private static void addAged(List<ResourceRecord> rrs, int age, List<ResourceRecord> to) throws ValidationException {
+        if(age == 0){
+            //RRs are immutable, so they can be handed out again without copying
+            to.addAll(rrs);
+            return;
+        }
+        for(ResourceRecord rr : rrs){
+            to.add(((ResourceRecord) rr.clone()).setTTL(Math.max(0, rr.getTTL() - age)));
+        }
+    }
+
+    /**
+     * Get the shortest TTL among the given RRs
+     * @param rrs RRs
+     * @return shortest TTL (in seconds), or MAX_TTL if there are none
+     */
+    private static long minTTL(List<ResourceRecord> rrs) {
+        long ttl = MAX_TTL;
+        for(ResourceRecord rr : rrs){
+            ttl = Math.min(ttl, rr.getTTL());
+        }
+        return ttl;
+    }
+
+    /**
+     * Get the number of searches answered from the cache
+     * @return number of hits
+     */
+    public long getHits() { return this.hits; }
+
+    /**
+     * Get the number of searches that went to the source
+     * @return number of misses
+     */
+    public long getMisses() { return this.misses; }
+}
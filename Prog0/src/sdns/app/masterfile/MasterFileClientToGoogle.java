@@ -43,20 +43,16 @@ public class MasterFileClientToGoogle implements MasterFile {
         //connect to DNS server with request
         try {
             List<Response> responses = new ArrayList<>();
-            Client.runClient(new String[]{DNS_IP_ADDR, "53", question}, true, responses);
+            //a real DNS server, so follow its compression pointers
+            Client.runClient(new String[]{DNS_IP_ADDR, "53", question}, true, true, responses);
 
             //this is relatively hacky but we can get away with it
             //we only asked one question so the response better be the first one in the list
             if(responses.size() > 0){
-                for(ResourceRecord rr : responses.get(0).getAnswerList()){
-                    answers.add((ResourceRecord) rr.clone());
-                }
-                for(ResourceRecord rr : responses.get(0).getNameServerList()){
-                    nameservers.add((ResourceRecord) rr.clone());
-                }
-                for(ResourceRecord rr : responses.get(0).getAdditionalList()){
-                    additionals.add((ResourceRecord) rr.clone());
-                }
+                //the response's RRs are immutable snapshots, so they can be handed out without copying
+                answers.addAll(responses.get(0).getAnswerList());
+                nameservers.addAll(responses.get(0).getNameServerList());
+                additionals.addAll(responses.get(0).getAdditionalList());
             } else {
                 throw new NoSuchElementException("No responses");
             }
@@ -0,0 +1,154 @@
+//Contains the CachingMasterFileTest class (see comments below)
+//Created: 10/17/26
+package sdns.app.masterfile.test;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.CachingMasterFile;
+import sdns.app.masterfile.MasterFile;
+import sdns.serialization.NS;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ethan Dickey
+ */
+public class CachingMasterFileTest {
+    //TTL the stub hands out (seconds)
+    private static final int TTL = 60;
+    //Searches that reached the stub
+    private int searches;
+    //Fake clock (nanoseconds)
+    private long now;
+    //Stub source: one NS RR per question, except questions starting with "none" (which don't exist)
+    private final MasterFile stub = (question, answers, nameservers, additionals) -> {
+        this.searches++;
+        if(question.startsWith("none")){
+            throw new NoSuchElementException("No such name");
+        }
+        answers.add(new NS(question, TTL, "ns.foo.").snapshot());
+    };
+
+    /**
+     * Resets the stub and the clock
+     */
+    @BeforeEach
+    void reset() {
+        this.searches = 0;
+        this.now = 1000;
+    }
+
+    /**
+     * Searches the cache
+     * @param mf master file to search
+     * @param question question
+     * @return answer RRs found
+     * @throws ValidationException if the search fails
+     */
+    private static List<ResourceRecord> search(MasterFile mf, String question) throws ValidationException {
+        List<ResourceRecord> answers = new ArrayList<>();
+        mf.search(question, answers, new ArrayList<>(), new ArrayList<>());
+        return answers;
+    }
+
+    /**
+     * Moves the fake clock forward
+     * @param seconds seconds to move it
+     */
+    private void advance(long seconds) { this.now += TimeUnit.SECONDS.toNanos(seconds); }
+
+    /**
+     * Repeated questions are answered from the cache, whatever their case
+     */
+    @Test @DisplayName("Hits and misses")
+    void hitsAndMisses() throws ValidationException {
+        CachingMasterFile mf = new CachingMasterFile(this.stub, 4, () -> this.now);
+        List<ResourceRecord> first = search(mf, "foo.com.");
+        List<ResourceRecord> second = search(mf, "FOO.com.");
+        assertAll(() -> assertEquals(1, this.searches),
+                () -> assertEquals(first, second),
+                () -> assertSame(first.get(0), second.get(0)),
+                () -> assertEquals(1, mf.getHits()),
+                () -> assertEquals(1, mf.getMisses()));
+    }
+
+    /**
+     * Cached RRs come back with their TTLs cut by their age, until the shortest TTL runs out
+     */
+    @Test @DisplayName("Expiry")
+    void expiry() throws ValidationException {
+        CachingMasterFile mf = new CachingMasterFile(this.stub, 4, () -> this.now);
+        search(mf, "foo.com.");
+        advance(TTL - 1);
+        List<ResourceRecord> aged = search(mf, "foo.com.");
+        assertAll(() -> assertEquals(1, aged.get(0).getTTL()),
+                () -> assertEquals(1, this.searches));
+        advance(1);
+        List<ResourceRecord> fresh = search(mf, "foo.com.");
+        assertAll(() -> assertEquals(TTL, fresh.get(0).getTTL()),
+                () -> assertEquals(2, this.searches),
+                () -> assertEquals(2, mf.getMisses()));
+    }
+
+    /**
+     * No question is remembered longer than MAX_TTL
+     */
+    @Test @DisplayName("Max TTL")
+    void maxTTL() throws ValidationException {
+        MasterFile longLived = (question, answers, nameservers, additionals) -> {
+            this.searches++;
+            answers.add(new NS(question, CachingMasterFile.MAX_TTL * 10, "ns.foo."));
+        };
+        CachingMasterFile mf = new CachingMasterFile(longLived, 4, () -> this.now);
+        search(mf, "foo.com.");
+        advance(CachingMasterFile.MAX_TTL);
+        search(mf, "foo.com.");
+        assertEquals(2, this.searches);
+    }
+
+    /**
+     * The least recently used question is dropped first
+     */
+    @Test @DisplayName("LRU eviction")
+    void eviction() throws ValidationException {
+        CachingMasterFile mf = new CachingMasterFile(this.stub, 2, () -> this.now);
+        search(mf, "a.");
+        search(mf, "b.");
+        search(mf, "a.");//b is now the least recently used
+        search(mf, "c.");
+        search(mf, "a.");
+        assertEquals(3, this.searches);
+        search(mf, "b.");
+        assertEquals(4, this.searches);
+    }
+
+    /**
+     * Questions the source fails on are not remembered
+     */
+    @Test @DisplayName("Failures not cached")
+    void failures() {
+        CachingMasterFile mf = new CachingMasterFile(this.stub, 2, () -> this.now);
+        assertThrows(NoSuchElementException.class, () -> search(mf, "none."));
+        assertThrows(NoSuchElementException.class, () -> search(mf, "none."));
+        assertAll(() -> assertEquals(2, this.searches),
+                () -> assertEquals(0, mf.getHits()));
+    }
+
+    /**
+     * Bad constructor parameters
+     */
+    @Test @DisplayName("Bad parameters")
+    void badParameters() {
+        assertAll(() -> assertThrows(NullPointerException.class, () -> new CachingMasterFile(null, 2)),
+                () -> assertThrows(NullPointerException.class, () -> new CachingMasterFile(this.stub, 2, null)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new CachingMasterFile(this.stub, 0)));
+    }
+}
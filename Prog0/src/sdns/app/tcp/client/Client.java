@@ -2,15 +2,17 @@
 //Created: 10/25/20
 package sdns.app.tcp.client;
 
+import sdns.app.utils.BufferPool;
+import sdns.serialization.FrameReader;
 import sdns.serialization.Query;
 import sdns.serialization.Response;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -45,71 +47,91 @@ public class Client {
      * @param responsesContainer the container to stuff the responses into if recordResponses is true
      */
     public static void runClient(String[] args, boolean silent, List<Response> responsesContainer) throws IllegalArgumentException {
+        runClient(args, silent, false, responsesContainer);
+    }
+
+    /**
+     * Queries all questions in args
+     * @param args ip, port, and query strings
+     * @param silent whether or not to record the responses
+     * @param compressed whether to follow compression pointers in the responses (for real DNS servers, which
+     *   compress names; SDNS servers are held to the SDNS rule that a pointer ends the name)
+     * @param responsesContainer the container to stuff the responses into if recordResponses is true
+     */
+    public static void runClient(String[] args, boolean silent, boolean compressed, List<Response> responsesContainer)
+            throws IllegalArgumentException {
         //Get args/validate
         InetAddress serverAddress = getAddressFromArgs(args);
         int serverPort = getPortFromArgs(args);
 
         //construct socket and input/output streams
         Socket socket = createTCPSocket(serverAddress, serverPort, silent);
-        InputStream in = null;
+        FrameReader in = null;
         OutputStream sout = null;
+        //responses are read through a pooled buffer, returned however the client ends (silent clients, like the
+        //  server's upstream lookups, throw on timeouts and I/O errors)
+        ByteBuffer readBuff = BufferPool.HEAP.lease(FrameReader.DEFAULT_CAPACITY);
         try {
-            in = socket.getInputStream();
-            sout = socket.getOutputStream();
-        } catch (IOException e) {
-            //"if the socket could not be opened, or the socket could not bind to the specified local port"
-            if(!silent){
-                err.println("ERROR: I/O Error while creating the socket or output stream: " + e.getMessage());
-                System.exit(1);
-            } else {
-                throw new RuntimeException("ERROR: I/O Error while creating the socket or output stream: " + e.getMessage(), e);
+            try {
+                in = new FrameReader(socket.getInputStream(), readBuff.array());
+                sout = socket.getOutputStream();
+            } catch (IOException e) {
+                //"if the socket could not be opened, or the socket could not bind to the specified local port"
+                if(!silent){
+                    err.println("ERROR: I/O Error while creating the socket or output stream: " + e.getMessage());
+                    System.exit(1);
+                } else {
+                    throw new RuntimeException("ERROR: I/O Error while creating the socket or output stream: " + e.getMessage(), e);
+                }
             }
-        }
 
-        //Record each ID/Question in Expected List (EL)
-        //if the number of questions is > MAX_INT, the program won't run in the first place because the
-        //   JVM won't allocate that many array spots to this program
-        List<Query> el = getExpectedListFromArgs(args, silent);
+            //Record each ID/Question in Expected List (EL)
+            //if the number of questions is > MAX_INT, the program won't run in the first place because the
+            //   JVM won't allocate that many array spots to this program
+            List<Query> el = getExpectedListFromArgs(args, silent);
 
-        //The client should first send all questions
-        sendQueriesTCP(sout, el, silent);
-        //done with output, so shut it down (TCP guarantees delivery)
-        try {
-            socket.shutdownOutput();
-        } catch (IOException e) {
-            //ack
-        }
+            //The client should first send all questions
+            sendQueriesTCP(sout, el, silent);
+            //done with output, so shut it down (TCP guarantees delivery)
+            try {
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                //ack
+            }
 
-        //Then process responses as described in the Client Protocol (in the specification)
-        while(0 < el.size()) {
-            //Don't need to handle retransmission protocol, according to the specs,
-            // "As TCP is reliable, you do not need to implement an additional retransmission mechanism
-            //  for the TCP SDNS client."
-            //However, if I took out timeouts, then we wouldn't be able to cover the case where the server never
-            //  responds, even if it got the message (which is the only thing that TCP guarantees).
-            //AKA, the timeout covers more than just TCP reliability, it covers the protocol.
+            //Then process responses as described in the Client Protocol (in the specification)
+            while(0 < el.size()) {
+                //Don't need to handle retransmission protocol, according to the specs,
+                // "As TCP is reliable, you do not need to implement an additional retransmission mechanism
+                //  for the TCP SDNS client."
+                //However, if I took out timeouts, then we wouldn't be able to cover the case where the server never
+                //  responds, even if it got the message (which is the only thing that TCP guarantees).
+                //AKA, the timeout covers more than just TCP reliability, it covers the protocol.
 
-            //handle a socket timeout (retry requests)
-            try {
-                Response r = receiveResponseTCP(in, el, silent);
+                //handle a socket timeout (retry requests)
+                try {
+                    Response r = receiveResponseTCP(in, el, silent, compressed);
 
-                if(r != null){
-                    //handle success
-                    if(!silent) {
-                        out.println(r.toString());
-                    } else {
-                        responsesContainer.add(r);
+                    if(r != null){
+                        //handle success
+                        if(!silent) {
+                            out.println(r.toString());
+                        } else {
+                            responsesContainer.add(r);
+                        }
+                        el = el.stream().filter(q -> q.getID() != r.getID()).collect(Collectors.toList());
+                    }
+                } catch (SocketTimeoutException e) {
+                    if(hasTimedOut){
+                        handleSecondTimeout(el, silent);
+                    } else {//otherwise retransmit all queries in EL
+                        hasTimedOut = true;
+                        sendQueriesTCP(sout, el, silent);
                     }
-                    el = el.stream().filter(q -> q.getID() != r.getID()).collect(Collectors.toList());
-                }
-            } catch (SocketTimeoutException e) {
-                if(hasTimedOut){
-                    handleSecondTimeout(el, silent);
-                } else {//otherwise retransmit all queries in EL
-                    hasTimedOut = true;
-                    sendQueriesTCP(sout, el, silent);
                 }
             }
+        } finally {
+            BufferPool.HEAP.release(readBuff);
         }
     }
 
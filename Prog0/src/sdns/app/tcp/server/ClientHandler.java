@@ -1,11 +1,13 @@
 package sdns.app.tcp.server;
 
+import sdns.app.utils.BufferPool;
 import sdns.app.utils.ServerProtocol;
 import sdns.serialization.*;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 import static sdns.app.utils.LoggingUtils.*;
 
@@ -29,7 +31,10 @@ public class ClientHandler extends ServerProtocol implements Runnable {
     @Override
     protected boolean sendResponse(Response r) throws IOException {
         try {
-            sout.write(Framer.frameMsg(r.encode()));
+            //frame straight into this thread's scratch buffer, which is free again once the write returns
+            ByteBuffer buff = IOUtils.getScratchBuffer();
+            Framer.frameMsg(r, buff);
+            sout.write(buff.array(), 0, buff.position());
             return true;
         } catch (ValidationException e) {
             //ack
@@ -59,16 +64,18 @@ public class ClientHandler extends ServerProtocol implements Runnable {
      */
     @Override
     public void run() {
-        //deal with client
+        //deal with client (reading through a pooled buffer, returned once the connection is done)
+        ByteBuffer readBuff = BufferPool.HEAP.lease(FrameReader.DEFAULT_CAPACITY);
         try {
             //get input and output streams
             this.sout = this.client.getOutputStream();
 
-            //get message
-            while(true){
-                byte[] data = Framer.nextMsg(this.client.getInputStream());
+            //read frames in bulk through one buffer for the whole connection
+            FrameReader reader = new FrameReader(this.client.getInputStream(), readBuff.array());
 
-                this.processResponse(data);
+            //get message (decoded in place, which is safe since the frame isn't kept once processed)
+            while(true){
+                this.processResponse(reader.nextFrame());
             }
         } catch(IOException e){
             logCommunicationError(e.getMessage());
@@ -78,6 +85,8 @@ public class ClientHandler extends ServerProtocol implements Runnable {
             } catch (IOException e) {
                 logCommunicationError(e.getMessage());
             }
+            BufferPool.HEAP.release(readBuff);
+            logBufferPool(BufferPool.HEAP);
         }
     }
 }
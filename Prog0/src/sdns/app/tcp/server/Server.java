@@ -2,11 +2,14 @@
 //Created: 11/7/20
 package sdns.app.tcp.server;
 
+import sdns.app.utils.BufferPool;
+
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import static sdns.app.utils.LoggingUtils.*;
 import static sdns.app.utils.ServerValidationUtils.*;
@@ -14,6 +17,12 @@ import static sdns.app.utils.ServerValidationUtils.*;
 /**
  * The server will take the command-line parameter of the server port. The server should repeatedly receive
  *   a Query and send a Response with a thread pool according to the server protocol.
+ * In elastic mode, the pool has no fixed size: a thread is started for each connection when no idle one is left
+ *   (and dies after a minute without work), and a limit on concurrent connections takes the place of the thread
+ *   count.  Connections past the limit wait in the accept backlog until one closes, instead of being accepted and
+ *   left queued behind busy threads.  Each upstream lookup runs on its connection's thread, so a slow lookup holds up
+ *   only that connection.  This is still one platform thread per connection in flight (up to the limit), each with its
+ *   own stack, so the limit should stay in the thousands; for many more connections, use ServerAIO.
  *
  * @author Ethan Dickey
  *   Credit: Dr. Donahoo of Baylor University for comments and API
@@ -21,6 +30,8 @@ import static sdns.app.utils.ServerValidationUtils.*;
  */
 public class Server {
     private static final int TIMEOUT_MS = 20000;
+    //Argument selecting elastic mode
+    private static final String ELASTIC = "elastic";
 
     /**
      * Main
@@ -28,7 +39,7 @@ public class Server {
      * @param args arguments
      */
     public static void main(String[] args){
-        final String usageError = "Usage: <server port> <number of threads>";
+        final String usageError = "Usage: <server port> (<number of threads> | " + ELASTIC + " <max connections>)";
 
         //Set up logger to specifications
         setupLogger();
@@ -36,7 +47,8 @@ public class Server {
         ///////////////////////////////////////
         //Validate program arguments///////////
         //"The server should take the command-line parameters of the server port and number of threads in pool."
-        if(args.length != 2){
+        boolean elastic = args.length == 3 && ELASTIC.equals(args[1]);
+        if(args.length != 2 && !elastic){
             logErrorAndExit("Unable to start: Bad usage: " + usageError);
         }
 
@@ -44,15 +56,23 @@ public class Server {
         int serverPort = getAndHandlePort(args[0]);
         int nThreads = -1;
         try{
-            nThreads = Integer.parseInt(args[1]);
+            nThreads = Integer.parseInt(args[args.length - 1]);
         } catch(NumberFormatException e){
-            logErrorAndExit("Unable to start: Malformed number of threads: \"" + args[1] + "\"");
+            logErrorAndExit("Unable to start: Malformed " + (elastic ? "max connections" : "number of threads")
+                    + ": \"" + args[args.length - 1] + "\"");
+        }
+        if(elastic && nThreads < 1){
+            logErrorAndExit("Unable to start: Max connections must be positive: " + nThreads);
         }
 
 
         ///////////////////////////////////////
         //Set up thread pool///////////////////
-        ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
+        //elastic: threads come and go with the connections, and the limiter caps how many there are
+        //  (their threads hand their pooled buffers back as they die off)
+        ExecutorService threadPool = elastic ? Executors.newCachedThreadPool(BufferPool.releasingThreadFactory())
+                : Executors.newFixedThreadPool(nThreads);
+        Semaphore limiter = elastic ? new Semaphore(nThreads) : null;
 
 
         ///////////////////////////////////////
@@ -70,11 +90,34 @@ public class Server {
         while(true){
             //make sure server never dies.  ever..
             try{
-                Socket client = serverSocket.accept();
-                client.setSoTimeout(TIMEOUT_MS);
+                //wait for a free connection slot before taking the next client off the backlog
+                if(limiter != null){
+                    limiter.acquireUninterruptibly();
+                }
+                Socket client;
+                try {
+                    client = serverSocket.accept();
+                    client.setSoTimeout(TIMEOUT_MS);
+                } catch(IOException e){
+                    if(limiter != null){
+                        limiter.release();
+                    }
+                    throw e;
+                }
 
-                //distribute to thread pool
-                threadPool.execute(new ClientHandler(client));
+                //distribute to thread pool (giving the slot back once the connection is done)
+                ClientHandler handler = new ClientHandler(client);
+                if(limiter == null){
+                    threadPool.execute(handler);
+                } else {
+                    threadPool.execute(() -> {
+                        try {
+                            handler.run();
+                        } finally {
+                            limiter.release();
+                        }
+                    });
+                }
             } catch (IOException e) {
                 logCommunicationError(e.getMessage());
             } catch(Exception e){//just in case.....
@@ -2,20 +2,24 @@
 //Created: 11/14/20
 package sdns.app.tcp.server;
 
+import sdns.app.utils.BufferPool;
 import sdns.app.utils.ServerProtocol;
-import sdns.serialization.Framer;
-import sdns.serialization.NIODeframer;
-import sdns.serialization.Response;
-import sdns.serialization.ValidationException;
+import sdns.serialization.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static sdns.app.utils.LoggingUtils.*;
 import static sdns.app.utils.ServerValidationUtils.getAndHandlePort;
@@ -24,6 +28,10 @@ import static sdns.app.utils.ServerValidationUtils.getAndHandlePort;
  * The server will take the command-line parameter of the server port. The server should repeatedly receive
  *   a Query and send a Response with a thread pool according to the server protocol.  The server should use
  *   asynchronous I/O
+ * Requests are pipelined: every message decoded from a connection is looked up on its own (on the lookup executor,
+ *   optionally sized on the command line), and each response is queued for writing as soon as it is ready, so
+ *   responses go out in the order their lookups finish rather than the order the queries came in.  A connection stops
+ *   reading while MAX_IN_FLIGHT of its requests are outstanding, which bounds its write queue.
  *
  * @author Ethan Dickey
  *   Credit: Dr. Donahoo of Baylor University for comments and API, Oracle for AsynchronousServerSocketChannel sample code
@@ -39,6 +47,31 @@ public class ServerAIO {
      *   arbitrary, since the reads are buffered
      */
     private static final int BUFFSIZE = 256;
+    /**
+     * Bytes each connection's deframer buffers (bytes)
+     *   a framed query is at most 273 bytes, so this fits many pipelined queries (only a longer frame grows it, and only
+     *   until the frame is read)
+     */
+    private static final int DEFRAMER_CAPACITY = 4096;
+    /**
+     * Requests a connection may have outstanding (being looked up, or answered but not yet written) before it stops
+     *   reading
+     */
+    private static final int MAX_IN_FLIGHT = 32;
+    /**
+     * Responses a connection may have queued for writing
+     *   a read completes at most BUFFSIZE/19 + 1 < MAX_IN_FLIGHT queries (the shortest is 19 bytes framed), and reads
+     *   stop at MAX_IN_FLIGHT, so the queue never fills
+     */
+    private static final int WRITE_QUEUE_CAPACITY = 2 * MAX_IN_FLIGHT;
+    /**
+     * Most responses written with one (gathering) write
+     */
+    private static final int MAX_GATHER = 16;
+    /**
+     * Runs every connection's lookups
+     */
+    private static ExecutorService lookups;
 
     /**
      * Main
@@ -46,7 +79,7 @@ public class ServerAIO {
      * @param args arguments
      */
     public static void main(String[] args){
-        final String usageError = "Usage: <server port>";
+        final String usageError = "Usage: <server port> [<number of lookup threads>]";
 
         //Set up logger to specifications
         setupLogger();
@@ -54,12 +87,25 @@ public class ServerAIO {
         ///////////////////////////////////////
         //Validate program arguments///////////
         //"The AOI server takes the command-line argument of the port of the server."
-        if(args.length != 1){
+        if(args.length != 1 && args.length != 2){
             logErrorAndExit("Unable to start: Bad usage: " + usageError);
         }
 
         //get server port and validate
         int serverPort = getAndHandlePort(args[0]);
+        int nThreads = -1;
+        if(args.length == 2){
+            try{
+                nThreads = Integer.parseInt(args[1]);
+            } catch(NumberFormatException e){
+                logErrorAndExit("Unable to start: Malformed number of lookup threads: \"" + args[1] + "\"");
+            }
+            if(nThreads < 1){
+                logErrorAndExit("Unable to start: Number of lookup threads must be positive: " + nThreads);
+            }
+        }
+        //lookups block on the master file (e.g. an upstream server), so by default there are as many threads as needed
+        lookups = nThreads > 0 ? Executors.newFixedThreadPool(nThreads) : Executors.newCachedThreadPool(BufferPool.releasingThreadFactory());
 
         try (final AsynchronousServerSocketChannel listenChannel =
                      AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(serverPort))) {// Bind local port
@@ -113,138 +159,315 @@ public class ServerAIO {
      * @param clntChan channel of new client
      */
     private static void handleAccept(final AsynchronousSocketChannel clntChan) {
-        final NIODeframer deframer = new NIODeframer();
-        final ByteBuffer readBuff = ByteBuffer.allocateDirect(BUFFSIZE);
+        //This will handle processing the client's messages and responding to them (with buffers from the pool)
+        final BatchProtocol sp = new BatchProtocol(clntChan);
 
-        //This will handle process the client's message and responding to it, as well as setting up callbacks
-        //  for afterwards
-        ServerProtocol sp = new ServerProtocol() {
-            /**
-             * Sends a Response
-             * @param r Response to send
-             * @throws IOException if sending error
-             */
-            @Override
-            protected boolean sendResponse(Response r) throws IOException {
-                byte[] resp;
+        //try to read bytes, add handler once finished (non-blocking)
+        sp.readPaused.set(true);
+        sp.afterProgress();
+    }
+
+    /**
+     * Server protocol for one connection.  Every message that arrived in one read is decoded in one go (see
+     *   NIODeframer.getMessages(ByteBuffer, MessageBatch)) and handed to the lookup executor, which may process a
+     *   connection's messages concurrently.  Each response is framed into its own buffer and put on the connection's
+     *   write queue (lock-free, and bounded), and whatever is queued is written with one gathering write at a time.
+     * At most one read and one write are ever outstanding.  Once the client is done sending (or reading fails), the
+     *   connection is closed as soon as its last response is written.
+     * Every buffer the connection uses is leased from BufferPool.DIRECT, and returned when the connection is closed.
+     */
+    static class BatchProtocol extends ServerProtocol {
+        private final AsynchronousSocketChannel clntChan;
+        //Buffer reads go into, and the deframer buffering the client's bytes (with the storage of its ring)
+        final ByteBuffer readBuff;
+        final NIODeframer deframer;
+        private final ByteBuffer deframerStorage;
+        //Reused for every read's batch (only one read is ever outstanding at a time)
+        private final MessageBatch batch = new MessageBatch();
+        //Framed responses waiting to be written, and how many there are
+        private final ConcurrentLinkedQueue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger nResponses = new AtomicInteger();
+        //Responses being written (only one write is ever outstanding at a time)
+        private final ByteBuffer[] toWrite = new ByteBuffer[MAX_GATHER];
+        private int nToWrite = 0;
+        private final AtomicBoolean writing = new AtomicBoolean();
+        //Requests dispatched and not yet done, plus responses queued and not yet written
+        private final AtomicInteger outstanding = new AtomicInteger();
+        //Whether no read is outstanding and one should start once there is room (see afterProgress())
+        final AtomicBoolean readPaused = new AtomicBoolean();
+        //Whether the connection is done reading (for good), and whether writing failed
+        private volatile boolean readDone = false, broken = false;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Constructs the protocol for a connection, leasing its buffers
+         * @param clntChan channel of the client
+         */
+        BatchProtocol(AsynchronousSocketChannel clntChan){
+            super();
+            this.clntChan = clntChan;
+            this.readBuff = BufferPool.DIRECT.lease(BUFFSIZE);
+            this.deframerStorage = BufferPool.DIRECT.lease(NIODeframer.storageSize(DEFRAMER_CAPACITY));
+            this.deframer = new NIODeframer(this.deframerStorage, DEFRAMER_CAPACITY);
+        }
+
+        /**
+         * Closes the connection and returns its buffers to the pool (only the first call does anything).  Only called
+         *   when no read, write, or lookup is outstanding.
+         * @throws IOException if the channel can't be closed
+         */
+        void close() throws IOException {
+            if(!this.closed.compareAndSet(false, true)){
+                return;
+            }
+            try {
+                this.clntChan.close();
+            } finally {
+                BufferPool.DIRECT.release(this.readBuff);
+                BufferPool.DIRECT.release(this.deframerStorage);
+                logBufferPool(BufferPool.DIRECT);
+            }
+        }
+
+        /**
+         * Starts the next read if reading is paused and there is room for more requests, and closes the connection if
+         *   reading is done and nothing is outstanding.  Called whenever a read, write, or lookup finishes.
+         */
+        void afterProgress() {
+            if(this.outstanding.get() < MAX_IN_FLIGHT && this.readPaused.compareAndSet(true, false)){
+                if(this.broken){//can't answer anything more, so don't read anything more
+                    this.readDone = true;
+                } else {
+                    this.readBuff.clear();
+                    this.clntChan.read(this.readBuff, TIMEOUT, TimeUnit.SECONDS, this.readBuff,
+                            makeReadCompletionHandler(this.clntChan, this));
+                }
+            }
+
+            if(this.readDone && this.outstanding.get() == 0){
                 try {
-                    resp = Framer.frameMsg(r.encode());
-                } catch (ValidationException e) {
-                    //ack
-                    return false;
+                    this.close();
+                } catch (IOException e) {
+                    logWarning("Failed to close the connection: " + e.getMessage());
                 }
+            }
+        }
 
-                //Spawn off a writer handler
-                ByteBuffer toWrite = ByteBuffer.wrap(resp);
-                clntChan.write(toWrite, toWrite, makeWriteCompletionHandler(clntChan, deframer, this, readBuff));
-                return true;
+        /**
+         * Decodes every complete message read so far, handles the ones that don't decode, and hands the rest to the
+         *   lookup executor
+         * @param readBuff bytes just read
+         */
+        void dispatchBatch(ByteBuffer readBuff) {
+            this.deframer.getMessages(readBuff, this.batch);
+            for(int i=0; i<this.batch.size(); i++){
+                if(this.batch.getResult(i) == DecodeResult.OK){
+                    //decoded messages don't point back into the deframer, so they outlive the batch
+                    final Message m = this.batch.getMessage(i);
+                    this.outstanding.incrementAndGet();
+                    lookups.execute(() -> this.lookup(m));
+                } else {
+                    this.processInvalid(this.batch.getResult(i).getDescription(), this.batch.getFrameLength(i));
+                }
             }
+            this.batch.clear();
+        }
 
-            /**
-             * Runs upon failure to respond to the client during processResponse
-             *   (primarily for possible use in derived classes)
-             */
-            @Override
-            protected void handleFailedSend() {
-                //possibly need to deserialize more, so spawn off handleWrite
-                //spawn off a read completion handler
-                ByteBuffer toWrite = ByteBuffer.allocate(0).limit(0);
-                readBuff.clear();
-                clntChan.write(toWrite, toWrite, makeWriteCompletionHandler(clntChan, deframer, this, readBuff));
+        /**
+         * Processes one message (on the lookup executor), queueing its response
+         * @param m message to process
+         */
+        private void lookup(Message m) {
+            try {
+                this.processMessage(m);
+            } catch (IOException e) {
+                logCommunicationError(e.getMessage());
+            } catch(Exception e){//just in case.....
+                logSevereError("WARN WARN WARN CRITICAL INTERNAL ERROR: " + e.getMessage());
+            } finally {
+                this.outstanding.decrementAndGet();
+                this.afterProgress();
             }
+        }
 
-            /**
-             * Logs the current client with the given message
-             * @param message message to log
-             */
-            @Override
-            protected void logNewClient(String message) {
-                logNewASyncClient(clntChan, message);
+        /**
+         * Frames the Response into its own buffer and queues it for writing
+         * @param r Response to send
+         * @return success or failure
+         */
+        @Override
+        protected boolean sendResponse(Response r) {
+            if(this.broken){
+                return false;
+            }
+            ByteBuffer buff;
+            try {
+                buff = appendFrame(r, BufferPool.DIRECT.lease(BUFFSIZE)).flip();
+            } catch (ValidationException e) {
+                //ack
+                return false;
             }
-        };
 
-        //try to read bytes, add handler once finished (non-blocking)
-        readBuff.clear();
-        clntChan.read(readBuff, TIMEOUT, TimeUnit.SECONDS, readBuff, makeReadCompletionHandler(clntChan, deframer, sp));
+            //counted before it is queued, so the connection can't close under it
+            this.outstanding.incrementAndGet();
+            if(this.nResponses.incrementAndGet() > WRITE_QUEUE_CAPACITY){
+                this.nResponses.decrementAndGet();
+                this.outstanding.decrementAndGet();
+                BufferPool.DIRECT.release(buff);
+                logWarning("Write queue full, dropping response: " + r);
+                return false;
+            }
+            this.responses.offer(buff);
+            this.startWrite();
+            return true;
+        }
+
+        /**
+         * Starts writing the queued responses, unless a write is already outstanding (its completion starts the next).
+         *   If writing has failed, the queued responses are thrown away instead.
+         */
+        void startWrite() {
+            while(this.nResponses.get() > 0 && this.writing.compareAndSet(false, true)){
+                ByteBuffer buff;
+                while(this.nToWrite < MAX_GATHER && (buff = this.responses.poll()) != null){
+                    this.nResponses.decrementAndGet();
+                    this.toWrite[this.nToWrite++] = buff;
+                }
+                if(this.nToWrite > 0 && !this.broken){
+                    this.clntChan.write(this.toWrite, 0, this.nToWrite, TIMEOUT, TimeUnit.SECONDS, this.toWrite,
+                            makeWriteCompletionHandler(this.clntChan, this));
+                    return;
+                }
+                //nothing polled yet (a response is still being queued), or nothing can be written
+                this.finishWrite();
+            }
+        }
+
+        /**
+         * Returns the buffers of the last write to the pool, and lets the next write start
+         */
+        void finishWrite() {
+            int n = this.nToWrite;
+            for(int i=0; i<n; i++){
+                BufferPool.DIRECT.release(this.toWrite[i]);
+                this.toWrite[i] = null;
+            }
+            this.nToWrite = 0;
+            this.outstanding.addAndGet(-n);
+            this.writing.set(false);
+        }
+
+        /**
+         * Gives up on writing to the client: stops reading, and throws away every response queued or still to come
+         */
+        void breakConnection() {
+            this.broken = true;
+            try {//fails any outstanding read, which then stops reading
+                this.clntChan.close();
+            } catch (IOException e) {
+                logWarning("Failed to close the connection: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Runs upon failure to respond to the client during processResponse
+         */
+        @Override
+        protected void handleFailedSend() {
+            //nothing to send for this message
+        }
+
+        /**
+         * Logs the current client with the given message
+         * @param message message to log
+         */
+        @Override
+        protected void logNewClient(String message) {
+            logNewASyncClient(clntChan, message);
+        }
+    }
+
+    /**
+     * Frames the response straight into the given buffer after what it already holds, doubling the buffer (and
+     *   keeping what it holds) until the frame fits.  Buffers are leased from BufferPool.DIRECT, and the ones replaced
+     *   are returned to it.
+     * @param r response to frame
+     * @param buff buffer to frame into
+     * @return the buffer holding the frame (buff, or a bigger replacement), positioned just past the frame
+     * @throws ValidationException if the response is too long to frame (the buffer is returned to the pool)
+     */
+    private static ByteBuffer appendFrame(Response r, ByteBuffer buff) throws ValidationException {
+        final int start = buff.position();
+        while(true){
+            try {
+                Framer.frameMsg(r, buff);
+                return buff;
+            } catch(BufferOverflowException e){
+                //too long frames throw a ValidationException instead, so this can't grow forever
+                buff.position(start);
+                ByteBuffer bigger = BufferPool.DIRECT.lease(buff.capacity() * 2).put(buff.flip());
+                BufferPool.DIRECT.release(buff);
+                buff = bigger;
+            } catch(ValidationException e){
+                BufferPool.DIRECT.release(buff);
+                throw e;
+            }
+        }
     }
 
     /**
      * Called after each read completion
      *
-     * @param clntChan channel of new client
-     * @param deframer deframer to use as the buffer
      * @param sp ServerProtocol object to handle responses
      * @param readBuff byte buffer used in read
      * @param bytesRead number of bytes read
-     * @throws IOException if I/O problem
      */
-    public static void handleRead(final AsynchronousSocketChannel clntChan, NIODeframer deframer,
-                                  ServerProtocol sp, ByteBuffer readBuff, int bytesRead) throws IOException {
-
+    public static void handleRead(BatchProtocol sp, ByteBuffer readBuff, int bytesRead) {
         if (bytesRead == -1) { // Did the other end close?
-            clntChan.close();
-        } else if (bytesRead > 0) {
-            //Handle bytes read -- buf.array() is optional in implementation, so unsafe to use
-            byte[] tempBuff = new byte[bytesRead];
+            //no more requests, but the ones outstanding are still answered
+            sp.readDone = true;
+        } else {
+            //Handle bytes read -- buf.array() is optional in implementation, so hand the buffer over directly
             readBuff.flip();
-            readBuff.get(tempBuff);
-
-            //get any potential messages existing in the buffer
-            byte[] buffer = deframer.getMessage(tempBuff);
-
-            //if no readable message yet, go back to reading
-            if(buffer == null){
-                //go back to reading
-                readBuff.clear();
-                clntChan.read(readBuff, TIMEOUT, TimeUnit.SECONDS, readBuff, makeReadCompletionHandler(clntChan, deframer, sp));
-            } else {//if readable message, decode/etc, then go back to reading
-                //handle according to specifications -- sets up a new write completion handler
-                sp.processResponse(buffer);
-                //once this finishes, either a writer will have spawned off from sendResponse or from handleFailedSend
-            }
-        }
 
+            //hand off every message that is complete so far according to specifications
+            sp.dispatchBatch(readBuff);
+            sp.readPaused.set(true);
+        }
+        //go back to reading (once there is room)
+        sp.afterProgress();
     }
 
     /**
      * Called after each write
      *
      * @param clntChan channel of new client
-     * @param deframer the deframer to pass around
      * @param sp ServerProtocol object to handle responses
-     * @param writeBuff byte buffer used in write
-     * @param readBuff reading buffer to reuse
-     * @throws IOException if IO error while communicating with client
+     * @param toWrite byte buffers used in write
      */
-    public static void handleWrite(final AsynchronousSocketChannel clntChan, NIODeframer deframer,
-                                   ServerProtocol sp, ByteBuffer writeBuff, ByteBuffer readBuff) throws IOException {
-        if (writeBuff.hasRemaining()) { // More to write
-            clntChan.write(writeBuff, writeBuff, makeWriteCompletionHandler(clntChan, deframer, sp, readBuff));
-        } else {
-            //check for more to write from deframer
-            byte[] buffer = deframer.getMessage(new byte[0]);
-
-            if(buffer == null){
-                //go back to reading
-                readBuff.clear();
-                clntChan.read(readBuff, TIMEOUT, TimeUnit.SECONDS, readBuff, makeReadCompletionHandler(clntChan, deframer, sp));
-            } else {//if readable message, decode/etc, then go back to reading
-                //handle according to specifications -- sets up a new write completion handler
-                sp.processResponse(buffer);
-                //once this finishes, either a writer will have spawned off from sendResponse or from handleFailedSend
+    public static void handleWrite(final AsynchronousSocketChannel clntChan, BatchProtocol sp, ByteBuffer[] toWrite) {
+        //More to write? (a gathering write may stop partway through any buffer)
+        for(int i=0; i<sp.nToWrite; i++){
+            if(toWrite[i].hasRemaining()){
+                clntChan.write(toWrite, i, sp.nToWrite - i, TIMEOUT, TimeUnit.SECONDS, toWrite,
+                        makeWriteCompletionHandler(clntChan, sp));
+                return;
             }
         }
+        //write whatever was queued meanwhile, and go back to reading if this made room
+        sp.finishWrite();
+        sp.startWrite();
+        sp.afterProgress();
     }
 
     /**
      * Returns a new completion handler for when reading finishes
      * @param clntChan the async socket channel to use
-     * @param deframer the deframer to pass around
      * @param sp ServerProtocol object to handle responses
      * @return new completion handler for when reading finishes
      */
     private static CompletionHandler<Integer, ByteBuffer> makeReadCompletionHandler(
-            final AsynchronousSocketChannel clntChan, NIODeframer deframer, ServerProtocol sp){
+            final AsynchronousSocketChannel clntChan, BatchProtocol sp){
         return new CompletionHandler<Integer, ByteBuffer>() {//non-blocking
             /**
              * Invoked when an operation has completed.
@@ -256,11 +479,7 @@ public class ServerAIO {
              */
             @Override
             public void completed(Integer bytesRead, ByteBuffer buf) {
-                try {
-                    handleRead(clntChan, deframer, sp, buf, bytesRead);
-                } catch (IOException e) {
-                    logCommunicationError(e.getMessage());
-                }
+                handleRead(sp, buf, bytesRead);
             }
 
             /**
@@ -273,59 +492,52 @@ public class ServerAIO {
              */
             @Override
             public void failed(Throwable ex, ByteBuffer v) {
-                if(ex instanceof InterruptedByTimeoutException){
-                    try {
-                        //if nothing more to read, guaranteed that we already responded to everything we could
-                        clntChan.close();
-                        logCommunicationError("Failed to read: timeout: " + ex.getMessage());
-                    } catch (IOException e) {
-                        logWarning("Failed to close the connection: " + e.getMessage());
-                    }
+                //if nothing more to read, close once everything outstanding is answered
+                //  (on any failure, not just a timeout, so the connection's buffers go back to the pool)
+                if(!sp.broken){
+                    logCommunicationError("Failed to read" + (ex instanceof InterruptedByTimeoutException ? ": timeout: " : ": ")
+                            + ex.getMessage());
                 }
+                sp.readDone = true;
+                sp.afterProgress();
             }
         };
     }
 
     /**
-     * Returns a new completion handler for when reading finishes
+     * Returns a new completion handler for when writing finishes
      * @param clntChan the async socket channel to use
-     * @param deframer the deframer to pass around
      * @param sp ServerProtocol object to handle responses
-     * @param readBuff reading buffer to reuse
-     * @return new completion handler for when reading finishes
+     * @return new completion handler for when writing finishes
      */
-    private static CompletionHandler<Integer, ByteBuffer> makeWriteCompletionHandler(
-            final AsynchronousSocketChannel clntChan, NIODeframer deframer, ServerProtocol sp, ByteBuffer readBuff) {
-        return new CompletionHandler<Integer, ByteBuffer>() {//non-blocking
+    private static CompletionHandler<Long, ByteBuffer[]> makeWriteCompletionHandler(
+            final AsynchronousSocketChannel clntChan, BatchProtocol sp) {
+        return new CompletionHandler<Long, ByteBuffer[]>() {//non-blocking
             /**
              * Invoked when an operation has completed.
              *
              * @param bytesWritten The result of the I/O operation.
-             * @param buf          The object attached to the I/O operation when it was initiated.
+             * @param bufs         The object attached to the I/O operation when it was initiated.
              */
             @Override
-            public void completed(Integer bytesWritten, ByteBuffer buf) {
-                try {
-                    handleWrite(clntChan, deframer, sp, buf, readBuff);
-                } catch (IOException e) {
-                    logCommunicationError(e.getMessage());
-                }
+            public void completed(Long bytesWritten, ByteBuffer[] bufs) {
+                handleWrite(clntChan, sp, bufs);
             }
 
             /**
              * Invoked when an operation fails.
              *
-             * @param ex  The exception to indicate why the I/O operation failed
-             * @param buf The object attached to the I/O operation when it was initiated.
+             * @param ex   The exception to indicate why the I/O operation failed
+             * @param bufs The object attached to the I/O operation when it was initiated.
              */
             @Override
-            public void failed(Throwable ex, ByteBuffer buf) {
-                try {//if can't write, close connection
-                    clntChan.close();
-                    logCommunicationError("Failed to write: " + ex.getMessage());
-                } catch (IOException e) {
-                    logWarning("Failed to close the connection: " + e.getMessage());
-                }
+            public void failed(Throwable ex, ByteBuffer[] bufs) {
+                //if can't write, close connection (once what is outstanding is thrown away)
+                logCommunicationError("Failed to write: " + ex.getMessage());
+                sp.breakConnection();
+                sp.finishWrite();
+                sp.startWrite();
+                sp.afterProgress();
             }
         };
     }
@@ -2,6 +2,7 @@
 //Created: 10/11/20
 package sdns.app.udp.server;
 
+import sdns.app.utils.BufferPool;
 import sdns.app.utils.ServerProtocol;
 import sdns.serialization.*;
 
@@ -9,7 +10,9 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import static sdns.app.utils.LoggingUtils.*;
 import static sdns.app.utils.ServerValidationUtils.*;
@@ -17,6 +20,9 @@ import static sdns.app.utils.ServerValidationUtils.*;
 /**
  * The server will take the command-line parameter of the server port. The server should repeatedly receive
  *   a Query and send a Response according to the server protocol.
+ * Given a number of workers as well, receiving is split from processing: one thread receives datagrams into a bounded
+ *   set of packets and hands them to a pool of workers, each with its own protocol state and current packet, so one
+ *   slow lookup only holds up its own worker (see runPooled(int, int)).
  *
  * @author Ethan Dickey
  *   Credit: Dr. Donahoo of Baylor University for comments and API
@@ -24,7 +30,9 @@ import static sdns.app.utils.ServerValidationUtils.*;
  */
 public class Server extends ServerProtocol {
     //Max bytes in a DNS UDP packet
-    private static final int MAX_PACKET_SIZE = 512;
+    static final int MAX_PACKET_SIZE = 512;
+    //Packets per worker in pooled mode: one being worked on, the rest received and waiting
+    private static final int PACKETS_PER_WORKER = 4;
     private DatagramSocket sout = null;
     private DatagramPacket source;
 
@@ -44,14 +52,15 @@ public class Server extends ServerProtocol {
             logErrorAndExit("Unable to start: bad port (or socket error): " + e.getMessage());
         }
 
-        //Create a packet for processing
-        source = new DatagramPacket(new byte[MAX_PACKET_SIZE], MAX_PACKET_SIZE);
+        //Create a packet for processing (over a pooled buffer, which the server keeps for as long as it runs)
+        source = new DatagramPacket(BufferPool.HEAP.lease(MAX_PACKET_SIZE).array(), MAX_PACKET_SIZE);
         while(true){
             //Make sure to catch any IO errors
             try {
                 sout.receive(source);//blocking
 
-                this.processResponse(Arrays.copyOfRange(source.getData(), 0, source.getLength()));
+                //decode straight out of the receive buffer
+                this.processResponse(ByteBuffer.wrap(source.getData(), source.getOffset(), source.getLength()));
             } catch (IOException e) {
                 logCommunicationError(e.getMessage());
             } catch (Exception e){//just in case.....
@@ -67,12 +76,155 @@ public class Server extends ServerProtocol {
      */
     @Override
     protected boolean sendResponse(Response r) throws IOException {
-        byte[] encoded = r.encode();
-        DatagramPacket toSend = new DatagramPacket(encoded, encoded.length, source.getAddress(), source.getPort());
-        sout.send(toSend);
+        return send(sout, r, source);
+    }
+
+    /**
+     * Encodes a Response for a UDP reply into the given buffer
+     * @param r Response to encode
+     * @param out buffer to encode into, with room for at least MAX_PACKET_SIZE bytes
+     */
+    static void encodeForUDP(Response r, ByteBuffer out) {
+        if(r.encodedLength() <= MAX_PACKET_SIZE){
+            r.encodeTo(out);
+        } else {
+            //too big for a classic UDP datagram, so share repeated names (dig and friends follow the pointers), and
+            //  leave out whatever still doesn't fit, setting TC so the client can ask again over TCP
+            r.encodeCompressedTo(out, MAX_PACKET_SIZE);
+        }
+    }
+
+    /**
+     * Sends a Response back to where the given packet came from
+     * @param sout socket to send through
+     * @param r Response to send
+     * @param from packet being answered
+     * @return success or failure
+     * @throws IOException if sending error
+     */
+    private static boolean send(DatagramSocket sout, Response r, DatagramPacket from) throws IOException {
+        //encode straight into this thread's scratch buffer, which is free again once the send returns
+        ByteBuffer encoded = IOUtils.getScratchBuffer();
+        encodeForUDP(r, encoded);
+        sout.send(new DatagramPacket(encoded.array(), encoded.position(), from.getAddress(), from.getPort()));
         return true;
     }
 
+    /**
+     * Runs the server with a pool of workers: this thread only receives, into packets from a bounded free list, and
+     *   queues them for the workers, which process them and put them back on the free list.  With every packet
+     *   waiting or being worked on, receiving waits for a worker to finish (and the kernel's receive buffer takes up
+     *   the slack), so memory stays bounded however far behind the workers fall.
+     * @param serverPort port to host on
+     * @param nWorkers number of workers
+     */
+    static void runPooled(int serverPort, int nWorkers) {
+        DatagramSocket sout = null;
+        try {
+            sout = new DatagramSocket(serverPort);
+            logUDPServerStart(sout);
+        } catch (SocketException e) {
+            logErrorAndExit("Unable to start: bad port (or socket error): " + e.getMessage());
+        }
+
+        //every packet there will ever be, over pooled buffers
+        int nPackets = nWorkers * PACKETS_PER_WORKER;
+        BlockingQueue<DatagramPacket> free = new ArrayBlockingQueue<>(nPackets), received = new ArrayBlockingQueue<>(nPackets);
+        for(int i=0; i<nPackets; i++){
+            free.add(new DatagramPacket(BufferPool.HEAP.lease(MAX_PACKET_SIZE).array(), MAX_PACKET_SIZE));
+        }
+        for(int i=0; i<nWorkers; i++){
+            Thread worker = new Thread(new Worker(sout, free, received), "sdns-udp-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        while(true){
+            try {
+                DatagramPacket packet = free.take();
+                packet.setLength(MAX_PACKET_SIZE);
+                try {
+                    sout.receive(packet);//blocking
+                } catch (IOException e) {
+                    free.add(packet);
+                    logCommunicationError(e.getMessage());
+                    continue;
+                }
+                received.add(packet);//never full: there are only as many packets as it holds
+            } catch (InterruptedException e) {
+                logWarning("Server Interrupted: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Processes received packets for runPooled(int, int), one at a time, with its own protocol state (including its
+     *   own master file) and its own current packet to answer
+     */
+    private static class Worker extends ServerProtocol implements Runnable {
+        private final DatagramSocket sout;
+        private final BlockingQueue<DatagramPacket> free, received;
+        //Packet being worked on
+        private DatagramPacket source;
+
+        /**
+         * Constructs a worker
+         * @param sout socket to reply through
+         * @param free queue to return packets to once done with them
+         * @param received queue to take packets to process from
+         */
+        Worker(DatagramSocket sout, BlockingQueue<DatagramPacket> free, BlockingQueue<DatagramPacket> received) {
+            super();
+            this.sout = sout;
+            this.free = free;
+            this.received = received;
+        }
+
+        /**
+         * Processes packets until interrupted
+         */
+        @Override
+        public void run() {
+            while(true){
+                try {
+                    this.source = received.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    //decode straight out of the packet, which isn't reused until it is back on the free list
+                    this.processResponse(ByteBuffer.wrap(source.getData(), source.getOffset(), source.getLength()));
+                } catch (IOException e) {
+                    logCommunicationError(e.getMessage());
+                } catch (Exception e){//just in case.....
+                    logSevereError("WARN WARN WARN CRITICAL INTERNAL ERROR: " + e.getMessage());
+                } finally {
+                    free.add(source);
+                }
+            }
+        }
+
+        /**
+         * Sends a Response to the sender of the packet being worked on
+         * @param r Response to send
+         * @throws IOException if sending error
+         */
+        @Override
+        protected boolean sendResponse(Response r) throws IOException {
+            return send(sout, r, source);
+        }
+
+        /**
+         * Logs the current client with the given message
+         * @param message message to log
+         */
+        @Override
+        protected void logNewClient(String message){
+            logNewUDPClient(source, message);
+        }
+    }
+
     /**
      * Logs the current client with the given message
      * @param message message to log
@@ -88,7 +240,7 @@ public class Server extends ServerProtocol {
      * @param args arguments
      */
     public static void main(String[] args) {
-        final String usageError = "Usage: <server port>";
+        final String usageError = "Usage: <server port> [<number of workers>]";
 
         //Set up logger to specifications
         setupLogger();
@@ -97,14 +249,27 @@ public class Server extends ServerProtocol {
         ///////////////////////////////////////
         //Validate program arguments///////////
         //The client command-line parameter is the server port
-        if (args.length != 1) {
+        if (args.length != 1 && args.length != 2) {
             logErrorAndExit("Unable to start: Bad usage: " + usageError);
         }
 
         //get server port and validate
         int serverPort = getAndHandlePort(args[0]);
 
-        //Start up server
-        new Server(serverPort);
+        //Start up server (with a pool of workers if asked for)
+        if(args.length == 2){
+            int nWorkers = -1;
+            try{
+                nWorkers = Integer.parseInt(args[1]);
+            } catch(NumberFormatException e){
+                logErrorAndExit("Unable to start: Malformed number of workers: \"" + args[1] + "\"");
+            }
+            if(nWorkers < 1){
+                logErrorAndExit("Unable to start: Number of workers must be positive: " + nWorkers);
+            }
+            runPooled(serverPort, nWorkers);
+        } else {
+            new Server(serverPort);
+        }
     }
 }
@@ -0,0 +1,367 @@
+//Contains the (UDP) ServerNIO class (see comments below)
+//Created: 10/17/26
+package sdns.app.udp.server;
+
+import sdns.app.masterfile.CachingMasterFile;
+import sdns.app.utils.BufferPool;
+import sdns.app.utils.ServerProtocol;
+import sdns.serialization.Response;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import static sdns.app.udp.server.Server.MAX_PACKET_SIZE;
+import static sdns.app.utils.LoggingUtils.*;
+import static sdns.app.utils.ServerValidationUtils.getAndCheckMasterFile;
+import static sdns.app.utils.ServerValidationUtils.getAndHandlePort;
+
+/**
+ * The server will take the command-line parameter of the server port (and, optionally, the sizes of the socket's
+ *   receive and send buffers). The server should repeatedly receive a Query and send a Response according to the
+ *   server protocol.  The server should use non-blocking I/O
+ * Every time the channel is ready, up to BATCH_SIZE datagrams are received into pooled direct buffers and decoded
+ *   in place, and their replies are encoded straight into pooled direct buffers and sent together.  If the socket's
+ *   send buffer fills up, the replies left wait for it to drain before anything more is received.
+ * Given a number of shards, that many servers run side by side, each with its own socket bound to the same port (with
+ *   SO_REUSEPORT, so the kernel spreads datagrams across them), its own thread, and its own buffers, counters, and
+ *   protocol state, including its own cache of recent answers in front of the master file (CachingMasterFile).  Shards
+ *   share nothing while handling datagrams, so they never contend.
+ *
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class ServerNIO extends ServerProtocol {
+    //Most datagrams received (and replies sent) per wakeup
+    private static final int BATCH_SIZE = 32;
+    //Batches between logging the counters
+    private static final int STATS_INTERVAL = 4096;
+    //Most questions each shard's cache remembers
+    private static final int CACHE_ENTRIES = 8192;
+
+    private final DatagramChannel chan;
+    //Which shard this is (0 if not sharded)
+    private final int shard;
+    //Datagrams received this batch, and who sent them (one byte to spare, so oversized datagrams show up as such)
+    private final ByteBuffer[] received = new ByteBuffer[BATCH_SIZE];
+    private final SocketAddress[] senders = new SocketAddress[BATCH_SIZE];
+    //Replies waiting to be sent, from index sentReplies up to nReplies, and who they go to
+    private final ByteBuffer[] replies = new ByteBuffer[BATCH_SIZE];
+    private final SocketAddress[] recipients = new SocketAddress[BATCH_SIZE];
+    private int nReplies = 0, sentReplies = 0;
+    //Sender of the datagram being processed
+    private SocketAddress source;
+    //This shard's cache in front of the master file
+    private final CachingMasterFile cache;
+    //Counters
+    private long nReceived = 0, nSent = 0, nDropped = 0, nOverruns = 0, nBatches = 0;
+
+    /**
+     * Constructs the server (or one shard of it) on the given channel, leasing its buffers
+     * @param chan bound, non-blocking channel
+     * @param shard which shard this is
+     */
+    ServerNIO(DatagramChannel chan, int shard) {
+        this(chan, shard, new CachingMasterFile(getAndCheckMasterFile(), CACHE_ENTRIES));
+    }
+
+    /**
+     * Constructs the server (or one shard of it) on the given channel with the given cache, leasing its buffers
+     * @param chan bound, non-blocking channel
+     * @param shard which shard this is
+     * @param cache the shard's own cache in front of the master file
+     */
+    private ServerNIO(DatagramChannel chan, int shard, CachingMasterFile cache) {
+        super(cache);
+        this.cache = cache;
+        this.chan = chan;
+        this.shard = shard;
+        for(int i=0; i<BATCH_SIZE; i++){
+            this.received[i] = BufferPool.DIRECT.lease(MAX_PACKET_SIZE + 1);
+            this.replies[i] = BufferPool.DIRECT.lease(MAX_PACKET_SIZE);
+        }
+    }
+
+    /**
+     * Runs the server until the thread is interrupted or the selector fails, then returns its buffers to the pool
+     * @throws IOException if the selector can't be opened or fails
+     */
+    void run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            SelectionKey key = this.chan.register(selector, SelectionKey.OP_READ);
+            while(!Thread.currentThread().isInterrupted()){
+                selector.select();
+                selector.selectedKeys().clear();
+
+                //finish the last batch's replies before taking on more work
+                if(key.isWritable() || this.sentReplies < this.nReplies){
+                    this.flushReplies();
+                } else if(key.isReadable()){
+                    this.receiveBatch();
+                    this.flushReplies();
+                }
+                key.interestOps(this.sentReplies < this.nReplies ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        } finally {
+            for(int i=0; i<BATCH_SIZE; i++){
+                BufferPool.DIRECT.release(this.received[i]);
+                BufferPool.DIRECT.release(this.replies[i]);
+            }
+        }
+    }
+
+    /**
+     * Receives every datagram waiting (up to BATCH_SIZE), then processes them all, queueing their replies.  A failed
+     *   receive ends the batch early (and is counted as dropped) instead of stopping the shard.
+     */
+    private void receiveBatch() {
+        int n = 0;
+        while(n < BATCH_SIZE){
+            this.received[n].clear();
+            SocketAddress sender;
+            try {
+                sender = this.chan.receive(this.received[n]);
+            } catch (IOException e) {
+                this.nDropped++;
+                logCommunicationError("Failed to receive: " + e.getMessage());
+                break;
+            }
+            if(sender == null){//nothing more waiting
+                break;
+            }
+            this.senders[n++] = sender;
+        }
+        this.nReceived += n;
+        this.nReplies = this.sentReplies = 0;
+
+        for(int i=0; i<n; i++){
+            ByteBuffer datagram = this.received[i].flip();
+            this.source = this.senders[i];
+            if(datagram.remaining() > MAX_PACKET_SIZE){//longer than any DNS UDP message (and cut off besides)
+                this.nDropped++;
+                continue;
+            }
+            try {
+                //decode straight out of the receive buffer, which isn't reused until the next batch
+                this.processResponse(datagram);
+            } catch (IOException e) {
+                logCommunicationError(e.getMessage());
+            } catch (Exception e){//just in case.....
+                logSevereError("WARN WARN WARN CRITICAL INTERNAL ERROR: " + e.getMessage());
+            }
+        }
+        this.source = null;
+
+        if(++this.nBatches % STATS_INTERVAL == 0){
+            logServerStats(this.report());
+        }
+    }
+
+    /**
+     * Sends as many of the queued replies as the socket's send buffer takes.  A reply that fails to send is counted as
+     *   dropped and skipped, so one bad recipient can't stop the shard.
+     */
+    private void flushReplies() {
+        while(this.sentReplies < this.nReplies){
+            try {
+                if(this.chan.send(this.replies[this.sentReplies], this.recipients[this.sentReplies]) == 0){
+                    //send buffer full: the rest wait until the channel is writable again
+                    this.nOverruns++;
+                    return;
+                }
+                this.nSent++;
+            } catch (IOException e) {
+                this.nDropped++;
+                logCommunicationError("Failed to send to " + this.recipients[this.sentReplies] + ": " + e.getMessage());
+            }
+            this.recipients[this.sentReplies++] = null;
+        }
+    }
+
+    /**
+     * Encodes a Response into the next reply buffer, to be sent with the rest of the batch's replies
+     * @param r Response to send
+     * @return success or failure
+     */
+    @Override
+    protected boolean sendResponse(Response r) {
+        if(this.nReplies == BATCH_SIZE){//can't happen (one reply per datagram), but never overrun the batch
+            this.nDropped++;
+            return false;
+        }
+        ByteBuffer reply = this.replies[this.nReplies].clear();
+        Server.encodeForUDP(r, reply);
+        reply.flip();
+        this.recipients[this.nReplies++] = this.source;
+        return true;
+    }
+
+    /**
+     * Logs the current client with the given message
+     * @param message message to log
+     */
+    @Override
+    protected void logNewClient(String message) {
+        logNewUDPClient((InetSocketAddress) this.source, message);
+    }
+
+    /**
+     * Get the number of datagrams received
+     * @return number of datagrams received
+     */
+    public long getReceived() { return this.nReceived; }
+
+    /**
+     * Get the number of replies sent
+     * @return number of replies sent
+     */
+    public long getSent() { return this.nSent; }
+
+    /**
+     * Get the number of datagrams (or replies) dropped without being processed (or sent)
+     * @return number of datagrams dropped
+     */
+    public long getDropped() { return this.nDropped; }
+
+    /**
+     * Get the number of times the socket's send buffer was full, so replies had to wait
+     * @return number of send buffer overruns
+     */
+    public long getOverruns() { return this.nOverruns; }
+
+    /**
+     * Describes the server's counters
+     * @return received, sent, dropped, overrun, batch, and cache hit/miss counts
+     */
+    public String report() {
+        return "UDP NIO shard " + this.shard + ": received=" + this.nReceived + ", sent=" + this.nSent + ", dropped=" + this.nDropped
+                + ", overruns=" + this.nOverruns + ", batches=" + this.nBatches + ", cache hits=" + this.cache.getHits()
+                + ", cache misses=" + this.cache.getMisses();
+    }
+
+    /**
+     * Parses a positive count argument (number of shards, or a socket buffer size)
+     * @param arg argument to parse
+     * @param what what the argument is (for error messages)
+     * @return the count
+     */
+    private static int getCount(String arg, String what) {
+        int count = -1;
+        try {
+            count = Integer.parseInt(arg);
+        } catch(NumberFormatException e){
+            logErrorAndExit("Unable to start: Malformed " + what + ": \"" + arg + "\"");
+        }
+        if(count < 1){
+            logErrorAndExit("Unable to start: " + what + " must be positive: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Opens a channel bound to the server port
+     * @param serverPort port to bind to
+     * @param reusePort whether other channels may bind to the same port (SO_REUSEPORT)
+     * @param rcvBuf size of the socket's receive buffer, or -1 to leave it alone
+     * @param sndBuf size of the socket's send buffer, or -1 to leave it alone
+     * @return the bound, non-blocking channel
+     * @throws IOException if the channel can't be opened or bound
+     */
+    private static DatagramChannel openChannel(int serverPort, boolean reusePort, int rcvBuf, int sndBuf)
+            throws IOException {
+        DatagramChannel chan = DatagramChannel.open();
+        try {
+            if(reusePort){
+                chan.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            //a bigger receive buffer rides out bursts between batches (the kernel may cap what it actually gives)
+            if(rcvBuf > 0){
+                chan.setOption(StandardSocketOptions.SO_RCVBUF, rcvBuf);
+                chan.setOption(StandardSocketOptions.SO_SNDBUF, sndBuf);
+            }
+            chan.bind(new InetSocketAddress(serverPort)).configureBlocking(false);
+            return chan;
+        } catch(IOException e){
+            chan.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a shard until it stops, then closes its channel
+     * @param server shard to run
+     */
+    private static void runShard(ServerNIO server) {
+        try (server.chan) {
+            server.run();
+        } catch(IOException e){
+            logCommunicationError("Shard " + server.shard + " stopped: " + e.getMessage());
+        } catch(Exception e){//just in case.....
+            logSevereError("WARN WARN WARN CRITICAL INTERNAL ERROR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Main
+     *   dig @localhost -p 1999 www.google.com ANY +noedns +notcp +noadflag
+     * @param args arguments
+     */
+    public static void main(String[] args) {
+        final String usageError = "Usage: <server port> [<shards>] [<receive buffer bytes> <send buffer bytes>]";
+
+        //Set up logger to specifications
+        setupLogger();
+
+        ///////////////////////////////////////
+        //Validate program arguments///////////
+        if (args.length < 1 || args.length > 4) {
+            logErrorAndExit("Unable to start: Bad usage: " + usageError);
+        }
+
+        //get server port and validate
+        int serverPort = getAndHandlePort(args[0]);
+        int nShards = 1, rcvBuf = -1, sndBuf = -1;
+        if(args.length % 2 == 0){//shards given
+            nShards = getCount(args[1], "shards");
+        }
+        if(args.length >= 3){//buffer sizes given
+            rcvBuf = getCount(args[args.length - 2], "buffer size");
+            sndBuf = getCount(args[args.length - 1], "buffer size");
+        }
+
+        try {
+            //SO_REUSEPORT isn't on every platform, and without it only one socket can have the port
+            if(nShards > 1){
+                try (DatagramChannel probe = DatagramChannel.open()) {
+                    if(!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)){
+                        logWarning("SO_REUSEPORT not supported, running 1 shard instead of " + nShards);
+                        nShards = 1;
+                    }
+                }
+            }
+
+            //bind every shard up front, so a bad port fails at startup
+            ServerNIO[] shards = new ServerNIO[nShards];
+            for(int i=0; i<nShards; i++){
+                shards[i] = new ServerNIO(openChannel(serverPort, nShards > 1, rcvBuf, sndBuf), i);
+            }
+            logServerStart(serverPort, "UDP NIO (" + nShards + " shards)");
+
+            //one thread per shard (this one runs the last)
+            for(int i=0; i<nShards-1; i++){
+                ServerNIO shard = shards[i];
+                new Thread(() -> runShard(shard), "sdns-udp-shard-" + i).start();
+            }
+            runShard(shards[nShards - 1]);
+        } catch(IOException e){
+            logErrorAndExit("Unable to start: bad port (or socket error): " + e.getMessage());
+        } catch(Exception e){//just in case.....
+            logSevereError("WARN WARN WARN CRITICAL INTERNAL ERROR: " + e.getMessage());
+        }
+    }
+}
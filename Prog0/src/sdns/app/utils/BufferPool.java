@@ -0,0 +1,243 @@
+//Contains the BufferPool class (see comments below)
+//Created: 10/17/26
+package sdns.app.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable ByteBuffers for the servers and clients, so connections and packets lease buffers instead of
+ *   allocating (and, for direct buffers, reserving native memory) every time.  Buffers come in power-of-two size classes
+ *   from MIN_POOLED to MAX_POOLED bytes.  Each thread keeps a few buffers of each class for itself, so a lease and its
+ *   release on the same thread touch no shared state, and the rest are shared between threads up to a bound per class.
+ *   Anything past the bound, or bigger than MAX_POOLED, is left to the garbage collector.  A thread that ends should
+ *   hand its buffers back first (see flushThreadCache()), which threads from releasingThreadFactory() do for themselves.
+ * Every buffer leased should be released exactly once, once nothing uses it anymore.  The pool counts what is leased,
+ *   idle, and allocated (see report()), so buffers that are never released show up as leases that never go away.
+ *   Safe to use from any number of threads.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public final class BufferPool {
+    //Smallest and largest size classes (bytes)
+    public static final int MIN_POOLED = 1 << 8, MAX_POOLED = 1 << 17;
+
+    //Buffers each thread keeps per class
+    private static final int THREAD_CACHE_SIZE = 4;
+    //Bytes shared between threads per class (but at least a few buffers)
+    private static final int SHARED_BYTES = 1 << 20, MIN_SHARED = 4;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED) - MIN_SHIFT + 1;
+    //Pool of direct buffers, for channels (they read and write native memory without an extra copy)
+    //  (the pools are made after the size classes are worked out, since they need them)
+    public static final BufferPool DIRECT = new BufferPool(true);
+    //Pool of heap buffers, for APIs that need an array (e.g. DatagramPacket, InputStream)
+    public static final BufferPool HEAP = new BufferPool(false);
+
+    private final boolean direct;
+    //Buffers shared between threads, and how many there are, per class
+    private final ConcurrentLinkedQueue<ByteBuffer>[] shared;
+    private final AtomicInteger[] sharedCounts = new AtomicInteger[CLASSES];
+    //Buffers kept by each thread: [class][slot], filled from slot 0
+    private final ThreadLocal<ByteBuffer[][]> cache;
+    //Counters
+    private final LongAdder leased = new LongAdder(), idle = new LongAdder(), allocated = new LongAdder(),
+            unpooled = new LongAdder(), rejected = new LongAdder();
+
+    /**
+     * Constructs a pool
+     * @param direct whether the pool holds direct buffers
+     */
+    @SuppressWarnings("unchecked")
+    private BufferPool(boolean direct){
+        this.direct = direct;
+        this.shared = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[CLASSES];
+        for(int i=0; i<CLASSES; i++){
+            this.shared[i] = new ConcurrentLinkedQueue<>();
+            this.sharedCounts[i] = new AtomicInteger();
+        }
+        this.cache = ThreadLocal.withInitial(() -> new ByteBuffer[CLASSES][THREAD_CACHE_SIZE]);
+    }
+
+    /**
+     * Get the size class for a size
+     * @param size number of bytes needed
+     * @return index of the smallest class holding size bytes (CLASSES or more if too big to pool)
+     */
+    private static int classOf(int size){
+        return size <= MIN_POOLED ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Get the number of buffers of a class shared between threads
+     * @param c class index
+     * @return most buffers shared
+     */
+    private static int sharedLimit(int c){ return Math.max(MIN_SHARED, SHARED_BYTES >> (c + MIN_SHIFT)); }
+
+    /**
+     * Allocates a new buffer
+     * @param capacity bytes in the buffer
+     * @return the buffer
+     */
+    private ByteBuffer allocate(int capacity){
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Leases a buffer with room for at least the given number of bytes
+     * @param size number of bytes needed
+     * @return a cleared buffer with a capacity of at least size (its size class), to be released once done with
+     * @throws IllegalArgumentException if size is negative
+     */
+    public ByteBuffer lease(int size){
+        if(size < 0){
+            throw new IllegalArgumentException("ERROR: size cannot be negative: " + size);
+        }
+        int c = classOf(size);
+        if(c >= CLASSES){//too big to pool
+            this.unpooled.increment();
+            return this.allocate(size);
+        }
+        this.leased.increment();
+
+        //this thread's own buffers first, then the shared ones, then a new one
+        ByteBuffer[] mine = this.cache.get()[c];
+        for(int i=THREAD_CACHE_SIZE-1; i>=0; i--){
+            if(mine[i] != null){
+                ByteBuffer buff = mine[i];
+                mine[i] = null;
+                this.idle.decrement();
+                return buff.clear();
+            }
+        }
+        ByteBuffer buff = this.shared[c].poll();
+        if(buff != null){
+            this.sharedCounts[c].decrementAndGet();
+            this.idle.decrement();
+            return buff.clear();
+        }
+        this.allocated.increment();
+        return this.allocate(MIN_POOLED << c);
+    }
+
+    /**
+     * Returns a leased buffer to the pool.  Nothing may use the buffer (or any view of it) afterwards.
+     * @param buff buffer to return (ignored if null, too big to have been pooled, or not from this pool)
+     */
+    public void release(ByteBuffer buff){
+        if(buff == null){
+            return;
+        }
+        int capacity = buff.capacity();
+        if(capacity > MAX_POOLED){//was never pooled
+            return;
+        }
+        int c = classOf(capacity);
+        if(buff.isDirect() != this.direct || buff.isReadOnly() || capacity != MIN_POOLED << c){
+            this.rejected.increment();
+            return;
+        }
+        this.leased.decrement();
+
+        //keep it for this thread if there is room, otherwise share it if there is room
+        ByteBuffer[] mine = this.cache.get()[c];
+        for(int i=0; i<THREAD_CACHE_SIZE; i++){
+            if(mine[i] == null){
+                mine[i] = buff;
+                this.idle.increment();
+                return;
+            }
+        }
+        if(this.sharedCounts[c].incrementAndGet() <= sharedLimit(c)){
+            this.shared[c].offer(buff);
+            this.idle.increment();
+        } else {
+            this.sharedCounts[c].decrementAndGet();
+        }
+    }
+
+    /**
+     * Hands the buffers this thread keeps for itself over to the shared tier (leaving any past its bound to the garbage
+     *   collector).  Threads that end should call this last, or their buffers are lost with them.
+     */
+    public void flushThreadCache(){
+        ByteBuffer[][] mine = this.cache.get();
+        this.cache.remove();
+        for(int c=0; c<CLASSES; c++){
+            for(int i=0; i<THREAD_CACHE_SIZE; i++){
+                if(mine[c][i] == null){
+                    continue;
+                }
+                if(this.sharedCounts[c].incrementAndGet() <= sharedLimit(c)){
+                    this.shared[c].offer(mine[c][i]);
+                } else {
+                    this.sharedCounts[c].decrementAndGet();
+                    this.idle.decrement();
+                }
+                mine[c][i] = null;
+            }
+        }
+    }
+
+    /**
+     * Makes a thread factory for executors whose threads come and go (e.g. Executors.newCachedThreadPool): each thread
+     *   flushes its caches of both pools as it ends
+     * @return the thread factory
+     */
+    public static ThreadFactory releasingThreadFactory(){
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        return r -> threads.newThread(() -> {
+            try {
+                r.run();
+            } finally {
+                DIRECT.flushThreadCache();
+                HEAP.flushThreadCache();
+            }
+        });
+    }
+
+    /**
+     * Get the number of pooled buffers leased and not yet released.  Once everything that leased buffers is done with
+     *   them (e.g. every connection is closed), these are the buffers that leaked.
+     * @return number of buffers leased
+     */
+    public long getLeased(){ return this.leased.sum(); }
+
+    /**
+     * Get the number of buffers waiting in the pool to be leased
+     * @return number of idle buffers
+     */
+    public long getIdle(){ return this.idle.sum(); }
+
+    /**
+     * Get the number of buffers the pool has had to allocate (leases the pool couldn't satisfy)
+     * @return number of buffers allocated
+     */
+    public long getAllocated(){ return this.allocated.sum(); }
+
+    /**
+     * Get the number of leases too big to pool
+     * @return number of unpooled leases
+     */
+    public long getUnpooled(){ return this.unpooled.sum(); }
+
+    /**
+     * Get the number of releases of buffers that couldn't have come from this pool
+     * @return number of rejected releases
+     */
+    public long getRejected(){ return this.rejected.sum(); }
+
+    /**
+     * Describes the pool's occupancy
+     * @return leased, idle, allocated, unpooled, and rejected counts
+     */
+    public String report(){
+        return (this.direct ? "Direct" : "Heap") + " buffer pool: leased=" + this.getLeased() + ", idle=" + this.getIdle()
+                + ", allocated=" + this.getAllocated() + ", unpooled=" + this.getUnpooled() + ", rejected=" + this.getRejected();
+    }
+}
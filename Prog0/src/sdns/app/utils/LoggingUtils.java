@@ -6,6 +6,7 @@ import sdns.serialization.Response;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.channels.AsynchronousSocketChannel;
@@ -105,6 +106,35 @@ public class LoggingUtils {
                 " on port " + packet.getPort() + "\nRequest:: " + payload);
     }
 
+    /**
+     * Logs a new client's source IP address/port and request
+     * @param client client's address
+     * @param payload request to print
+     */
+    public static void logNewUDPClient(InetSocketAddress client, String payload) {
+        log.log(Level.INFO, "Handling client at " + client.getAddress().getHostAddress() +
+                " on port " + client.getPort() + "\nRequest:: " + payload);
+    }
+
+    /**
+     * Logs info about the server at startup
+     * @param port port the server is bound to
+     * @param description kind of server
+     */
+    public static void logServerStart(int port, String description) {
+        log.info("SDNS " + description + " server up an running on port " + port);
+    }
+
+    /**
+     * Logs a server's counters (at FINE, so only when asked for)
+     * @param report counters to log
+     */
+    public static void logServerStats(String report){
+        if(log.isLoggable(Level.FINE)){
+            log.fine(report);
+        }
+    }
+
     /**
      * Logs a new client's source IP address/port and request
      * @param packet client
@@ -129,6 +159,16 @@ public class LoggingUtils {
         }
     }
 
+    /**
+     * Logs a buffer pool's occupancy (at FINE, so only when asked for)
+     * @param pool pool to report on
+     */
+    public static void logBufferPool(BufferPool pool){
+        if(log.isLoggable(Level.FINE)){
+            log.fine(pool.report());
+        }
+    }
+
     /**
      * Logs a severe error
      * @param s severe error message
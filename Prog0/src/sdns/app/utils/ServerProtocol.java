@@ -6,9 +6,11 @@ import sdns.app.masterfile.MasterFile;
 import sdns.serialization.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 
 import static sdns.app.utils.LoggingUtils.*;
 import static sdns.app.utils.ServerValidationUtils.getAndCheckMasterFile;
@@ -33,6 +35,15 @@ public abstract class ServerProtocol {
         mf = getAndCheckMasterFile();
     }
 
+    /**
+     * Constructs the server with the given master file (e.g. one wrapped in a cache)
+     * @param mf master file to search
+     * @throws NullPointerException if mf is null
+     */
+    protected ServerProtocol(MasterFile mf){
+        this.mf = Objects.requireNonNull(mf);
+    }
+
     /**
      * Implemnets server protocol for handling message from a client (SDNS specifications)
      * @param message message to process
@@ -40,34 +51,60 @@ public abstract class ServerProtocol {
      * @throws NullPointerException if message null
      */
     public void processResponse(byte[] message) throws IOException, NullPointerException {
-        boolean sentResponse = true;
+        processResponse(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Implemnets server protocol for handling message from a client (SDNS specifications), decoding the bytes between
+     *   the buffer's position and limit in place
+     * @param message message to process
+     * @throws IOException if IO error communicating with client
+     * @throws NullPointerException if message null
+     */
+    public void processResponse(ByteBuffer message) throws IOException, NullPointerException {
+        //Reject garbage without decoding it (and without building an exception)
+        DecodeResult result = Message.check(message);
+        if(result != DecodeResult.OK){
+            this.processInvalid(result.getDescription(), message.remaining());
+            return;
+        }
+
         //Parse the message
         try {
-            Message m = Message.decode(message);
-            //log new client
-            this.logNewClient(m.toString());
-
-            //Check for bad message type
-            if(m instanceof Query){
-                //1. log query
-                logQueryReceived((Query)m);
-
-                //2. go get the response
-                Response r = doSearch(mf, (Query)m);
-
-                //Check for valid responses
-                if(r != null){
-                    //Send + log response with same ID and question, RCode = 0, and masterfile's ans/ns/adtl RRs
-                    logResponseSend(r);
-                    sentResponse = sendResponse(r);
-                }
-            } else {//bad message type
-                handleBadMessage(m, RCode.REFUSED);
-            }
+            this.processMessage(Message.decode(message));
         } catch (ValidationException e) {
-            logParsingError(e.getMessage());
-            logNewClient("Number of bytes received from invalid packet of size " + message.length);
-            sentResponse = false;
+            this.processInvalid(e.getMessage(), message.remaining());
+        }
+    }
+
+    /**
+     * Implements server protocol for handling a message from a client that has already been decoded (e.g. one of a
+     *   batch, see MessageBatch)
+     * @param m message to process
+     * @throws IOException if IO error communicating with client
+     * @throws NullPointerException if m null
+     */
+    public void processMessage(Message m) throws IOException, NullPointerException {
+        boolean sentResponse = true;
+        //log new client
+        this.logNewClient(m.toString());
+
+        //Check for bad message type
+        if(m instanceof Query){
+            //1. log query
+            logQueryReceived((Query)m);
+
+            //2. go get the response
+            Response r = doSearch(mf, (Query)m);
+
+            //Check for valid responses
+            if(r != null){
+                //Send + log response with same ID and question, RCode = 0, and masterfile's ans/ns/adtl RRs
+                logResponseSend(r);
+                sentResponse = sendResponse(r);
+            }
+        } else {//bad message type
+            handleBadMessage(m, RCode.REFUSED);
         }
 
         if(!sentResponse){
@@ -75,6 +112,17 @@ public abstract class ServerProtocol {
         }
     }
 
+    /**
+     * Implements server protocol for a message from a client that could not be decoded
+     * @param reason why the message could not be decoded
+     * @param size number of bytes in the message
+     */
+    public void processInvalid(String reason, int size){
+        logParsingError(reason);
+        logNewClient("Number of bytes received from invalid packet of size " + size);
+        handleFailedSend();
+    }
+
     /**
      * Follows protocol for receiving a bad message (including queries that return nothing)
      * @param m bad message
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -96,8 +97,9 @@ public class SocketUtils {
         try {
             //Send all queries
             for(var query : expectedList){
-                byte[] toSend = query.encode();
-                DatagramPacket pack = new DatagramPacket(toSend, toSend.length, servAddr, servPort);
+                ByteBuffer toSend = IOUtils.getScratchBuffer();
+                query.encodeTo(toSend);
+                DatagramPacket pack = new DatagramPacket(toSend.array(), toSend.position(), servAddr, servPort);
                 sout.send(pack);
             }
         } catch (IOException e) {
@@ -120,8 +122,9 @@ public class SocketUtils {
         try {
             //Send all queries
             for(var query : expectedList){
-                byte[] toSend = query.encode();
-                sout.write(Framer.frameMsg(toSend));
+                ByteBuffer toSend = IOUtils.getScratchBuffer();
+                Framer.frameMsg(query, toSend);
+                sout.write(toSend.array(), 0, toSend.position());
             }
         } catch (IOException | ValidationException e) {
             if(!silent){
@@ -154,17 +157,28 @@ public class SocketUtils {
     }
 
     /**
-     * Processes a byte[] message and parses it into response RRs and validates each response
-     * @param message byte[] to process
+     * Processes a message and parses it into response RRs and validates each response
+     * @param message bytes to process
      * @param expectedList expected list to handle accordingly
      * @param silent option to print error message to console and exit vs throwing error
+     * @param compressed whether to follow RFC 1035 compression pointers (for real DNS servers) instead of ending the
+     *   name at them (the SDNS rule)
      * @return Response object with all RRs in it
      */
-    private static Response processMessage(byte[] message, List<Query> expectedList, boolean silent){
+    private static Response processMessage(ByteBuffer message, List<Query> expectedList, boolean silent,
+                                           boolean compressed){
         //have a packet!
+        //Too short and too long are reported straight from the packet check, without decoding or exceptions
+        DecodeResult result = Message.check(message);
+        if(result == DecodeResult.TOO_LONG || result == DecodeResult.TOO_SHORT){
+            if(!silent) err.println(result.getDescription());
+            return null;
+        }
+
         Message m;
         try {
-            m = Message.decode(message);
+            //only real DNS servers get their compression pointers followed; SDNS servers are held to the SDNS rule
+            m = compressed ? Message.decodeCompressed(message) : Message.decode(message);
 
             //handle bad type
             Response r = null;
@@ -208,13 +222,34 @@ public class SocketUtils {
     public static Response receiveResponseUDP(DatagramSocket sout, InetAddress servAddr, int servPort,
                                               List<Query> expectedList, boolean silent)
             throws SocketTimeoutException {
-        //Construct a datagram packet to store the data
-        DatagramPacket pack = new DatagramPacket(new byte[MAX_DNS_UDP_BYTES], MAX_DNS_UDP_BYTES);
+        return receiveResponseUDP(sout, servAddr, servPort, expectedList, silent, false);
+    }
+
+    /**
+     * Receives a UDP response, handling all errors in the specification
+     * @param sout datagram socket to retransmit to if needed
+     * @param servAddr server address
+     * @param servPort server port
+     * @param expectedList expected list to handle accordingly
+     * @param silent option to print error message to console and exit vs throwing error
+     * @param compressed whether to follow compression pointers (for real DNS servers)
+     * @return the Response received, or null
+     * @throws SocketTimeoutException if the socket times out (up to the caller to handle according to specs)
+     */
+    public static Response receiveResponseUDP(DatagramSocket sout, InetAddress servAddr, int servPort,
+                                              List<Query> expectedList, boolean silent, boolean compressed)
+            throws SocketTimeoutException {
+        //Construct a datagram packet to store the data (in a pooled buffer), with one byte to spare so an oversized
+        //  datagram shows up as one instead of being silently cut off at MAX_DNS_UDP_BYTES
+        ByteBuffer receiveBuff = BufferPool.HEAP.lease(MAX_DNS_UDP_BYTES + 1);
+        DatagramPacket pack = new DatagramPacket(receiveBuff.array(), MAX_DNS_UDP_BYTES + 1);
         try {
             sout.receive(pack);
         } catch(SocketTimeoutException e){//ensure it gets thrown (because it's of type IOException)
+            BufferPool.HEAP.release(receiveBuff);
             throw e;
         } catch (IOException e) {
+            BufferPool.HEAP.release(receiveBuff);
             if(!silent){
                 err.println("ERROR: I/O error while writing to socket: " + e.getMessage());
                 System.exit(1);
@@ -223,6 +258,10 @@ public class SocketUtils {
             }
         }
 
+        //copy out just the datagram (the Response may keep parts of it) and give the buffer back
+        byte[] data = Arrays.copyOfRange(pack.getData(), pack.getOffset(), pack.getOffset() + pack.getLength());
+        BufferPool.HEAP.release(receiveBuff);
+
         if (!pack.getAddress().equals(servAddr)) {// Check source
             if(!silent){
                 err.println("Received packet from an unknown source");
@@ -232,7 +271,13 @@ public class SocketUtils {
             }
         }
 
-        return processMessage(Arrays.copyOfRange(pack.getData(), 0, pack.getLength()), expectedList, silent);
+        //servers leave out what doesn't fit (setting TC) rather than send more than one classic datagram
+        if(pack.getLength() > MAX_DNS_UDP_BYTES){
+            if(!silent) err.println(DecodeResult.TOO_LONG.getDescription());
+            return null;
+        }
+
+        return processMessage(ByteBuffer.wrap(data), expectedList, silent, compressed);
     }
 
     /**
@@ -260,7 +305,53 @@ public class SocketUtils {
             }
         }
 
-        return processMessage(data, expectedList, silent);
+        return processMessage(ByteBuffer.wrap(data), expectedList, silent, false);
+    }
+
+    /**
+     * Receives a TCP response through the connection's frame reader, handling all errors in the specification.  Unlike
+     *   receiveResponseTCP(InputStream, List, boolean), a timeout partway through a response loses nothing: the next
+     *   call picks up where this one left off.
+     * @param in frame reader for the connection
+     * @param expectedList expected list to handle accordingly
+     * @param silent option to print error message to console and exit vs throwing error
+     * @return the Response received, or null
+     * @throws SocketTimeoutException if the socket times out (up to the caller to handle according to specs)
+     */
+    public static Response receiveResponseTCP(FrameReader in, List<Query> expectedList, boolean silent)
+            throws SocketTimeoutException {
+        return receiveResponseTCP(in, expectedList, silent, false);
+    }
+
+    /**
+     * Receives a TCP response through the connection's frame reader, handling all errors in the specification
+     *   (see receiveResponseTCP(FrameReader, List, boolean))
+     * @param in frame reader for the connection
+     * @param expectedList expected list to handle accordingly
+     * @param silent option to print error message to console and exit vs throwing error
+     * @param compressed whether to follow compression pointers (for real DNS servers)
+     * @return the Response received, or null
+     * @throws SocketTimeoutException if the socket times out (up to the caller to handle according to specs)
+     */
+    public static Response receiveResponseTCP(FrameReader in, List<Query> expectedList, boolean silent,
+                                              boolean compressed)
+            throws SocketTimeoutException {
+        byte[] data = null;
+        try {
+            //Get the next response's bytes (in their own array, since the Response may keep parts of them)
+            data = in.nextMsg();
+        } catch (SocketTimeoutException e){
+            throw e;//ensure it gets thrown (because it's of type IOException)
+        } catch (IOException e) {
+            if(!silent){
+                err.println("ERROR: I/O error while writing to socket: " + e.getMessage());
+                System.exit(1);
+            } else {
+                throw new RuntimeException("ERROR: I/O error while writing to socket: " + e.getMessage(), e);
+            }
+        }
+
+        return processMessage(ByteBuffer.wrap(data), expectedList, silent, compressed);
     }
     /* ************** End receive queries ************** */
 }
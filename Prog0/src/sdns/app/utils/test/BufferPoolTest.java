@@ -0,0 +1,155 @@
+//Contains the BufferPoolTest class (see comments below)
+//Created: 10/17/26
+package sdns.app.utils.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import sdns.app.utils.BufferPool;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The pools are shared by everything in the JVM, so counters are checked by how much they change, and each test that
+ *   checks which buffer comes back uses a size class of its own
+ * @author Ethan Dickey
+ */
+public class BufferPoolTest {
+    /**
+     * Leasing
+     */
+    @Nested
+    class TestLease {
+        /**
+         * Sizes are rounded up to their power-of-two class
+         * @param size bytes asked for
+         * @param capacity capacity expected
+         */
+        @ParameterizedTest(name = "Size = {0}")
+        @CsvSource({"0, 256", "1, 256", "256, 256", "257, 512", "4000, 4096", "131072, 131072"})
+        void classRounding(int size, int capacity) {
+            ByteBuffer buff = BufferPool.HEAP.lease(size);
+            assertAll(() -> assertEquals(capacity, buff.capacity()),
+                    () -> assertEquals(0, buff.position()),
+                    () -> assertEquals(capacity, buff.limit()));
+            BufferPool.HEAP.release(buff);
+        }
+
+        /**
+         * Each pool hands out its own kind of buffer
+         */
+        @Test @DisplayName("Direct and heap")
+        void kinds() {
+            ByteBuffer direct = BufferPool.DIRECT.lease(100), heap = BufferPool.HEAP.lease(100);
+            assertAll(() -> assertTrue(direct.isDirect()),
+                    () -> assertFalse(heap.isDirect()),
+                    () -> assertTrue(heap.hasArray()));
+            BufferPool.DIRECT.release(direct);
+            BufferPool.HEAP.release(heap);
+        }
+
+        /**
+         * Sizes past MAX_POOLED are allocated exactly, and never pooled
+         */
+        @Test @DisplayName("Too big to pool")
+        void unpooled() {
+            long unpooled = BufferPool.HEAP.getUnpooled(), leased = BufferPool.HEAP.getLeased();
+            ByteBuffer buff = BufferPool.HEAP.lease(BufferPool.MAX_POOLED + 1);
+            assertAll(() -> assertEquals(BufferPool.MAX_POOLED + 1, buff.capacity()),
+                    () -> assertEquals(unpooled + 1, BufferPool.HEAP.getUnpooled()),
+                    () -> assertEquals(leased, BufferPool.HEAP.getLeased()));
+            long idle = BufferPool.HEAP.getIdle();
+            BufferPool.HEAP.release(buff);
+            assertEquals(idle, BufferPool.HEAP.getIdle());
+        }
+
+        /**
+         * Negative sizes are rejected
+         */
+        @Test @DisplayName("Negative size")
+        void negative() {
+            assertThrows(IllegalArgumentException.class, () -> BufferPool.HEAP.lease(-1));
+        }
+    }
+
+    /**
+     * Releasing
+     */
+    @Nested
+    class TestRelease {
+        /**
+         * A buffer released is the next one leased of its class on the same thread, cleared
+         */
+        @Test @DisplayName("Reuse")
+        void reuse() {
+            long leased = BufferPool.HEAP.getLeased(), idle = BufferPool.HEAP.getIdle();
+            ByteBuffer first = BufferPool.HEAP.lease(1 << 12);
+            assertEquals(leased + 1, BufferPool.HEAP.getLeased());
+            first.putInt(7).limit(10);
+            BufferPool.HEAP.release(first);
+            assertAll(() -> assertEquals(leased, BufferPool.HEAP.getLeased()),
+                    () -> assertTrue(BufferPool.HEAP.getIdle() >= idle));
+
+            ByteBuffer second = BufferPool.HEAP.lease(1 << 12);
+            assertAll(() -> assertSame(first, second),
+                    () -> assertEquals(0, second.position()),
+                    () -> assertEquals(1 << 12, second.limit()));
+            BufferPool.HEAP.release(second);
+        }
+
+        /**
+         * Buffers that can't have come from the pool are counted and dropped
+         */
+        @Test @DisplayName("Rejected")
+        void rejected() {
+            long rejected = BufferPool.DIRECT.getRejected(), leased = BufferPool.DIRECT.getLeased();
+            BufferPool.DIRECT.release(ByteBuffer.allocate(256));//heap buffer
+            BufferPool.DIRECT.release(ByteBuffer.allocateDirect(300));//not a size class
+            BufferPool.DIRECT.release(ByteBuffer.allocateDirect(256).asReadOnlyBuffer());
+            BufferPool.DIRECT.release(null);//ignored
+            assertAll(() -> assertEquals(rejected + 3, BufferPool.DIRECT.getRejected()),
+                    () -> assertEquals(leased, BufferPool.DIRECT.getLeased()));
+        }
+
+        /**
+         * A thread from releasingThreadFactory() hands its buffers to the shared tier as it ends, where other threads
+         *   find them
+         * @throws InterruptedException if interrupted while waiting for the thread
+         */
+        @Test @DisplayName("Thread ends")
+        void threadEnds() throws InterruptedException {
+            final int size = 1 << 14;
+            ByteBuffer[] fromThread = new ByteBuffer[1];
+            long idle = BufferPool.DIRECT.getIdle();
+            Thread t = BufferPool.releasingThreadFactory().newThread(() -> {
+                fromThread[0] = BufferPool.DIRECT.lease(size);
+                BufferPool.DIRECT.release(fromThread[0]);
+            });
+            t.start();
+            t.join();
+
+            assertEquals(idle + 1, BufferPool.DIRECT.getIdle());
+            //this thread has none of this class of its own, so it gets the one the other thread left behind
+            ByteBuffer mine = BufferPool.DIRECT.lease(size);
+            assertAll(() -> assertSame(fromThread[0], mine),
+                    () -> assertEquals(idle, BufferPool.DIRECT.getIdle()));
+            BufferPool.DIRECT.release(mine);
+            BufferPool.DIRECT.flushThreadCache();
+        }
+    }
+
+    /**
+     * The report names every counter
+     */
+    @Test @DisplayName("Report")
+    void report() {
+        String report = BufferPool.DIRECT.report();
+        assertAll(() -> assertTrue(report.startsWith("Direct buffer pool: ")),
+                () -> assertTrue(report.contains("leased=" + BufferPool.DIRECT.getLeased())),
+                () -> assertTrue(report.contains("rejected=")));
+    }
+}
@@ -5,11 +5,11 @@ package sdns.serialization;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Inet4Address;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
-import static sdns.serialization.IOUtils.readIPv4;
-import static sdns.serialization.IOUtils.readUnsignedShortBigEndian;
+import static sdns.serialization.IOUtils.*;
 
 /**
  * Represents an A RR (IPv4 address) and provides serialization/deserialization
@@ -18,7 +18,10 @@ import static sdns.serialization.IOUtils.readUnsignedShortBigEndian;
  * @version 1.0
  */
 public class A extends ResourceRecord {
-    Inet4Address address;
+    //Number of bytes in an IPv4 address
+    private static final int IPV4_BYTES = 4;
+    //IPv4 address, big endian (the Inet4Address is only made when asked for)
+    private int address;
 
     /**
      * Constructs A RR using given values
@@ -44,8 +47,24 @@ public class A extends ResourceRecord {
         //RDLength
         int rdlen = readUnsignedShortBigEndian(in);
         if(rdlen != 4){ throw new ValidationException("ERROR: RDLen != 4 when deserializing type A", rdlen + ""); }
+        //deserialze ipv4 in one read
+        this.address = getIntBigEndian(readXBytes(in, IPV4_BYTES), 0);
+    }
+
+    /**
+     * Finishes parsing an A ResourceRecord from the buffer
+     * @param name RR name
+     * @param in the buffer to finish parsing from
+     * @throws ValidationException if validation fails (see specification), including null name
+     * @throws IOException if premature end of buffer
+     */
+    protected A(String name, ByteBuffer in) throws ValidationException, IOException {
+        super(name, in);
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+        if(rdlen != 4){ throw new ValidationException("ERROR: RDLen != 4 when deserializing type A", null, rdlen + "", false); }
         //deserialze ipv4
-        this.address = readIPv4(in);
+        this.address = readIntBigEndian(in);
     }
 
     /**
@@ -58,7 +77,8 @@ public class A extends ResourceRecord {
         if(address == null){
             throw new ValidationException("ERROR: Invalid address: null", "null");
         }
-        this.address = address;
+        this.beforeChange();
+        this.address = getIntBigEndian(address.getAddress(), 0);
         return this;
     }
 
@@ -66,7 +86,13 @@ public class A extends ResourceRecord {
      * Get address
      * @return address of A RR
      */
-    public Inet4Address getAddress() { return this.address; }
+    public Inet4Address getAddress() {
+        try {
+            return (Inet4Address) InetAddress.getByAddress(writeIntBigEndian(this.address));
+        } catch (UnknownHostException e) {//can't happen, always 4 bytes
+            throw new IllegalStateException(e);
+        }
+    }
 
     /**
      * Returns a String representation
@@ -77,7 +103,7 @@ public class A extends ResourceRecord {
      * @return a string representation
      */
     @Override
-    public String toString(){ return "A: name=" + this.getName() + " ttl=" + this.getTTL() + " address=" + this.address.getHostAddress(); }
+    public String toString(){ return "A: name=" + this.getName() + " ttl=" + this.getTTL() + " address=" + this.getAddress().getHostAddress(); }
 
     /**
      * Return type value for specific RR
@@ -88,18 +114,20 @@ public class A extends ResourceRecord {
     public int getTypeValue() { return A_TYPE_VALUE; }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
+     * Writes the rdata for this object into the buffer.  For internal use only.
      *
-     * @return the serialized version of this objects rdata
+     * @param out the buffer to write to
+     * @param names name compressor for the message (unused, no names in the rdata)
      */
     @Override
-    protected List<Byte> serializeRData() {
-        List<Byte> ret = new ArrayList<>();
-        for(byte b : this.address.getAddress()){
-            ret.add(b);
-        }
-        return ret;
-    }
+    protected void writeRData(ByteBuffer out, NameCompressor names) { putIntBigEndian(out, this.address); }
+
+    /**
+     * Get the number of bytes writeRData writes.  For internal use only.
+     * @return length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return IPV4_BYTES; }
 
     /**
      * Checks for equality
@@ -112,7 +140,7 @@ public class A extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         A that = (A) o;
-        return address.equals(that.address);
+        return address == that.address;
     }
 
     /**
@@ -120,11 +148,11 @@ public class A extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 2749;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((address == null) ? 0 : address.hashCode());
+        result = prime * result + super.computeHashCode();
+        result = prime * result + address;//same as Inet4Address.hashCode()
         return result;
     }
 }
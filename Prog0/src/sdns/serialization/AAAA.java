@@ -5,11 +5,10 @@ package sdns.serialization;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Inet6Address;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
-import static sdns.serialization.IOUtils.readIPv6;
-import static sdns.serialization.IOUtils.readUnsignedShortBigEndian;
+import static sdns.serialization.IOUtils.*;
 
 /**
  * Represents an AAAA RR (IPv6 address) and provides serialization/deserialization
@@ -18,7 +17,10 @@ import static sdns.serialization.IOUtils.readUnsignedShortBigEndian;
  * @version 1.0
  */
 public class AAAA extends ResourceRecord {
-    Inet6Address address;
+    //Number of bytes in an IPv6 address
+    private static final int IPV6_BYTES = 16;
+    //IPv6 address, big endian: the high and low 8 bytes (the Inet6Address is only made when asked for)
+    private long high, low;
 
     /**
      * Sets up this RR with name and ttl
@@ -46,8 +48,27 @@ public class AAAA extends ResourceRecord {
         //RDLength
         int rdlen = readUnsignedShortBigEndian(in);
         if(rdlen != 16){ throw new ValidationException("ERROR: RDLen != 16 when deserializing type AAAA", rdlen + ""); }
+        //deserialze ipv6 in one read
+        byte[] address = readXBytes(in, IPV6_BYTES);
+        this.high = getLongBigEndian(address, 0);
+        this.low = getLongBigEndian(address, 8);
+    }
+
+    /**
+     * Finishes parsing an AAAA ResourceRecord from the buffer
+     * @param name RR name
+     * @param in the buffer to finish parsing from
+     * @throws ValidationException if validation fails (see specification), including null name
+     * @throws IOException if premature end of buffer
+     */
+    protected AAAA(String name, ByteBuffer in) throws ValidationException, IOException {
+        super(name, in);
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+        if(rdlen != 16){ throw new ValidationException("ERROR: RDLen != 16 when deserializing type AAAA", null, rdlen + "", false); }
         //deserialze ipv6
-        this.address = readIPv6(in);
+        this.high = readLongBigEndian(in);
+        this.low = readLongBigEndian(in);
     }
 
     /**
@@ -60,7 +81,10 @@ public class AAAA extends ResourceRecord {
         if(address == null){
             throw new ValidationException("ERROR: Invalid address: null", "null");
         }
-        this.address = address;
+        byte[] bytes = address.getAddress();
+        this.beforeChange();
+        this.high = getLongBigEndian(bytes, 0);
+        this.low = getLongBigEndian(bytes, 8);
         return this;
     }
 
@@ -68,7 +92,16 @@ public class AAAA extends ResourceRecord {
      * Get address
      * @return address of A RR
      */
-    public Inet6Address getAddress() { return this.address; }
+    public Inet6Address getAddress() {
+        byte[] bytes = new byte[IPV6_BYTES];
+        ByteBuffer.wrap(bytes).putLong(this.high).putLong(this.low);
+        try {
+            //unlike InetAddress.getByAddress, this never turns an IPv4-mapped address into an Inet4Address
+            return Inet6Address.getByAddress(null, bytes, -1);
+        } catch (UnknownHostException e) {//can't happen, always 16 bytes
+            throw new IllegalStateException(e);
+        }
+    }
 
     /**
      * Returns a String representation
@@ -79,7 +112,7 @@ public class AAAA extends ResourceRecord {
      * @return a string representation
      */
     @Override
-    public String toString(){ return "AAAA: name=" + this.getName() + " ttl=" + this.getTTL() + " address=" + this.address.getHostAddress(); }
+    public String toString(){ return "AAAA: name=" + this.getName() + " ttl=" + this.getTTL() + " address=" + this.getAddress().getHostAddress(); }
 
     /**
      * Return type value for specific RR
@@ -90,19 +123,24 @@ public class AAAA extends ResourceRecord {
     public int getTypeValue() { return AAAA_TYPE_VALUE; }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
+     * Writes the rdata for this object into the buffer.  For internal use only.
      *
-     * @return the serialized version of this objects rdata
+     * @param out the buffer to write to
+     * @param names name compressor for the message (unused, no names in the rdata)
      */
     @Override
-    protected List<Byte> serializeRData() {
-        List<Byte> ret = new ArrayList<>();
-        for(byte b : this.address.getAddress()){
-            ret.add(b);
-        }
-        return ret;
+    protected void writeRData(ByteBuffer out, NameCompressor names) {
+        putLongBigEndian(out, this.high);
+        putLongBigEndian(out, this.low);
     }
 
+    /**
+     * Get the number of bytes writeRData writes.  For internal use only.
+     * @return length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return IPV6_BYTES; }
+
     /**
      * Checks for equality
      * @param o the object to compare to
@@ -114,7 +152,7 @@ public class AAAA extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         AAAA that = (AAAA) o;
-        return address.equals(that.address);
+        return high == that.high && low == that.low;
     }
 
     /**
@@ -122,11 +160,12 @@ public class AAAA extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 6577;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((address == null) ? 0 : address.hashCode());
+        result = prime * result + super.computeHashCode();
+        result = prime * result + Long.hashCode(high);
+        result = prime * result + Long.hashCode(low);
         return result;
     }
 }
@@ -4,11 +4,11 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static sdns.serialization.IOUtils.*;
+import static sdns.serialization.ValidationUtils.toLowerAscii;
 import static sdns.serialization.ValidationUtils.validateVisibleAscii;
 
 /**
@@ -19,11 +19,11 @@ import static sdns.serialization.ValidationUtils.validateVisibleAscii;
  */
 public class CAA extends ResourceRecord {
     //Width of the preference field
-    private static final int HEADER_CAA_WIDTH_BYTES = 7;
+    static final int HEADER_CAA_WIDTH_BYTES = 7;
     //The proper CAA header
-    private static final byte[] PROPER_HEADER = {0, 5, 'i', 's', 's', 'u', 'e'};
-    //String representation of the domain name of certificate issuer
-    private String issuer;
+    static final byte[] PROPER_HEADER = {0, 5, 'i', 's', 's', 'u', 'e'};
+    //Domain name of certificate issuer, one visible ascii character per byte (the String is only made when asked for)
+    private byte[] issuer;
 
     /**
      * Constructs CAA RR using given values
@@ -66,12 +66,41 @@ public class CAA extends ResourceRecord {
             }
         }
 
-        //issue
-        StringBuilder tempIssuer = new StringBuilder();
-        for(int i=0; i<rdlen-HEADER_CAA_WIDTH_BYTES; i++){
-            tempIssuer.append((char)readByte(in, "when reading issuer"));
+        //issue, in one read
+        this.setIssuer(readXBytes(in, rdlen-HEADER_CAA_WIDTH_BYTES));
+    }
+
+    /**
+     * Finishes parsing a CAA ResourceRecord from the buffer
+     * @param name the name of the RR
+     * @param in the buffer to finish parsing from
+     * @throws ValidationException if invalid data
+     * @throws IOException if premature end of buffer
+     */
+    protected CAA(String name, ByteBuffer in) throws ValidationException, IOException {
+        super(name, in);
+
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+
+        if(rdlen < HEADER_CAA_WIDTH_BYTES){//not +1 because issuer can be empty
+            throw new ValidationException("ERROR: RDLen/CAA header too small: " + rdlen, null, rdlen + "", false);
         }
-        this.setIssuer(tempIssuer.toString());
+
+        //RData
+        //0x0, 0x5, "issue"
+        byte tempByte;
+        for(byte b : PROPER_HEADER){
+            tempByte = readByte(in, "when reading CAA header");
+            if(tempByte != b){
+                throw new ValidationException("ERROR: " + b + " byte not set correctly: " + tempByte, null, tempByte + "", false);
+            }
+        }
+
+        //issue
+        int issuerLen = rdlen-HEADER_CAA_WIDTH_BYTES;
+        if(in.remaining() < issuerLen){ throw prematureEOF("ERROR: Premature EOF when reading issuer"); }
+        this.setIssuer(readXBytes(in, issuerLen));
     }
 
 
@@ -86,26 +115,28 @@ public class CAA extends ResourceRecord {
     }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
+     * Writes the rdata for this object into the buffer.  For internal use only.
      *
-     * @return the serialized version of this objects rdata
+     * @param out the buffer to write to
+     * @param names name compressor for the message (unused, no names in the rdata)
      */
     @Override
-    protected List<Byte> serializeRData() {
-        List<Byte> bout = new ArrayList<>(Arrays.asList(toObject(PROPER_HEADER)));
-
-        for(int i=0; i<issuer.length(); i++){
-            bout.add((byte) issuer.charAt(i));
-        }
-
-        return bout;
+    protected void writeRData(ByteBuffer out, NameCompressor names) {
+        out.put(PROPER_HEADER).put(this.issuer);
     }
 
+    /**
+     * Get the number of bytes writeRData writes.  For internal use only.
+     * @return length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return HEADER_CAA_WIDTH_BYTES + this.issuer.length; }
+
     /**
      * Get issuer name
      * @return name
      */
-    public String getIssuer() { return this.issuer; }
+    public String getIssuer() { return new String(this.issuer, StandardCharsets.US_ASCII); }
 
     /**
      * Set issuer name
@@ -120,7 +151,8 @@ public class CAA extends ResourceRecord {
 
         //Validate domain name
         if(validateVisibleAscii(issuer)){
-            this.issuer = issuer;
+            this.beforeChange();
+            this.issuer = issuer.getBytes(StandardCharsets.US_ASCII);
         } else {
             throw new ValidationException("Issuer did not pass visible name checks: " + issuer, issuer);
         }
@@ -128,6 +160,20 @@ public class CAA extends ResourceRecord {
         return this;
     }
 
+    /**
+     * Set issuer name from its decoded bytes
+     * @param issuer new issuer name, one character per byte
+     * @throws ValidationException if invalid issue name
+     */
+    private void setIssuer(byte[] issuer) throws ValidationException {
+        if(!validateVisibleAscii(issuer)){
+            String str = new String(issuer, StandardCharsets.ISO_8859_1);
+            throw new ValidationException("Issuer did not pass visible name checks: " + str, str);
+        }
+        this.beforeChange();
+        this.issuer = issuer;
+    }
+
     /**
      * Returns a String representation
      *   CAA: name=[name] ttl=[ttl] issuer=[issuer]
@@ -138,7 +184,7 @@ public class CAA extends ResourceRecord {
      */
     @Override
     public String toString(){
-        return "CAA: name=" + this.getName() + " ttl=" + this.getTTL() + " issuer=" + this.issuer;
+        return "CAA: name=" + this.getName() + " ttl=" + this.getTTL() + " issuer=" + this.getIssuer();
     }
 
 
@@ -153,7 +199,11 @@ public class CAA extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         CAA caa = (CAA) o;
-        return issuer.equalsIgnoreCase(caa.issuer);
+        if(issuer.length != caa.issuer.length){ return false; }
+        for(int i=0; i<issuer.length; i++){
+            if(toLowerAscii(issuer[i]) != toLowerAscii(caa.issuer[i])){ return false; }
+        }
+        return true;
     }
 
     /**
@@ -161,11 +211,16 @@ public class CAA extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 8887;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((issuer == null) ? 0 : issuer.toLowerCase().hashCode());
+        result = prime * result + super.computeHashCode();
+        //same as getIssuer().toLowerCase().hashCode(), without making either String
+        int issuerHash = 0;
+        for(byte b : issuer){
+            issuerHash = 31 * issuerHash + toLowerAscii(b);
+        }
+        result = prime * result + issuerHash;
         return result;
     }
 }
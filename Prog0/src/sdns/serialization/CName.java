@@ -4,8 +4,7 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 import static sdns.serialization.IOUtils.*;
 import static sdns.serialization.ValidationUtils.validateDomainName;
@@ -17,7 +16,7 @@ import static sdns.serialization.ValidationUtils.validateDomainName;
  */
 public class CName extends ResourceRecord {
     //Canonical name
-    private String canonicalName;
+    private DomainName canonicalName;
 
     /**
      * Constructs CName using given values
@@ -45,14 +44,37 @@ public class CName extends ResourceRecord {
         int rdlen = readUnsignedShortBigEndian(in);
         //RData
         String rdata = readDomainName(in, rdlen);
-        this.setCanonicalName(rdata);
+        this.canonicalName = DomainName.ofValidated(rdata);//already validated label by label as it was read
     }
 
+    /**
+     * Finishes parsing a CName ResourceRecord from the buffer
+     * @param name the name of the RR
+     * @param in the buffer to finish parsing from
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @throws ValidationException if invalid data
+     * @throws IOException if premature end of buffer
+     */
+    protected CName(String name, ByteBuffer in, NameDecompressor names) throws ValidationException, IOException {
+        super(name, in);
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+        //RData
+        String rdata = readDomainName(in, rdlen, names);
+        this.canonicalName = DomainName.ofValidated(rdata);//already validated label by label as it was read
+    }
+
+    /**
+     * Get canonical name
+     * @return name
+     */
+    public String getCanonicalName() { return this.canonicalName.toString(); }
+
     /**
      * Get canonical name
      * @return name
      */
-    public String getCanonicalName() { return this.canonicalName; }
+    public DomainName getCanonicalNameAsDomainName() { return this.canonicalName; }
 
     /**
      * Set canonical name
@@ -67,7 +89,8 @@ public class CName extends ResourceRecord {
 
         //require non null and validate domain name all in one!
         if(validateDomainName(canonicalName)){
-            this.canonicalName = canonicalName;
+            this.beforeChange();
+            this.canonicalName = DomainName.ofValidated(canonicalName);
         } else {
             throw new ValidationException("Canonical Name did not pass domain name checks: " + canonicalName, canonicalName);
         }
@@ -75,6 +98,21 @@ public class CName extends ResourceRecord {
         return this;
     }
 
+    /**
+     * Set canonical name
+     * @param canonicalName new canonical name
+     * @return this RR with new canonical name
+     * @throws ValidationException if canonical name null
+     */
+    public CName setCanonicalName(DomainName canonicalName) throws ValidationException {
+        if(canonicalName == null){
+            throw new ValidationException("Canonical Name cannot be null", "null");
+        }
+        this.beforeChange();
+        this.canonicalName = canonicalName;
+        return this;
+    }
+
     /**
      * Returns a String representation
      * CName: name=[name] ttl=[ttl] canonicalname=[canonicalname]
@@ -94,21 +132,20 @@ public class CName extends ResourceRecord {
     public int getTypeValue() { return CN_TYPE_VALUE; }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
-     * @return the serialized version of this objects rdata
+     * Writes the rdata for this object into the buffer.  For internal use only.
+     *
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
      */
     @Override
-    protected List<Byte> serializeRData(){
-        List<Byte> rdataBytes = new ArrayList<>();
-        try {
-            serializeDomainName(this.getCanonicalName(), rdataBytes);
-        } catch (ValidationException e) {
-            //Do nothing
-//            "WARN WARN WARN: \"CANONICALNAME\" FIELD DOES NOT CONTAIN A VALID DOMAIN NAME";
-        }
+    protected void writeRData(ByteBuffer out, NameCompressor names){ writeDomainName(this.canonicalName, out, names); }
 
-        return rdataBytes;
-    }
+    /**
+     * Get the number of bytes writeRData writes without compression.  For internal use only.
+     * @return uncompressed length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return this.canonicalName.getWireLength(); }
 
     /**
      * Checks for equality
@@ -121,7 +158,7 @@ public class CName extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         CName that = (CName) o;
-        return canonicalName.equalsIgnoreCase(that.canonicalName);
+        return canonicalName.equals(that.canonicalName);
     }
 
     /**
@@ -129,11 +166,11 @@ public class CName extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((canonicalName == null) ? 0 : canonicalName.toLowerCase().hashCode());
+        result = prime * result + super.computeHashCode();
+        result = prime * result + ((canonicalName == null) ? 0 : canonicalName.hashCode());
         return result;
     }
 }
@@ -0,0 +1,53 @@
+//Contains the DecodeResult enum (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+/**
+ * Outcome of checking whether bytes hold a decodable SDNS message (see Message.check(ByteBuffer)).  Failures are
+ *   reported as one of these constants instead of as an exception, so rejecting garbage costs no allocation.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public enum DecodeResult {
+    /**
+     * The message can be decoded
+     */
+    OK("Valid message"),
+    /**
+     * The message ends before all of its fields do
+     */
+    TOO_SHORT("Packet too short"),
+    /**
+     * There are bytes left over after the message
+     */
+    TOO_LONG("Packet too long"),
+    /**
+     * The opcode is not 0
+     */
+    BAD_OPCODE("Opcode is not 0"),
+    /**
+     * A domain name has a bad label length, an invalid label, or is too long
+     */
+    BAD_LABEL("Invalid domain name"),
+    /**
+     * Any other field (rcode, counts, 0x0001, 0x00FF, TTL, RDLength, or RData) has a bad value
+     */
+    BAD_FIELD("Invalid field value");
+
+    /** Description of the result */
+    private final String description;
+
+    /**
+     * Constructs a result with a description
+     * @param description description of the result
+     */
+    DecodeResult(String description){
+        this.description = description;
+    }
+
+    /**
+     * Get the description of the result
+     * @return the description
+     */
+    public String getDescription(){ return this.description; }
+}
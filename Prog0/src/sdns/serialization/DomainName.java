@@ -0,0 +1,181 @@
+//Contains the DomainName class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A validated SDNS domain name.  Everything that is usually worked out from a name over and over is worked out once
+ *   when it is made: the name is validated, its case insensitive hash code is computed, and its labels are found and
+ *   laid out in their uncompressed wire form.  Equality is case insensitive (like the rest of SDNS), so names can be
+ *   compared, hashed, used as keys, and written without allocating anything.
+ * Immutable, so it can be shared freely between RRs, messages, and threads.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public final class DomainName {
+    //The root name, "."
+    public static final DomainName ROOT = new DomainName(".");
+    //The name as given
+    private final String name;
+    //Uncompressed wire form: each label as a length byte then its characters, then a 0 byte
+    private final byte[] wire;
+    //Offset of each label's length byte in the wire form (which is also where the label starts in the name)
+    private final int[] labelOffsets;
+    //Hash code of the lowercase name
+    private final int hash;
+
+    /**
+     * Lays out a name that has already been validated
+     * @param name the valid domain name
+     */
+    private DomainName(String name) {
+        this.name = name;
+        final int len = name.length();
+
+        //"." is written as the final 0 alone; every other name takes one byte more than it has characters
+        if(len == 1){
+            this.wire = new byte[]{0};
+            this.labelOffsets = new int[0];
+            this.hash = '.';
+            return;
+        }
+        this.wire = new byte[len + 1];
+
+        int nLabels = 0, labelStart = 0, h = 0;
+        for(int i=0; i<len; i++){
+            char c = name.charAt(i);
+            if(c == '.'){
+                this.wire[labelStart] = (byte) (i - labelStart);
+                nLabels++;
+                labelStart = i + 1;
+            } else {
+                this.wire[i + 1] = (byte) c;
+            }
+            //same as name.toLowerCase().hashCode(), without making the lowercase copy (SDNS names are ascii)
+            h = 31 * h + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        this.hash = h;
+
+        this.labelOffsets = new int[nLabels];
+        for(int i=0, off=0; i<nLabels; i++){
+            this.labelOffsets[i] = off;
+            off += this.wire[off] + 1;
+        }
+    }
+
+    /**
+     * Makes a domain name, validating it
+     * @param name the domain name (see ValidationUtils.validateDomainName(String))
+     * @return the domain name, shared with everything else holding the same name (see DomainNamePool)
+     * @throws ValidationException if name is null or invalid
+     */
+    public static DomainName of(String name) throws ValidationException {
+        if(name == null){
+            throw new ValidationException("Domain name cannot be null", "null");
+        }
+        if(!ValidationUtils.validateDomainName(name)){
+            throw new ValidationException("Domain name did not pass domain name checks", name);
+        }
+        return ofValidated(name);
+    }
+
+    /**
+     * Makes a domain name from one that has already been validated (e.g. while it was decoded), sharing the pooled one
+     *   if there is one (see DomainNamePool)
+     * @param name the valid domain name
+     * @return the domain name
+     */
+    static DomainName ofValidated(String name) {
+        return name.length() == 1 ? ROOT : DomainNamePool.intern(name, DomainName::new);
+    }
+
+    /**
+     * Makes a domain name from one that has already been validated, without pooling it (for names anyone on the
+     *   network can make up, like decoded query names, which would otherwise be pooled for as long as they live)
+     * @param name the valid domain name
+     * @return the domain name
+     */
+    static DomainName ofValidatedUnpooled(String name) {
+        return name.length() == 1 ? ROOT : new DomainName(name);
+    }
+
+    /**
+     * Get the number of labels ("." has none)
+     * @return number of labels
+     */
+    public int getLabelCount() { return this.labelOffsets.length; }
+
+    /**
+     * Get where a label starts: the offset of its length byte in the wire form, which is also the index of its first
+     *   character in the name
+     * @param i index of the label
+     * @return offset of the label
+     * @throws IndexOutOfBoundsException if there is no such label
+     */
+    public int getLabelOffset(int i) { return this.labelOffsets[Objects.checkIndex(i, this.labelOffsets.length)]; }
+
+    /**
+     * Get a label
+     * @param i index of the label
+     * @return the label (without its dot)
+     * @throws IndexOutOfBoundsException if there is no such label
+     */
+    public String getLabel(int i) {
+        int off = this.getLabelOffset(i);
+        return this.name.substring(off, off + this.wire[off]);
+    }
+
+    /**
+     * Get the number of bytes in the uncompressed wire form
+     * @return length of the wire form
+     */
+    public int getWireLength() { return this.wire.length; }
+
+    /**
+     * Get the uncompressed wire form
+     * @return a copy of the wire form
+     */
+    public byte[] getWireBytes() { return this.wire.clone(); }
+
+    /**
+     * Get the uncompressed wire form itself, for reading without copying.  For internal use only (never change it).
+     * @return the wire form
+     */
+    byte[] wire() { return this.wire; }
+
+    /**
+     * Writes the uncompressed wire form into the buffer
+     * @param out the buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room
+     */
+    public void writeTo(ByteBuffer out) { out.put(this.wire); }
+
+    /**
+     * Checks for equality, ignoring case
+     * @param o the object to compare to
+     * @return whether or not the objects are equal
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DomainName that = (DomainName) o;
+        return hash == that.hash && name.equalsIgnoreCase(that.name);
+    }
+
+    /**
+     * Hashes the object (the hash code of the lowercase name)
+     * @return the hashed value
+     */
+    @Override
+    public int hashCode() { return this.hash; }
+
+    /**
+     * Returns the name as given
+     * @return the name
+     */
+    @Override
+    public String toString() { return this.name; }
+}
@@ -0,0 +1,107 @@
+//Contains the DomainNamePool class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Interns DomainNames, so every RR and message that holds the same name (say, thousands of RRs owned by "foo.com." or
+ *   pointing at "ns.foo.com.") shares one DomainName instead of each holding its own copy.  RR names and the names made
+ *   in sdns.serialization go through here, and two names that are the same object are equal without comparing them.
+ *   Query names decoded off the network do not (see DomainName.ofValidatedUnpooled(String)): any client can send any
+ *   name, and a query's name rarely outlives the query.
+ * Names are pooled exactly as given (case and all), since that is how they are handed back.  The pool only holds names
+ *   weakly: once nothing else holds a name, the garbage collector may take it and its entry is dropped, so names that
+ *   are passed through once (random subdomains, fuzzing) never pile up.  Safe to use from any number of threads.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public final class DomainNamePool {
+    //Pooled names, keyed by the name as given
+    private static final ConcurrentHashMap<String, Entry> POOL = new ConcurrentHashMap<>();
+    //Entries whose names have been collected, to be dropped from the pool
+    private static final ReferenceQueue<DomainName> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * Weak reference to a pooled name that remembers its key, so the entry can be dropped once the name is collected
+     */
+    private static final class Entry extends WeakReference<DomainName> {
+        private final String key;
+
+        /**
+         * Constructs the entry
+         * @param key the name as given
+         * @param name the pooled name
+         */
+        Entry(String key, DomainName name) {
+            super(name, COLLECTED);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Static utility class
+     */
+    private DomainNamePool(){}
+
+    /**
+     * Drops the entries of every collected name
+     */
+    private static void expunge() {
+        Entry e;
+        while((e = (Entry) COLLECTED.poll()) != null){
+            //only if it wasn't already replaced by a live name
+            POOL.remove(e.key, e);
+        }
+    }
+
+    /**
+     * Gets the pooled DomainName for the given (already validated) name, pooling a new one if there is none
+     * @param name the valid domain name
+     * @param factory makes a DomainName for a name that isn't pooled yet
+     * @return the pooled DomainName
+     */
+    static DomainName intern(String name, Function<String, DomainName> factory) {
+        //plain get first: most names are already pooled, and get never locks
+        Entry e = POOL.get(name);
+        DomainName pooled = e == null ? null : e.get();
+        if(pooled != null){
+            return pooled;
+        }
+
+        expunge();
+        DomainName made = factory.apply(name);
+        Entry mine = new Entry(name, made);
+        while(true){
+            e = POOL.putIfAbsent(name, mine);
+            if(e == null){
+                return made;
+            }
+            pooled = e.get();
+            if(pooled != null){
+                return pooled;
+            }
+            //the pooled name was just collected: take its place
+            if(POOL.replace(name, e, mine)){
+                return made;
+            }
+        }
+    }
+
+    /**
+     * Get the number of pooled names (names collected but not yet dropped may still be counted)
+     * @return number of pooled names
+     */
+    public static int size() {
+        expunge();
+        return POOL.size();
+    }
+
+    /**
+     * Empties the pool.  Names already handed out stay valid; they just stop being shared with names made from now on.
+     */
+    public static void clear() { POOL.clear(); }
+}
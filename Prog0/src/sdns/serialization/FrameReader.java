@@ -0,0 +1,170 @@
+//Contains the FrameReader class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static sdns.serialization.Framer.PREFIX_BYTES;
+
+/**
+ * Blocking message deframing for one connection (see Framer.nextMsg(InputStream)).  Bytes are read from the stream in
+ *   bulk into a reusable buffer and frames are handed out of it, so a connection sending many small frames costs a
+ *   read per bufferful instead of a few reads per frame, and nothing is allocated per frame.  Only a frame too long
+ *   for the buffer gets its own array.
+ * If a read fails (e.g. times out) partway through a frame, the bytes read so far are kept, and the next call picks up
+ *   where that one left off.  Not thread safe.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class FrameReader {
+    //Default buffer size: many frames of queries or small responses
+    public static final int DEFAULT_CAPACITY = 4096;
+    private final InputStream in;
+    //Bytes read but not handed out are between start and end
+    private final byte[] buff;
+    private final ByteBuffer view;
+    private int start = 0, end = 0;
+    //Frame too long for buff, with the number of its bytes read so far (null if there is no such frame)
+    private byte[] large = null;
+    private int largeFilled = 0;
+
+    /**
+     * Constructs a frame reader with the default buffer size
+     * @param in stream to read frames from
+     * @throws NullPointerException if in is null
+     */
+    public FrameReader(InputStream in) throws NullPointerException { this(in, DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs a frame reader
+     * @param in stream to read frames from
+     * @param capacity bytes to buffer (frames longer than this are read into their own arrays)
+     * @throws NullPointerException if in is null
+     * @throws IllegalArgumentException if capacity is too small to hold a length prefix
+     */
+    public FrameReader(InputStream in, int capacity) throws NullPointerException, IllegalArgumentException {
+        this(in, new byte[Math.max(capacity, 0)]);
+    }
+
+    /**
+     * Constructs a frame reader that buffers in the given array (e.g. a pooled buffer's), which belongs to the reader
+     *   until it is no longer used
+     * @param in stream to read frames from
+     * @param buff array to buffer in (frames longer than it are read into their own arrays)
+     * @throws NullPointerException if in or buff is null
+     * @throws IllegalArgumentException if buff is too small to hold a length prefix
+     */
+    public FrameReader(InputStream in, byte[] buff) throws NullPointerException, IllegalArgumentException {
+        this.in = Objects.requireNonNull(in);
+        if(buff.length < PREFIX_BYTES){
+            throw new IllegalArgumentException("ERROR: capacity must be at least " + PREFIX_BYTES + ": " + buff.length);
+        }
+        this.buff = buff;
+        this.view = ByteBuffer.wrap(this.buff);
+    }
+
+    /**
+     * Get the number of bytes read from the stream but not yet handed out as part of a frame
+     * @return number of bytes buffered
+     */
+    public int getBuffered() { return this.end - this.start + this.largeFilled; }
+
+    /**
+     * Reads until at least n bytes are buffered, moving the buffered bytes to the front first if n more wouldn't fit
+     * @param n number of bytes needed (no more than the buffer holds)
+     * @throws IOException if I/O (EOFException if premature EoS)
+     */
+    private void fill(int n) throws IOException {
+        if(this.end - this.start >= n){
+            return;
+        }
+        if(this.start + n > this.buff.length){
+            System.arraycopy(this.buff, this.start, this.buff, 0, this.end - this.start);
+            this.end -= this.start;
+            this.start = 0;
+        }
+
+        //read as much as the stream has (not just what is needed), so the next frames are already here
+        while(this.end - this.start < n){
+            int bytesRead = this.in.read(this.buff, this.end, this.buff.length - this.end);
+            if(bytesRead == -1){
+                throw new EOFException("ERROR: Premature end of input stream, expected: " + n + " got: " + (this.end - this.start));
+            }
+            this.end += bytesRead;
+        }
+    }
+
+    /**
+     * Reads the rest of the frame too long for the buffer
+     * @return the frame, in its own array
+     * @throws IOException if I/O (EOFException if premature EoS)
+     */
+    private ByteBuffer finishLarge() throws IOException {
+        while(this.largeFilled < this.large.length){
+            int bytesRead = this.in.read(this.large, this.largeFilled, this.large.length - this.largeFilled);
+            if(bytesRead == -1){
+                throw new EOFException("ERROR: Premature end of input stream, expected: " + this.large.length + " got: " + this.largeFilled);
+            }
+            this.largeFilled += bytesRead;
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(this.large);
+        this.large = null;
+        this.largeFilled = 0;
+        return frame;
+    }
+
+    /**
+     * Get next message, blocking until all of it has arrived
+     * @return message (without prefix), as a read-only slice of the buffer that is only good until the next call, or
+     *   (if the message is too long for the buffer) as a buffer over its own array
+     * @throws IOException if I/O (EOFException if premature EoS)
+     */
+    public ByteBuffer nextFrame() throws IOException {
+        if(this.large != null){
+            return this.finishLarge();
+        }
+
+        //Read length
+        this.fill(PREFIX_BYTES);
+        int length = ((this.buff[this.start] & 0xFF) << 8) | (this.buff[this.start + 1] & 0xFF);
+
+        //Too long for the buffer: move what is buffered (all part of this frame) into its own array and read the rest
+        if(length + PREFIX_BYTES > this.buff.length){
+            this.large = new byte[length];
+            this.largeFilled = this.end - this.start - PREFIX_BYTES;
+            System.arraycopy(this.buff, this.start + PREFIX_BYTES, this.large, 0, this.largeFilled);
+            this.start = this.end = 0;
+            return this.finishLarge();
+        }
+
+        //Read length bytes
+        this.fill(length + PREFIX_BYTES);
+        int off = this.start + PREFIX_BYTES;
+        this.start = off + length;
+        if(this.start == this.end){//start over at the front whenever the buffer empties, so it rarely has to move
+            this.start = this.end = 0;
+        }
+        return this.view.clear().position(off).limit(off + length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Get next message, blocking until all of it has arrived (same as Framer.nextMsg(InputStream), but buffered)
+     * @return message (without prefix), in its own array
+     * @throws IOException if I/O (EOFException if premature EoS)
+     */
+    public byte[] nextMsg() throws IOException {
+        ByteBuffer frame = this.nextFrame();
+        //a frame too long for the buffer already has its own array (slices of the buffer are read-only)
+        if(frame.hasArray()){
+            return frame.array();
+        }
+        byte[] toReturn = new byte[frame.remaining()];
+        frame.get(toReturn);
+        return toReturn;
+    }
+}
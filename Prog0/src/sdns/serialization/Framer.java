@@ -4,6 +4,8 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import static sdns.serialization.IOUtils.*;
@@ -16,6 +18,9 @@ import static sdns.serialization.ValidationUtils.MAX_UNSIGNED_SHORT;
  * @version 1.0
  */
 public class Framer {
+    //Bytes in the length prefix of a frame
+    public static final int PREFIX_BYTES = 2;
+
     /**
      * Prevent anyone from using the default constructor
      * @throws UnsupportedOperationException every time used (DON'T USE IT!)
@@ -49,6 +54,86 @@ public class Framer {
         return result;
     }
 
+    /**
+     * Frame given message straight into the buffer: the message is encoded after two reserved length bytes, which are
+     *   then filled in, so the encoded message is never copied.  On success the buffer's position is just past the
+     *   frame; on failure it is left where it started.
+     * @param message message to frame
+     * @param out buffer to write the frame to
+     * @throws ValidationException if message too long (greater than 65535)
+     * @throws BufferOverflowException if the buffer doesn't have room for the frame (and the message isn't too long)
+     * @throws NullPointerException if message or out is null
+     */
+    public static void frameMsg(Message message, ByteBuffer out)
+            throws ValidationException, BufferOverflowException, NullPointerException {
+        //Null check
+        Objects.requireNonNull(message);
+        Objects.requireNonNull(out);
+
+        final int start = out.position();
+        try {
+            //Reserve the length and encode the message behind it
+            out.put((byte) 0).put((byte) 0);
+            message.encodeTo(out);
+        } catch(BufferOverflowException e){
+            out.position(start);
+            if(out.limit() - start >= MAX_UNSIGNED_SHORT + PREFIX_BYTES){//had room for the largest frame, so it's too long
+                throw new ValidationException("Message longer than " + MAX_UNSIGNED_SHORT, "Too long");
+            }
+            throw e;
+        }
+
+        //Validate length
+        int length = out.position() - start - PREFIX_BYTES;
+        if(length > MAX_UNSIGNED_SHORT){
+            out.position(start);
+            throw new ValidationException("Message longer than " + MAX_UNSIGNED_SHORT + ": " + length, length + "");
+        }
+
+        //Fill in the length
+        out.put(start, (byte) (length >> 8));
+        out.put(start + 1, (byte) length);
+    }
+
+    /**
+     * Frame the remaining bytes of the given body for a gathering write (e.g. GatheringByteChannel.write(ByteBuffer[])
+     *   or AsynchronousSocketChannel.write(ByteBuffer[], ...)): the length prefix goes in its own buffer, so the body is
+     *   never copied just to be framed.  Neither buffer's position is changed.
+     * @param body bytes to frame (between position and limit)
+     * @return the prefix and the body, in the order to write them
+     * @throws ValidationException  if body too long (greater than 65535)
+     * @throws NullPointerException if body is null
+     */
+    public static ByteBuffer[] frameGathering(ByteBuffer body) throws ValidationException, NullPointerException {
+        return new ByteBuffer[]{ framePrefix(body, ByteBuffer.allocate(PREFIX_BYTES)), body };
+    }
+
+    /**
+     * Write the length prefix for the remaining bytes of the given body into a (reusable) prefix buffer, so a
+     *   connection can frame every body it writes without allocating anything
+     * @param body bytes to frame (between position and limit)
+     * @param prefix buffer to write the prefix to, cleared first (at least 2 bytes)
+     * @return prefix, flipped and ready to write ahead of body
+     * @throws ValidationException  if body too long (greater than 65535)
+     * @throws BufferOverflowException if prefix has less than 2 bytes of room
+     * @throws NullPointerException if body or prefix is null
+     */
+    public static ByteBuffer framePrefix(ByteBuffer body, ByteBuffer prefix)
+            throws ValidationException, BufferOverflowException, NullPointerException {
+        //Null check
+        Objects.requireNonNull(body);
+        Objects.requireNonNull(prefix);
+
+        //Validate length
+        int length = body.remaining();
+        if(length > MAX_UNSIGNED_SHORT){
+            throw new ValidationException("Message longer than " + MAX_UNSIGNED_SHORT + ": " + length, length + "");
+        }
+
+        prefix.clear();
+        return prefix.put((byte) (length >> 8)).put((byte) length).flip();
+    }
+
     /**
      * Get next message
      * @param in byte input source
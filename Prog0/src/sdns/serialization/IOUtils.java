@@ -3,14 +3,13 @@
 package sdns.serialization;
 
 import java.io.*;
-import java.net.Inet4Address;
-import java.net.Inet6Address;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-
-import static sdns.serialization.ValidationUtils.validateDomainName;
+import java.util.function.Consumer;
 
 /**
  * Contains a set of utility functions for reading and writing bytes from an input stream and/or byte array
@@ -25,6 +24,8 @@ public class IOUtils {
     public static final int BYTE_BIT_MASK = 0x000000FF;
     //Bit mask to get the top bit from a byte
     public static final byte QR_BIT_MASK = (byte) 0x80;
+    //The TrunCation bit in the same header byte as QR
+    public static final byte TC_BIT_MASK = 0x02;
 
     /**
      * Checks if the top two bits are set (indicating the end of a label stream)
@@ -34,47 +35,95 @@ public class IOUtils {
     private static boolean checkEndOfLabelsBitsSet(byte b){ return (byte)(b & 0xC0) == (byte)(-64); }
 
     //output
+    //Thread-local scratch buffer, big enough for any message that can be framed
+    private static final ThreadLocal<ByteBuffer> SCRATCH =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(ValidationUtils.MAX_UNSIGNED_SHORT + 2));
+
     /**
-     * Serializes the given domain name.  First checks that the name is a valid domain name though...
-     * @param name the domain name to validate
-     * @param b the byte arraylist to append to
+     * Gets this thread's scratch buffer, cleared and ready to encode into.  It is a heap buffer (so array() is always
+     *   available) with room for any message that can be framed.  The contents are only valid until the next call to
+     *   this method from the same thread.
+     * @return this thread's scratch buffer
      */
-    static void serializeDomainName(String name, List<Byte> b) throws ValidationException {
-        if(!validateDomainName(name)){
-            throw new ValidationException("ERROR: name provided to internal serialize function not a valid domain name", name);
-        }
+    public static ByteBuffer getScratchBuffer(){
+        ByteBuffer buff = SCRATCH.get();
+        buff.clear();
+        return buff;
+    }
 
-        if(name.length() == 1){
-            b.add((byte)0);
-            return;
+    /**
+     * Runs the given encoder against this thread's scratch buffer, falling back to bigger, freshly allocated buffers
+     *   if the encoding doesn't fit
+     * @param encoder writes the encoding into the buffer it is given
+     * @return the buffer written to, positioned just past the encoding
+     */
+    static ByteBuffer encodeToScratch(Consumer<ByteBuffer> encoder){
+        ByteBuffer buff = getScratchBuffer();
+        while(true){
+            try {
+                encoder.accept(buff);
+                return buff;
+            } catch(BufferOverflowException e){
+                buff = ByteBuffer.allocate(buff.capacity() * 2);
+            }
         }
+    }
 
-        //Parse name into labels and
-        String[] labels = name.substring(0, name.length()-1).split("\\.");
-
-        //Put each length + label into the byte array
-        for(var l : labels){
-            b.add((byte) l.length());
-            for(int i=0; i<l.length(); ++i){
-                b.add((byte) l.charAt(i));
+    /**
+     * Writes the given domain name straight into the buffer.  Names are validated whenever they are set, so this does
+     *   not validate again; labels are found by walking the dots rather than splitting.
+     * @param name the domain name to write
+     * @param out the buffer to write to
+     * @throws BufferOverflowException if the buffer runs out of room
+     */
+    static void writeDomainName(String name, ByteBuffer out) {
+        final int len = name.length();
+        int labelStart = 0;
+        for(int i=0; i<len; i++){
+            if(name.charAt(i) == '.'){
+                //"." is the only name with an empty label, and it is written as the final '0' alone
+                if(i > labelStart){
+                    out.put((byte) (i - labelStart));
+                    for(int j=labelStart; j<i; j++){
+                        out.put((byte) name.charAt(j));
+                    }
+                }
+                labelStart = i + 1;
             }
         }
 
         //Add the final '0' to signal the end of the array
-        b.add((byte)0);
+        out.put((byte)0);
+    }
+
+    /**
+     * Writes a domain name into the buffer, compressed if there is a compressor and in full otherwise
+     * @param name the (already validated) domain name to write
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write the name in full
+     * @throws BufferOverflowException if the buffer runs out of room
+     */
+    static void writeDomainName(String name, ByteBuffer out, NameCompressor names) {
+        if(names == null){
+            writeDomainName(name, out);
+        } else {
+            names.writeDomainName(name, out);
+        }
     }
 
     /**
-     * Calls serializeDomainName and writes byte list to bout
-     * @param name name to write to output stream
-     * @param bout output stream
-     * @throws ValidationException if invalid domain name
-     * @throws IOException if IO exception
+     * Writes a domain name into the buffer, compressed if there is a compressor and otherwise by copying its wire form
+     * @param name the domain name to write
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write the name in full
+     * @throws BufferOverflowException if the buffer runs out of room
      */
-    static void serializeDomainName(String name, ByteArrayOutputStream bout) throws ValidationException, IOException {
-        List<Byte> outArr = new ArrayList<>();
-        serializeDomainName(name, outArr);
-        bout.write(listToArray(outArr));
+    static void writeDomainName(DomainName name, ByteBuffer out, NameCompressor names) {
+        if(names == null){
+            name.writeTo(out);
+        } else {
+            names.writeDomainName(name.toString(), out);
+        }
     }
 
     /**
@@ -106,40 +155,56 @@ public class IOUtils {
     }
 
     /**
-     * Converts byte[] -> Byte[]
-     * @param bytesPrim byte[]
-     * @return Byte[]
+     * Writes the low 2 bytes of an int into a buffer in big endian, whatever the buffer's byte order
+     * @param out the buffer to write to
+     * @param k the short to write
+     * @throws BufferOverflowException if the buffer runs out of room
      */
-    static Byte[] toObject(byte[] bytesPrim){
-        Byte[] bytes = new Byte[bytesPrim.length];
-        Arrays.setAll(bytes, n -> bytesPrim[n]);
-        return bytes;
+    static void putShortBigEndian(ByteBuffer out, int k) {
+        out.put((byte) (k >> 8)).put((byte) k);
     }
 
     /**
-     * Converts List<Byte> -> byte[]
-     * @param bytes List<Byte>
-     * @return byte[]
+     * Writes a short (2 bytes) into a buffer at the given index in big endian, leaving the position alone
+     * @param out the buffer to write to
+     * @param index where to write the short
+     * @param k the short to write
      */
-    static byte[] listToArray(List<Byte> bytes){
-        byte[] bytesPrim = new byte[bytes.size()];
-        for(int i=0;i<bytes.size(); i++){
-            bytesPrim[i] = bytes.get(i);
-        }
-        return bytesPrim;
+    static void putShortBigEndian(ByteBuffer out, int index, int k) {
+        out.put(index, (byte) (k >> 8)).put(index + 1, (byte) k);
     }
 
     /**
-     * Encodes a list of RRs into an output stream (repeated a few times in code so abstracted even though it is simple)
+     * Writes an int (4 bytes) into a buffer in big endian, whatever the buffer's byte order
+     * @param out the buffer to write to
+     * @param k the int to write
+     * @throws BufferOverflowException if the buffer runs out of room
+     */
+    static void putIntBigEndian(ByteBuffer out, int k) {
+        out.put((byte) (k >> 24)).put((byte) (k >> 16)).put((byte) (k >> 8)).put((byte) k);
+    }
+
+    /**
+     * Writes a long (8 bytes) into a buffer in big endian, whatever the buffer's byte order
+     * @param out the buffer to write to
+     * @param k the long to write
+     * @throws BufferOverflowException if the buffer runs out of room
+     */
+    static void putLongBigEndian(ByteBuffer out, long k) {
+        putIntBigEndian(out, (int) (k >>> 32));
+        putIntBigEndian(out, (int) k);
+    }
+
+    /**
+     * Encodes a list of RRs into a buffer (repeated a few times in code so abstracted even though it is simple)
      * @param rrs RRs to encode
-     * @param out Output stream to write to
-     * @throws IOException if some sort of IO error
+     * @param out buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
+     * @throws BufferOverflowException if the buffer runs out of room
      */
-    static void encodeRRList(List<ResourceRecord> rrs, OutputStream out) throws IOException {
+    static void encodeRRList(List<ResourceRecord> rrs, ByteBuffer out, NameCompressor names) {
         for(var rr : rrs){
-            if(!(rr instanceof Unknown)){
-                rr.encode(out);
-            }
+            rr.encodeTo(out, names);
         }
     }
 
@@ -191,6 +256,8 @@ public class IOUtils {
         char ch;
         StringBuilder dname = new StringBuilder();
         StringBuilder finalString = new StringBuilder();
+        //labels are validated as they are read, so the name never has to be validated again as a String
+        boolean valid = true;
 
         //Check if maxSize is 0, in which case throw a validation exception
         if(maxSize == 0){
@@ -217,7 +284,9 @@ public class IOUtils {
             }
 
             //spew into the output buffer
-            finalString.append(dname.toString());
+            int labelStart = finalString.length();
+            finalString.append(dname);
+            valid = valid && ValidationUtils.validateLabel(finalString, labelStart, finalString.length()-1);
             dname.setLength(0);
 
             llen = readByte(in);
@@ -247,7 +316,7 @@ public class IOUtils {
             finalString.append('.');
         }
 
-        return new ArrayList<>(Arrays.asList(finalString.toString(), numBytes + ""));
+        return new ArrayList<>(Arrays.asList(checkDecodedName(finalString, valid), numBytes + ""));
     }
 
     /**
@@ -346,46 +415,328 @@ public class IOUtils {
     }
 
     /**
-     * Reads an IPv4 (4 bytes) from an input stream
+     * Reads a long (8 bytes) from an input stream in one bulk read
      * @param in the input stream to read from
-     * @return the IPv4 address
+     * @return the long
      * @throws IOException if premature EOF or other IO error
      */
-    static Inet4Address readIPv4(InputStream in) throws IOException {
-        //Number of bytes in an encoded IPv4 address
-        final int NUM_BYTES_IPV4 = 4;
-        byte[] buff = readIPHelper(in, NUM_BYTES_IPV4);
-        return (Inet4Address) Inet4Address.getByAddress(buff);
+    static long readLongBigEndian(InputStream in) throws IOException {
+        return getLongBigEndian(readXBytes(in, 8), 0);
     }
 
     /**
-     * Reads an IPv6 (16 bytes) from an input stream
-     * @param in the input stream to read from
-     * @return the IPv6 address
-     * @throws IOException if premature EOF or other IO error
+     * Gets an int (4 bytes) in big endian from an array
+     * @param b the array to read from
+     * @param off index of the first byte of the int
+     * @return the int
+     */
+    static int getIntBigEndian(byte[] b, int off) {
+        return ((b[off] & BYTE_BIT_MASK) << 24) | ((b[off+1] & BYTE_BIT_MASK) << 16)
+                | ((b[off+2] & BYTE_BIT_MASK) << 8) | (b[off+3] & BYTE_BIT_MASK);
+    }
+
+    /**
+     * Gets a long (8 bytes) in big endian from an array
+     * @param b the array to read from
+     * @param off index of the first byte of the long
+     * @return the long
      */
-    static Inet6Address readIPv6(InputStream in) throws IOException {
-        //Number of bytes in an encoded IPv6 address
-        final int NUM_BYTES_IPV6 = 16;
-        byte[] buff = readIPHelper(in, NUM_BYTES_IPV6);
-        return (Inet6Address) Inet6Address.getByAddress(buff);
+    static long getLongBigEndian(byte[] b, int off) {
+        return ((long) getIntBigEndian(b, off) << 32) | (getIntBigEndian(b, off+4) & 0xFFFFFFFFL);
     }
 
+
+    //input (ByteBuffer)
+    //All of these read by absolute offset from the buffer's position and then advance the position past what they
+    //  read, so they work the same on heap and direct buffers and never depend on the buffer's byte order
+    //Malformed packets are common (see fuzzer/), so the exceptions thrown here skip the stack trace
     /**
-     * Reads NUM_BYTES_IP in from buff
-     * @param in input stream to read from
-     * @param NUM_BYTES_IP number of bytes to read
-     * @throws IOException if EOF or other IO error
+     * EOFException without a stack trace (EOFException has no constructor that skips it)
      */
-    private static byte[] readIPHelper(InputStream in, int NUM_BYTES_IP) throws IOException {
-        byte[] buff = new byte[NUM_BYTES_IP];
-        int i = 0, numRead = -1;
-        while(i < NUM_BYTES_IP && (numRead = in.read(buff, i, 1)) != -1){
-            i += numRead;
+    private static class StacklessEOFException extends EOFException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs the exception
+         * @param message exception message
+         */
+        StacklessEOFException(String message){ super(message); }
+
+        /**
+         * Skips filling in the stack trace
+         * @return this exception
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace(){ return this; }
+    }
+
+    /**
+     * Makes the exception the buffer readers throw for a premature end of the buffer, without a stack trace
+     * @param message exception message
+     * @return the exception, to be thrown
+     */
+    static EOFException prematureEOF(String message){ return new StacklessEOFException(message); }
+
+    /**
+     * Checks that the buffer has at least x bytes left to read
+     * @param in the buffer to check
+     * @param x the number of bytes needed
+     * @param when a message to append to the error stating what part of the calling code you're in
+     * @throws EOFException if fewer than x bytes remain
+     */
+    private static void checkRemaining(ByteBuffer in, int x, String when) throws EOFException {
+        if(in.remaining() < x){ throw prematureEOF("ERROR: Premature EOF " + when); }
+    }
+
+    /**
+     * Alias for readDomainName(in, -1) <-sentinel value
+     * @param in the buffer to read from
+     * @return a string representing the deserialized domain name read
+     * @throws ValidationException if parse or validation problem
+     * @throws IOException if premature EOF
+     */
+    static String readDomainName(ByteBuffer in) throws ValidationException, IOException { return readDomainName(in, -1); }
+
+    /**
+     * Reads a domain name from the given buffer, starting at its position.  Behaves exactly like
+     *   readDomainNameWithLength(InputStream, int); the number of bytes read is the change in the buffer's position.
+     * @param in the buffer to read from
+     * @param maxSize if the number of bytes read doesn't match the maxSize, a ValidationException is thrown
+     * @return a string representing the deserialized domain name read
+     * @throws ValidationException if parse or validation problem
+     * @throws IOException if premature EOF
+     */
+    static String readDomainName(ByteBuffer in, int maxSize) throws ValidationException, IOException {
+        Objects.requireNonNull(in, "Input buffer cannot be null");
+
+        //Check if maxSize is 0, in which case throw a validation exception
+        if(maxSize == 0){
+            throw new ValidationException("ERROR: Max size of a domain name cannot be 0", null, maxSize + "", false);
+        }
+
+        final int start = in.position(), limit = in.limit();
+        int pos = start;
+        StringBuilder finalString = new StringBuilder();
+        //labels are validated as they are read, so the name never has to be validated again as a String
+        boolean valid = true;
+
+        //read the first length
+        if(pos >= limit){ throw prematureEOF("ERROR: Premature EOF when reading domain name"); }
+        byte llen = in.get(pos++);
+
+        //read the label length, label values, repeat until you read the end
+        while(llen > 0 && !checkEndOfLabelsBitsSet(llen)){
+            if(pos + llen > limit){ throw prematureEOF("ERROR: Premature EOF when reading domain name"); }
+
+            if(llen > ValidationUtils.DOMAIN_NAME_LABEL_MAX_LEN+1){
+                throw new ValidationException("Label cannot exceed " + ValidationUtils.DOMAIN_NAME_LABEL_MAX_LEN +
+                        " characters (including .)", null, (llen + 1) + "", false);
+            }
+
+            int labelStart = finalString.length();
+            for(int end = pos + llen; pos < end; pos++){
+                finalString.append((char) in.get(pos));
+            }
+            valid = valid && ValidationUtils.validateLabel(finalString, labelStart, finalString.length());
+            finalString.append('.');
+
+            if(pos >= limit){ throw prematureEOF("ERROR: Premature EOF when reading domain name"); }
+            llen = in.get(pos++);
         }
-        if(numRead == -1 && i < NUM_BYTES_IP){
-            throw new EOFException("ERROR: Premature EOF when reading IPv4 " + numRead);
+
+        if(checkEndOfLabelsBitsSet(llen)){//clear the next byte too, according to the specifications
+            if(pos >= limit){ throw prematureEOF("ERROR: Premature EOF reading trash byte after top two bits set"); }
+            pos++;
+        } else if(llen < -1){
+            throw new ValidationException("ERROR: label length < 0", null, llen + "", false);
         }
-        return buff;
+
+        //Check for max size violations
+        int numBytes = pos - start;
+        checkNameSize(maxSize, numBytes);
+
+        if(numBytes == 1 || numBytes == 2){//then we have the '.' case ([0] or [-64, 1])
+            finalString.append('.');
+        }
+
+        String name = checkDecodedName(finalString, valid);
+        in.position(pos);
+        return name;
+    }
+
+    /**
+     * Reads a domain name from the given buffer, following compression pointers if there is a decompressor and
+     *   treating them as the end of the name (like readDomainName(ByteBuffer, int)) otherwise
+     * @param in the buffer to read from
+     * @param maxSize if the number of bytes read in place doesn't match the maxSize, a ValidationException is thrown
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @return a string representing the deserialized domain name read
+     * @throws ValidationException if parse or validation problem
+     * @throws IOException if premature EOF
+     */
+    static String readDomainName(ByteBuffer in, int maxSize, NameDecompressor names) throws ValidationException, IOException {
+        if(names == null){
+            return readDomainName(in, maxSize);
+        }
+        Objects.requireNonNull(in, "Input buffer cannot be null");
+
+        //Check if maxSize is 0, in which case throw a validation exception
+        if(maxSize == 0){
+            throw new ValidationException("ERROR: Max size of a domain name cannot be 0", null, maxSize + "", false);
+        }
+
+        final int start = in.position();
+        String name = names.readDomainName(in);
+        checkNameSize(maxSize, in.position() - start);
+        return name;
+    }
+
+    /**
+     * Finishes validating a decoded domain name whose labels have already been checked one by one
+     * @param name the decoded name
+     * @param labelsValid whether every label passed validateLabel
+     * @return the name as a String
+     * @throws ValidationException if a label was invalid or the name is too long
+     */
+    private static String checkDecodedName(StringBuilder name, boolean labelsValid) throws ValidationException {
+        if(!labelsValid || name.length() > ValidationUtils.DOMAIN_NAME_MAX_LEN){
+            throw new ValidationException("Domain name did not pass domain name checks", null, name.toString(), false);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Checks the number of bytes a domain name took against the number of bytes it was supposed to take
+     * @param maxSize expected number of bytes (ignored if negative)
+     * @param numBytes number of bytes read
+     * @throws EOFException if too few bytes were read
+     * @throws ValidationException if too many bytes were read
+     */
+    private static void checkNameSize(int maxSize, int numBytes) throws ValidationException, EOFException {
+        if(maxSize > 0 && maxSize != numBytes){
+            if(maxSize > numBytes){
+                throw prematureEOF("ERROR: Premature end of input stream (RDLENGTH does not match RDATA " +
+                        "length (rdlen=" + maxSize + ", rdata.length()=" + numBytes);
+            } else {
+                throw new ValidationException("ERROR: RDLENGTH does not match RDATA length (rdlen=" + maxSize
+                        + ", rdata.length()=" + numBytes, null, maxSize + "", false);
+            }
+        }
+    }
+
+    /**
+     * Moves the buffer's position past the domain name starting there without building it.  A compression pointer ends
+     *   the name in place whether or not it is followed later, so this works for both plain and compressed names.
+     * @param in the buffer to read from
+     * @throws ValidationException if a label is too long or has a reserved length prefix
+     * @throws EOFException if premature EOF
+     */
+    static void skipDomainName(ByteBuffer in) throws ValidationException, EOFException {
+        final int limit = in.limit();
+        int pos = in.position();
+        while(true){
+            if(pos >= limit){ throw prematureEOF("ERROR: Premature EOF when reading domain name"); }
+            byte llen = in.get(pos++);
+            if(llen == 0){
+                break;
+            } else if(checkEndOfLabelsBitsSet(llen)){
+                if(pos >= limit){ throw prematureEOF("ERROR: Premature EOF reading trash byte after top two bits set"); }
+                pos++;
+                break;
+            } else if(llen < 0 || llen > ValidationUtils.DOMAIN_NAME_LABEL_MAX_LEN+1){
+                throw new ValidationException("ERROR: invalid label length", null, llen + "", false);
+            }
+            pos += llen;
+        }
+        in.position(pos);
+    }
+
+    /**
+     * Moves the buffer's position past the next x bytes
+     * @param in the buffer to read from
+     * @param x number of bytes to skip
+     * @throws EOFException if fewer than x bytes remain
+     */
+    static void skipBytes(ByteBuffer in, int x) throws EOFException {
+        checkRemaining(in, x, "when skipping bytes");
+        in.position(in.position() + x);
+    }
+
+    /**
+     * Reads a single byte and checks for EOF
+     * @param in the buffer to read from
+     * @param when a message to append to the error stating what part of the calling code you're in
+     * @return a single byte
+     * @throws EOFException if premature EOF
+     */
+    static byte readByte(ByteBuffer in, String when) throws EOFException {
+        checkRemaining(in, 1, when);
+        return in.get();
+    }
+
+    /**
+     * Reads an int (4 bytes) from a buffer
+     * @param in the buffer to read from
+     * @return the int
+     * @throws EOFException if premature EOF
+     */
+    static int readIntBigEndian(ByteBuffer in) throws EOFException {
+        checkRemaining(in, 4, "when reading int in big endian");
+        int pos = in.position();
+        int toReturn = ((in.get(pos) & BYTE_BIT_MASK) << 24) | ((in.get(pos+1) & BYTE_BIT_MASK) << 16)
+                | ((in.get(pos+2) & BYTE_BIT_MASK) << 8) | (in.get(pos+3) & BYTE_BIT_MASK);
+        in.position(pos + 4);
+        return toReturn;
+    }
+
+    /**
+     * Reads a long (8 bytes) from a buffer
+     * @param in the buffer to read from
+     * @return the long
+     * @throws EOFException if premature EOF
+     */
+    static long readLongBigEndian(ByteBuffer in) throws EOFException {
+        checkRemaining(in, 8, "when reading long in big endian");
+        return ((long) readIntBigEndian(in) << 32) | (readIntBigEndian(in) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Reads an unsigned short (2 bytes) from a buffer and returns it as an int
+     * @param in the buffer to read from
+     * @return the unsigned short as an int
+     * @throws EOFException if premature EOF
+     */
+    static int readUnsignedShortBigEndian(ByteBuffer in) throws EOFException {
+        checkRemaining(in, 2, "when reading unsigned short in big endian");
+        int pos = in.position();
+        int toReturn = ((in.get(pos) & BYTE_BIT_MASK) << 8) | (in.get(pos+1) & BYTE_BIT_MASK);
+        in.position(pos + 2);
+        return toReturn;
+    }
+
+    /**
+     * Reads an unsigned int (4 bytes) from a buffer and returns it as a long
+     * @param in the buffer to read from
+     * @return the unsigned int as a long
+     * @throws EOFException if premature EOF
+     */
+    static long readUnsignedIntBigEndian(ByteBuffer in) throws EOFException {
+        return readIntBigEndian(in) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Reads X bytes from a buffer in one bulk copy and throws an exception if they're not available
+     * @param in the buffer to read from
+     * @param x the number of bytes to read
+     * @return byte array with x elements
+     * @throws EOFException if premature EOF
+     */
+    static byte[] readXBytes(ByteBuffer in, int x) throws EOFException {
+        if(in.remaining() < x){
+            throw prematureEOF("ERROR: Premature end of input buffer, expected: " + x + " got: " + in.remaining());
+        }
+        byte[] data = new byte[x];
+        in.get(data);
+        return data;
     }
 }
@@ -4,7 +4,7 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.*;
+import java.nio.ByteBuffer;
 
 import static sdns.serialization.IOUtils.*;
 import static sdns.serialization.ValidationUtils.validateDomainName;
@@ -19,7 +19,7 @@ public class MX extends ResourceRecord {
     //Width of the preference field
     private static final int PREFERENCE_WIDTH_BYTES = 2;
     //A domain name which specifies a host willing to act as a mail exchange for the owner name
-    private String exchange;
+    private DomainName exchange;
     //Specifies the preference given to this RR among others at the same owner. Lower values preferred
     private int preference;
 
@@ -62,7 +62,36 @@ public class MX extends ResourceRecord {
 
         //Exchange
         String rdata = readDomainName(in, rdlen-PREFERENCE_WIDTH_BYTES);
-        this.setExchange(rdata);
+        this.exchange = DomainName.ofValidated(rdata);//already validated label by label as it was read
+    }
+
+    /**
+     * Finishes parsing an MX ResourceRecord from the buffer
+     *
+     * @param name RR name
+     * @param in   buffer to read from
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @throws ValidationException if validation fails (see specification), including null name
+     * @throws IOException         if premature end of buffer
+     */
+    protected MX(String name, ByteBuffer in, NameDecompressor names) throws ValidationException, IOException {
+        super(name, in);
+
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+
+        if(rdlen < PREFERENCE_WIDTH_BYTES + 1){
+            throw new ValidationException("ERROR: RDLen too small: " + rdlen, null, rdlen + "", false);
+        }
+
+        //RData
+        //Preference
+        int pref = readUnsignedShortBigEndian(in);
+        this.setPreference(pref);
+
+        //Exchange
+        String rdata = readDomainName(in, rdlen-PREFERENCE_WIDTH_BYTES, names);
+        this.exchange = DomainName.ofValidated(rdata);//already validated label by label as it was read
     }
 
 
@@ -70,7 +99,13 @@ public class MX extends ResourceRecord {
      * Get exchange
      * @return exchange domain name
      */
-    public String getExchange() { return this.exchange; }
+    public String getExchange() { return this.exchange.toString(); }
+
+    /**
+     * Get exchange
+     * @return exchange domain name
+     */
+    public DomainName getExchangeAsDomainName() { return this.exchange; }
 
     /**
      * Get preference
@@ -91,7 +126,8 @@ public class MX extends ResourceRecord {
 
         //require non null and validate domain name all in one!
         if(validateDomainName(exchange)){
-            this.exchange = exchange;
+            this.beforeChange();
+            this.exchange = DomainName.ofValidated(exchange);
         } else {
             throw new ValidationException("Exchange did not pass domain name checks: " + exchange, exchange);
         }
@@ -99,6 +135,21 @@ public class MX extends ResourceRecord {
         return this;
     }
 
+    /**
+     * Set exchange domain name
+     * @param exchange new exchange domain name
+     * @return this RR with new exchange
+     * @throws ValidationException if exchange null
+     */
+    public MX setExchange(DomainName exchange) throws ValidationException {
+        if(exchange == null){
+            throw new ValidationException("Exchange cannot be null", "null");
+        }
+        this.beforeChange();
+        this.exchange = exchange;
+        return this;
+    }
+
     /**
      * Set preference
      * @param preference exchange preference
@@ -109,6 +160,7 @@ public class MX extends ResourceRecord {
         if(preference < 0 || preference > ValidationUtils.MAX_UNSIGNED_SHORT){
             throw new ValidationException("Preference: invalid unsigned 16-bit int: " + preference, preference + "");
         }
+        this.beforeChange();
         this.preference = preference;
         return this;
     }
@@ -123,23 +175,24 @@ public class MX extends ResourceRecord {
     public int getTypeValue() { return MX_TYPE_VALUE; }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
+     * Writes the rdata for this object into the buffer.  For internal use only.
      *
-     * @return the serialized version of this objects rdata
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
      */
     @Override
-    protected List<Byte> serializeRData() {
-        List<Byte> rdataBytes = new ArrayList<>(Arrays.asList(
-                toObject(writeShortBigEndian((short) this.preference))
-        ));
-        try {
-            serializeDomainName(this.exchange, rdataBytes);
-        } catch (ValidationException e) {
-            //ack!
-        }
-        return rdataBytes;
+    protected void writeRData(ByteBuffer out, NameCompressor names) {
+        putShortBigEndian(out, this.preference);
+        writeDomainName(this.exchange, out, names);
     }
 
+    /**
+     * Get the number of bytes writeRData writes without compression.  For internal use only.
+     * @return uncompressed length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return PREFERENCE_WIDTH_BYTES + this.exchange.getWireLength(); }
+
     /**
      * Returns a String representation
      * MX: name=[name] ttl=[ttl] exchange=[exchange] preference=[preference]
@@ -165,7 +218,7 @@ public class MX extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         MX mx = (MX) o;
-        return preference == mx.preference && exchange.equalsIgnoreCase(mx.exchange);
+        return preference == mx.preference && exchange.equals(mx.exchange);
     }
 
     /**
@@ -173,11 +226,11 @@ public class MX extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 1039;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((exchange == null) ? 0 : exchange.toLowerCase().hashCode());
+        result = prime * result + super.computeHashCode();
+        result = prime * result + ((exchange == null) ? 0 : exchange.hashCode());
         result = prime * result + preference;
         return result;
     }
@@ -2,10 +2,8 @@
 //Created: 9/18/20
 package sdns.serialization;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -24,9 +22,17 @@ import static sdns.serialization.ValidationUtils.validateDomainName;
 public abstract class Message implements Cloneable {
     //Maximum unsigned short
     private static final int MAX_UNSIGNED_SHORT = 65535;
+    //Bytes in the header, and in the question after its name (0x00FF, 0x0001)
+    protected static final int HEADER_BYTES = 12, QUESTION_FIXED_BYTES = 4;
+    //Per thread name compressor for encodeCompressedTo (its table is reset for every message)
+    private static final ThreadLocal<NameCompressor> COMPRESSOR = ThreadLocal.withInitial(NameCompressor::new);
+    //Per thread name decompressor for decodeCompressed (its cache is reset for every message)
+    private static final ThreadLocal<NameDecompressor> DECOMPRESSOR = ThreadLocal.withInitial(NameDecompressor::new);
     //ID and query fields
     private int id;
-    private String query;
+    private DomainName query;
+    //Whether this message is a snapshot, which can never change
+    private boolean snapshot = false;
 
     /**
      * Protected constructor for convenience
@@ -69,57 +75,126 @@ public abstract class Message implements Cloneable {
      */
     public static Message decode(byte[] message) throws NullPointerException, ValidationException {
         Objects.requireNonNull(message, "Message cannot be null");
+        return decode(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Deserializes message from the bytes between the buffer's position and limit.  The buffer (heap or direct) is
+     *   read in place, so a receive buffer can be decoded without first copying it out into an array.  The buffer's
+     *   position is left unchanged.
+     * Note: When deserialing RRs, a well-formed RR with an unknown type is deserialized as an Unknown
+     *
+     * @param message deserialization byte source
+     * @return a specific message resulting from deserialization
+     * @throws NullPointerException if message is null
+     * @throws ValidationException if parse or validation problem (including too few bytes)
+     */
+    public static Message decode(ByteBuffer message) throws NullPointerException, ValidationException {
+        return decode(message, null);
+    }
+
+    /**
+     * Checks whether the bytes between the buffer's position and limit hold a message that decode(ByteBuffer) would
+     *   accept, without decoding it.  Nothing is allocated and nothing is thrown however malformed the bytes are, so
+     *   run this first when the bytes may well be garbage.  The buffer's position is left unchanged.
+     * @param message bytes to check
+     * @return OK if decode(ByteBuffer) would succeed, otherwise the first problem it would run into
+     * @throws NullPointerException if message is null
+     */
+    public static DecodeResult check(ByteBuffer message) throws NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        return MessageValidator.check(message);
+    }
+
+    /**
+     * Deserializes message from the bytes between the buffer's position and limit like decode(ByteBuffer), but
+     *   following RFC 1035 compression pointers in names instead of treating them as the end of the name.  Use this for
+     *   messages from real DNS servers, which compress their responses.
+     *
+     * @param message deserialization byte source
+     * @return a specific message resulting from deserialization
+     * @throws NullPointerException if message is null
+     * @throws ValidationException if parse or validation problem (including too few bytes and bad pointers)
+     */
+    public static Message decodeCompressed(ByteBuffer message) throws NullPointerException, ValidationException {
+        NameDecompressor names = DECOMPRESSOR.get();
+        try {
+            return decode(message, names);
+        } finally {
+            names.reset();//don't hang on to this message's names
+        }
+    }
 
-        InputStream buff = new ByteArrayInputStream(message);
+    /**
+     * Deserializes message from the bytes between the buffer's position and limit, following compression pointers only
+     *   if there is a decompressor (which is reset to start at this message)
+     * @param message deserialization byte source
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @return a specific message resulting from deserialization
+     * @throws NullPointerException if message is null
+     * @throws ValidationException if parse or validation problem (including too few bytes)
+     */
+    private static Message decode(ByteBuffer message, NameDecompressor names) throws NullPointerException, ValidationException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        if(names != null){
+            names.reset();
+        }
+
+        //malformed messages are common (see fuzzer/), so the exceptions thrown from decoding itself skip the stack trace
+        //index 0 of the slice is the first byte of the message
+        ByteBuffer buff = message.slice();
         try {
             int id = readUnsignedShortBigEndian(buff);
             byte temp = readByte(buff, "when decoding header");
             //verify Opcode = 0, ignore AA and TC and RD
             if((temp & 0x78) != 0){
-                throw new ValidationException("ERROR: Opcode is not 0: " + (temp & 0x78), (temp & 0x78) + "");
+                throw new ValidationException("ERROR: Opcode is not 0: " + (temp & 0x78), null, (temp & 0x78) + "", false);
             }
 
             Message toReturn;
             //decode the QR byte
             if((temp & QR_BIT_MASK) == 0){
-                toReturn = new Query(id, buff);
+                toReturn = new Query(id, buff, names);
             } else if((temp & QR_BIT_MASK) == QR_BIT_SET) {
-                toReturn = new Response(id, buff);
+                toReturn = new Response(id, buff, names);
             } else {
                 throw new RuntimeException("INTERNAL ERROR");
             }
 
             //verify the bytes have been used up
-            if(buff.read() != -1){
-                throw new ValidationException("ERROR: too many bytes in Query Message decoding", "Too many bytes");
+            if(buff.hasRemaining()){
+                throw new ValidationException("ERROR: too many bytes in Query Message decoding", null,
+                        "Too many bytes", false);
             }
 
             return toReturn;
         } catch (IOException e) {
-            throw new ValidationException("Message invalid length", e, Arrays.toString(message));
+            throw new ValidationException("Message invalid length", e, message.remaining() + "", false);
         }
     }
 
     /**
      * Decodes the Question section in an SDNS message and saves it in query
-     * @param in the input stream to read from
+     * @param in the buffer to read from
+     * @param names name decompressor for the message, or null for plain SDNS names
      * @throws ValidationException if parse of validation problem (including too few bytes/premature EOF)
      */
-    protected void decodeQuestion(InputStream in) throws ValidationException {
+    protected void decodeQuestion(ByteBuffer in, NameDecompressor names) throws ValidationException {
         int temp1, temp2;
         try {
-            this.setQuery(readDomainName(in));
+            //already validated label by label as it was read (and not pooled, since any client can send any name)
+            this.query = DomainName.ofValidatedUnpooled(readDomainName(in, -1, names));
             temp1 = readUnsignedShortBigEndian(in);
             temp2 = readUnsignedShortBigEndian(in);
         } catch (IOException e) {//because the specifications do not call for IOExceptions
-            throw new ValidationException("ERROR: Input not long enough", e.getMessage());
+            throw new ValidationException("ERROR: Input not long enough", null, e.getMessage(), false);
         }
         if(temp1 != 0x00FF){
-            throw new ValidationException("ERROR: invalid 0x00FF", temp1 + "");
+            throw new ValidationException("ERROR: invalid 0x00FF", null, temp1 + "", false);
         }
 
         if(temp2 != 0x0001){
-            throw new ValidationException("ERROR: invalid 0x0001", temp2 + "");
+            throw new ValidationException("ERROR: invalid 0x0001", null, temp2 + "", false);
         }
     }
 
@@ -142,42 +217,168 @@ public abstract class Message implements Cloneable {
      * @return serialized message
      */
     public byte[] encode(){
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ByteBuffer buff = encodeToScratch(this::encodeTo);
+        return Arrays.copyOf(buff.array(), buff.position());
+    }
+
+    /**
+     * Serialize message straight into the given buffer, starting at its position and leaving the position just past the
+     *   message (see encode() for the format).  Nothing is allocated along the way, so a reused (or thread-local
+     *   scratch, see IOUtils.getScratchBuffer()) buffer makes encoding garbage free.
+     * @param out serialization sink
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room (the buffer's contents past its original
+     *   position are then undefined)
+     * @throws NullPointerException if out is null
+     */
+    public void encodeTo(ByteBuffer out){ this.encodeTo(out, null); }
+
+    /**
+     * Serialize message straight into the given buffer like encodeTo(ByteBuffer), but with RFC 1035 name compression:
+     *   any name (or name suffix) already written in the message is replaced by a pointer to it.  Only use this for
+     *   peers that follow pointers; SDNS decoders treat a pointer as the end of the name.
+     * @param out serialization sink
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room (the buffer's contents past its original
+     *   position are then undefined)
+     * @throws NullPointerException if out is null
+     */
+    public void encodeCompressedTo(ByteBuffer out){ this.encodeTo(out, COMPRESSOR.get()); }
+
+    /**
+     * Serialize message straight into the given buffer, compressing names with the given compressor (which is reset to
+     *   start at this message) or not at all if it is null
+     * @param out serialization sink
+     * @param names name compressor to use, or null to write every name in full
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room (the buffer's contents past its original
+     *   position are then undefined)
+     * @throws NullPointerException if out is null
+     */
+    public void encodeTo(ByteBuffer out, NameCompressor names){
+        Objects.requireNonNull(out, "Output buffer cannot be null");
+        this.writeHeaderAndQuestion(out, names);
+
+        //Add the Answer, NameServer, and Additional fields if a Response
+        this.writeData(out, names);
+    }
+
+    /**
+     * Serialize message into the given buffer in no more than maxLength bytes (see
+     *   encodeTo(ByteBuffer, NameCompressor, int))
+     * @param out serialization sink
+     * @param maxLength most bytes to write
+     * @return whether any answers were left out (the TrunCation bit was set)
+     * @throws java.nio.BufferOverflowException if not even the header and question fit, or the buffer runs out of room
+     * @throws NullPointerException if out is null
+     */
+    public boolean encodeTo(ByteBuffer out, int maxLength){ return this.encodeTo(out, null, maxLength); }
+
+    /**
+     * Serialize message into the given buffer with RFC 1035 name compression (see encodeCompressedTo(ByteBuffer)) in
+     *   no more than maxLength bytes (see encodeTo(ByteBuffer, NameCompressor, int))
+     * @param out serialization sink
+     * @param maxLength most bytes to write
+     * @return whether any answers were left out (the TrunCation bit was set)
+     * @throws java.nio.BufferOverflowException if not even the header and question fit, or the buffer runs out of room
+     * @throws NullPointerException if out is null
+     */
+    public boolean encodeCompressedTo(ByteBuffer out, int maxLength){
+        return this.encodeTo(out, COMPRESSOR.get(), maxLength);
+    }
+
+    /**
+     * Serialize message into the given buffer like encodeTo(ByteBuffer, NameCompressor), but in no more than maxLength
+     *   bytes (e.g. one 512 byte UDP datagram).  A response that doesn't fit leaves out its additional records, then
+     *   its authority records, and then every answer that doesn't fit, setting the TrunCation bit.  What is left out
+     *   is worked out from encodedLength() before it is written, so nothing is written only to be thrown away (except,
+     *   with compression, an RR that might fit only once its names are compressed).
+     * @param out serialization sink
+     * @param names name compressor to use, or null to write every name in full
+     * @param maxLength most bytes to write
+     * @return whether any answers were left out (the TrunCation bit was set)
+     * @throws java.nio.BufferOverflowException if not even the header and question fit, or the buffer runs out of room
+     *   (the buffer's contents past its original position are then undefined)
+     * @throws NullPointerException if out is null
+     */
+    public boolean encodeTo(ByteBuffer out, NameCompressor names, int maxLength){
+        Objects.requireNonNull(out, "Output buffer cannot be null");
+        //fits whole (compressing never makes it longer), so nothing to work out
+        if(this.encodedLength() <= maxLength){
+            this.encodeTo(out, names);
+            return false;
+        }
+
+        final int start = out.position(), limit = out.limit();
+        out.limit(start + Math.min(limit - start, maxLength));
         try {
-            //ID field in header
-            bout.write(new byte[]{(byte) (this.getID() >> 8), (byte) this.getID()});
-            //rest of header
-            this.writeHeader(bout);
-
-            //Write Query field
-            try {
-                serializeDomainName(this.getQuery(), bout);
-            } catch (ValidationException ignored) { }
-
-            bout.write(new byte[]{
-                    0, (byte) 0xFF,//0x00FF
-                    0, 1//0x0001
-            });
-
-            //Add the Answer, NameServer, and Additional fields if a Response
-            this.writeData(bout);
-        } catch(IOException ignored) {}
-
-        return bout.toByteArray();
+            this.writeHeaderAndQuestion(out, names);
+            return this.writeDataWithin(out, names, start);
+        } finally {
+            out.limit(limit);
+        }
+    }
+
+    /**
+     * Writes the header and question, compressing the question with the given compressor (which is reset to start at
+     *   this message) or not at all if it is null
+     * @param out the buffer to write to
+     * @param names name compressor to use, or null to write every name in full
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room
+     */
+    private void writeHeaderAndQuestion(ByteBuffer out, NameCompressor names){
+        if(names != null){
+            names.reset(out.position());
+        }
+
+        //ID field in header
+        putShortBigEndian(out, this.getID());
+        //rest of header
+        this.writeHeader(out);
+
+        //Write Query field
+        writeDomainName(this.query, out, names);
+
+        putShortBigEndian(out, 0x00FF);
+        putShortBigEndian(out, 0x0001);
+    }
+
+    /**
+     * Get the number of bytes encodeTo(ByteBuffer) writes for this message, without encoding it.  Compressing names
+     *   never makes a message longer, so this is also the most encodeCompressedTo(ByteBuffer) can write.
+     * @return encoded length of this message
+     */
+    public int encodedLength(){
+        return HEADER_BYTES + this.query.getWireLength() + QUESTION_FIXED_BYTES + this.dataLength();
     }
 
     /**
      * Finishes writing the encoded header based on which subtype it is
-     * @param out the output array to write to
-     * @throws IOException if error writing to the buffer
+     * @param out the buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room
      */
-    protected abstract void writeHeader(ByteArrayOutputStream out) throws IOException;
+    protected abstract void writeHeader(ByteBuffer out);
 
     /**
      * Finishes writing the encoded data section based on which subtype it is
-     * @param out the output stream to write to
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room
+     */
+    protected abstract void writeData(ByteBuffer out, NameCompressor names);
+
+    /**
+     * Finishes writing the encoded data section like writeData, but only what fits before the buffer's limit (see
+     *   encodeTo(ByteBuffer, NameCompressor, int)), fixing up the header to match
+     * @param out the buffer to write to, limited to the room the message has
+     * @param names name compressor for the message, or null to write every name in full
+     * @param start where the message starts in the buffer
+     * @return whether the TrunCation bit was set
      */
-    protected abstract void writeData(ByteArrayOutputStream out);
+    protected abstract boolean writeDataWithin(ByteBuffer out, NameCompressor names, int start);
+
+    /**
+     * Get the number of bytes writeData writes without compression
+     * @return uncompressed length of the data section
+     */
+    protected abstract int dataLength();
 
     /**
      * Get message ID
@@ -189,7 +390,13 @@ public abstract class Message implements Cloneable {
      * Get query (domain name) of message
      * @return message query
      */
-    public String getQuery() { return this.query; }
+    public String getQuery() { return this.query.toString(); }
+
+    /**
+     * Get query (domain name) of message
+     * @return message query
+     */
+    public DomainName getQueryAsDomainName() { return this.query; }
 
     /**
      * Set ID of message
@@ -201,6 +408,7 @@ public abstract class Message implements Cloneable {
         if(id < 0 || id > MAX_UNSIGNED_SHORT){
             throw new ValidationException("ERROR: invalid id: " + id, id + "");
         }
+        this.beforeChange();
         this.id = id;
         return this;
     }
@@ -214,10 +422,45 @@ public abstract class Message implements Cloneable {
     public Message setQuery(String query) throws ValidationException {
         if(query == null){ throw new ValidationException("Query cannot be null", "null"); }
         if(!validateDomainName(query)){ throw new ValidationException("Invalid query: " + query, query); }
+        this.beforeChange();
+        this.query = DomainName.ofValidated(query);
+        return this;
+    }
+
+    /**
+     * Set message query (domain name)
+     * @param query new query
+     * @return this message with new query
+     * @throws ValidationException if new query null
+     */
+    public Message setQuery(DomainName query) throws ValidationException {
+        if(query == null){ throw new ValidationException("Query cannot be null", "null"); }
+        this.beforeChange();
         this.query = query;
         return this;
     }
 
+    /**
+     * Every setter calls this just before changing the message
+     * @throws UnsupportedOperationException if this message is a snapshot
+     */
+    protected void beforeChange(){
+        if(this.snapshot){
+            throw new UnsupportedOperationException("ERROR: snapshot messages cannot be changed");
+        }
+    }
+
+    /**
+     * Marks this message as a snapshot, after which beforeChange() refuses every change
+     */
+    protected void markSnapshot(){ this.snapshot = true; }
+
+    /**
+     * Whether this message is a snapshot, which can never change
+     * @return whether this message is a snapshot
+     */
+    public boolean isSnapshot(){ return this.snapshot; }
+
     /**
      * Checks for equality
      * @param o the object to compare to
@@ -228,7 +471,7 @@ public abstract class Message implements Cloneable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Message message = (Message) o;
-        return id == message.id && query.equalsIgnoreCase(message.query);
+        return id == message.id && query.equals(message.query);
     }
 
     /**
@@ -241,7 +484,7 @@ public abstract class Message implements Cloneable {
         int result = 1;
         result = prime * result;
         result = prime * result + id;
-        result = prime * result + query.toLowerCase().hashCode();
+        result = prime * result + query.hashCode();
         return result;
     }
 
@@ -0,0 +1,100 @@
+//Contains the MessageBatch class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reusable holder for every message decoded from one buffer of frames (see NIODeframer.getMessages(ByteBuffer,
+ *   MessageBatch)).  Each frame gets a slot holding its decoded message, or the reason it could not be decoded, plus the
+ *   length of the frame.  The slots grow as needed and are kept between batches, so a connection that reuses its batch
+ *   allocates nothing per batch but the messages themselves.  Not thread safe.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class MessageBatch {
+    //Slots to start with
+    private static final int DEFAULT_CAPACITY = 16;
+    //Decoded message (null if it could not be decoded), result, and frame length of each slot
+    private Message[] messages;
+    private DecodeResult[] results;
+    private int[] frameLengths;
+    //Number of slots in use
+    private int size = 0;
+
+    /**
+     * Constructs an empty batch with room for a few messages
+     */
+    public MessageBatch(){ this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs an empty batch with room for the given number of messages before it has to grow
+     * @param capacity starting number of slots
+     * @throws IllegalArgumentException if capacity is less than 1
+     */
+    public MessageBatch(int capacity){
+        if(capacity < 1){
+            throw new IllegalArgumentException("ERROR: capacity must be positive: " + capacity);
+        }
+        this.messages = new Message[capacity];
+        this.results = new DecodeResult[capacity];
+        this.frameLengths = new int[capacity];
+    }
+
+    /**
+     * Adds a slot, growing the batch if it is full
+     * @param message decoded message, or null if it could not be decoded
+     * @param result OK, or why the message could not be decoded
+     * @param frameLength number of bytes in the frame (excluding the length prefix)
+     */
+    void add(Message message, DecodeResult result, int frameLength){
+        if(this.size == this.messages.length){
+            int capacity = this.messages.length * 2;
+            this.messages = Arrays.copyOf(this.messages, capacity);
+            this.results = Arrays.copyOf(this.results, capacity);
+            this.frameLengths = Arrays.copyOf(this.frameLengths, capacity);
+        }
+        this.messages[this.size] = message;
+        this.results[this.size] = result;
+        this.frameLengths[this.size++] = frameLength;
+    }
+
+    /**
+     * Empties the batch, letting go of its messages (the slots are kept for the next batch)
+     */
+    public void clear(){
+        Arrays.fill(this.messages, 0, this.size, null);
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of messages in the batch
+     * @return number of messages
+     */
+    public int size(){ return this.size; }
+
+    /**
+     * Get a decoded message
+     * @param i index of the message (in the order the frames arrived)
+     * @return the message, or null if it could not be decoded (see getResult(int))
+     * @throws IndexOutOfBoundsException if there is no such message
+     */
+    public Message getMessage(int i){ return this.messages[Objects.checkIndex(i, this.size)]; }
+
+    /**
+     * Get whether a message was decoded
+     * @param i index of the message
+     * @return OK if the message was decoded, otherwise why it could not be
+     * @throws IndexOutOfBoundsException if there is no such message
+     */
+    public DecodeResult getResult(int i){ return this.results[Objects.checkIndex(i, this.size)]; }
+
+    /**
+     * Get the number of bytes in a message's frame
+     * @param i index of the message
+     * @return length of the frame (excluding the length prefix)
+     * @throws IndexOutOfBoundsException if there is no such message
+     */
+    public int getFrameLength(int i){ return this.frameLengths[Objects.checkIndex(i, this.size)]; }
+}
@@ -0,0 +1,215 @@
+//Contains the MessagePeek class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static sdns.serialization.IOUtils.QR_BIT_MASK;
+import static sdns.serialization.ValidationUtils.toLowerAscii;
+
+/**
+ * Reads what routing, caching, and rate limiting decisions need (the ID, QR bit, opcode, and question) straight from a
+ *   message's bytes, without decoding it.  Only the header and question are read, and nothing at all is allocated:
+ *   peek() packs everything into one long, read back out with the static getters, and the question is given as a
+ *   case insensitive key (its hash code, which is the same as DomainName.hashCode() for the same name, plus
+ *   questionEquals() and copyQuestionKey() to tell apart names with the same hash code).
+ * The question name is read like Message.decode(ByteBuffer) reads it (a byte with the top two bits set ends the name,
+ *   and the byte after it is skipped) and validated, but nothing past the question is checked, so still decode (or
+ *   Message.check(ByteBuffer)) anything that gets past the peek.  Buffer positions are never changed.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public final class MessagePeek {
+    //DecodeResult.values() copies the array every call, so keep one
+    private static final DecodeResult[] RESULTS = DecodeResult.values();
+    //Where each field sits in a peeked long: question hash in the low 32 bits, then the rest (the sign bit is failure)
+    private static final int ID_SHIFT = 32, OPCODE_SHIFT = 48, QR_SHIFT = 52, KEY_LENGTH_SHIFT = 53;
+    private static final long SHORT_MASK = 0xFFFF, OPCODE_MASK = 0x0F, KEY_LENGTH_MASK = 0x1FF, HASH_MASK = 0xFFFFFFFFL;
+    //Top two bits of a label length byte that end an SDNS name
+    private static final int END_BITS = 0xC0;
+
+    /**
+     * Static utility class
+     */
+    private MessagePeek(){}
+
+    /**
+     * Peeks at the header and question of the message in the array (see peek(ByteBuffer))
+     * @param message message bytes
+     * @return the peeked fields, or a failure (see getResult(long))
+     * @throws NullPointerException if message is null
+     */
+    public static long peek(byte[] message) throws NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        return peek(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Peeks at the header and question of the message between the buffer's position and limit
+     * @param message message bytes
+     * @return the peeked fields, or a failure (see getResult(long)): TOO_SHORT if the message ends before its question
+     *   does, BAD_LABEL if the question name is invalid, or BAD_FIELD if the 0x00FF or 0x0001 after it is wrong
+     * @throws NullPointerException if message is null
+     */
+    public static long peek(ByteBuffer message) throws NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        final int start = message.position(), limit = message.limit();
+        if(limit - start < Message.HEADER_BYTES){ return fail(DecodeResult.TOO_SHORT); }
+        final int id = readShort(message, start);
+        final byte flags = message.get(start + 2);
+
+        //question name, hashed like its lowercase String (see DomainName.hashCode())
+        int pos = start + Message.HEADER_BYTES, hash = 0, nameLength = 0;
+        if(pos >= limit){ return fail(DecodeResult.TOO_SHORT); }
+        byte llen = message.get(pos++);
+        while(llen > 0){
+            //the label and the length byte after it
+            if(limit - pos < llen + 1){ return fail(DecodeResult.TOO_SHORT); }
+            if(!ValidationUtils.validateLabel(message, pos, pos + llen)){ return fail(DecodeResult.BAD_LABEL); }
+            for(int end = pos + llen; pos < end; pos++){
+                hash = 31 * hash + toLowerAscii(message.get(pos));
+            }
+            hash = 31 * hash + '.';
+            nameLength += llen + 1;
+            llen = message.get(pos++);
+        }
+        if((llen & END_BITS) == END_BITS){//skip the next byte too, according to the specifications
+            if(pos >= limit){ return fail(DecodeResult.TOO_SHORT); }
+            pos++;
+        } else if(llen < 0){
+            return fail(DecodeResult.BAD_LABEL);
+        }
+        if(nameLength > ValidationUtils.DOMAIN_NAME_MAX_LEN){ return fail(DecodeResult.BAD_LABEL); }
+        if(nameLength == 0){
+            hash = '.';
+        }
+
+        //0x00FF, 0x0001
+        if(limit - pos < 4){ return fail(DecodeResult.TOO_SHORT); }
+        if(readShort(message, pos) != 0x00FF || readShort(message, pos + 2) != 0x0001){
+            return fail(DecodeResult.BAD_FIELD);
+        }
+
+        //the key is the uncompressed wire form, which ends in a 0
+        return ((long) (nameLength + 1) << KEY_LENGTH_SHIFT)
+                | ((flags & QR_BIT_MASK) != 0 ? 1L << QR_SHIFT : 0)
+                | (((flags >> 3) & OPCODE_MASK) << OPCODE_SHIFT)
+                | ((long) id << ID_SHIFT)
+                | (hash & HASH_MASK);
+    }
+
+    /**
+     * Get whether the peek succeeded
+     * @param peeked what peek returned
+     * @return OK if the header and question were read, otherwise what was wrong with them
+     */
+    public static DecodeResult getResult(long peeked){ return peeked >= 0 ? DecodeResult.OK : RESULTS[(int) -peeked]; }
+
+    /**
+     * Get the message ID
+     * @param peeked what a successful peek returned
+     * @return message ID
+     */
+    public static int getID(long peeked){ return (int) ((peeked >>> ID_SHIFT) & SHORT_MASK); }
+
+    /**
+     * Get whether the QR bit is set
+     * @param peeked what a successful peek returned
+     * @return true for a response, false for a query
+     */
+    public static boolean isResponse(long peeked){ return ((peeked >>> QR_SHIFT) & 1) != 0; }
+
+    /**
+     * Get the opcode (0 for every message SDNS can decode)
+     * @param peeked what a successful peek returned
+     * @return the opcode
+     */
+    public static int getOpcode(long peeked){ return (int) ((peeked >>> OPCODE_SHIFT) & OPCODE_MASK); }
+
+    /**
+     * Get the case insensitive hash code of the question, the same as DomainName.hashCode() for the same name
+     * @param peeked what a successful peek returned
+     * @return hash code of the question
+     */
+    public static int getQuestionHash(long peeked){ return (int) peeked; }
+
+    /**
+     * Get the number of bytes copyQuestionKey(ByteBuffer, byte[], int) writes
+     * @param peeked what a successful peek returned
+     * @return length of the question key
+     */
+    public static int getQuestionKeyLength(long peeked){ return (int) ((peeked >>> KEY_LENGTH_SHIFT) & KEY_LENGTH_MASK); }
+
+    /**
+     * Checks whether the question is the given name, ignoring case
+     * @param message message bytes that peeked successfully
+     * @param name name to compare to
+     * @return whether the question is the name
+     * @throws NullPointerException if message or name is null
+     */
+    public static boolean questionEquals(ByteBuffer message, DomainName name) throws NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        final byte[] wire = Objects.requireNonNull(name, "Domain name cannot be null").wire();
+        final int limit = message.limit();
+        int pos = message.position() + Message.HEADER_BYTES, i = 0;
+
+        while(pos < limit){
+            byte llen = message.get(pos++);
+            if(llen <= 0){
+                //the end of the name (0, or a byte with the top two bits set) must be the end of the other name too
+                return (llen == 0 || (llen & END_BITS) == END_BITS) && wire[i] == 0;
+            }
+            if(wire[i++] != llen || limit - pos < llen){ return false; }
+            for(int end = pos + llen; pos < end; pos++, i++){
+                if(toLowerAscii(message.get(pos)) != toLowerAscii(wire[i])){ return false; }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the question, lowercased and in uncompressed wire form (labels, then a 0 byte), into the array.  Two
+     *   questions have the same key exactly when they are equal ignoring case, so keys can index a cache without
+     *   making a String or DomainName for every message.
+     * @param message message bytes that peeked successfully
+     * @param dst array to copy into
+     * @param off where to start in the array
+     * @return number of bytes copied (see getQuestionKeyLength(long))
+     * @throws NullPointerException if message or dst is null
+     * @throws IndexOutOfBoundsException if the key doesn't fit in the array, or the message did not peek successfully
+     */
+    public static int copyQuestionKey(ByteBuffer message, byte[] dst, int off) throws NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        Objects.requireNonNull(dst, "Destination cannot be null");
+        int pos = message.position() + Message.HEADER_BYTES, i = off;
+
+        byte llen = message.get(pos++);
+        while(llen > 0){
+            dst[i++] = llen;
+            for(int end = pos + llen; pos < end; pos++){
+                dst[i++] = (byte) toLowerAscii(message.get(pos));
+            }
+            llen = message.get(pos++);
+        }
+        dst[i++] = 0;
+        return i - off;
+    }
+
+    /**
+     * Encodes a failure as a (negative) peek
+     * @param result the failure
+     * @return the failure as a peek
+     */
+    private static long fail(DecodeResult result){ return -result.ordinal(); }
+
+    /**
+     * Reads an unsigned short by absolute offset
+     * @param in message bytes
+     * @param pos position of the short
+     * @return the unsigned short
+     */
+    private static int readShort(ByteBuffer in, int pos){
+        return ((in.get(pos) & 0xFF) << 8) | (in.get(pos + 1) & 0xFF);
+    }
+}
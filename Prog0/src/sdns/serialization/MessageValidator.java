@@ -0,0 +1,253 @@
+//Contains the MessageValidator class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.nio.ByteBuffer;
+
+import static sdns.serialization.IOUtils.QR_BIT_MASK;
+import static sdns.serialization.ResourceRecord.*;
+
+/**
+ * Checks whether bytes hold a message Message.decode(ByteBuffer) would accept, without decoding it.  Walks the same
+ *   fields in the same order as decoding does and reports the first problem as a DecodeResult, reading by absolute
+ *   offset so that nothing at all is allocated (not even an exception) however bad the bytes are.
+ * Every check returns the position just past what it checked, or a failure encoded as a negative number (see fail()).
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+final class MessageValidator {
+    //DecodeResult.values() copies the array every call, so keep one
+    private static final DecodeResult[] RESULTS = DecodeResult.values();
+    //Failures returned in place of a position
+    private static final int TOO_SHORT = fail(DecodeResult.TOO_SHORT), BAD_LABEL = fail(DecodeResult.BAD_LABEL),
+                             BAD_FIELD = fail(DecodeResult.BAD_FIELD);
+    //Bytes in each of the fixed size fields
+    private static final int SHORT_BYTES = 2, INT_BYTES = 4, SOA_FIXED_BYTES = 20;
+
+    /**
+     * Static utility class
+     */
+    private MessageValidator(){}
+
+    /**
+     * Encodes a failure as a (negative) position
+     * @param result the failure
+     * @return the failure as a position
+     */
+    private static int fail(DecodeResult result){ return -result.ordinal(); }
+
+    /**
+     * Checks the message between the buffer's position and limit; the buffer's position is left unchanged
+     * @param in message bytes
+     * @return OK if Message.decode(ByteBuffer) would succeed, otherwise the first problem it would run into
+     */
+    static DecodeResult check(ByteBuffer in){
+        final int limit = in.limit();
+        int pos = in.position();
+
+        //ID and the QR/opcode byte
+        if(limit - pos < 3){ return DecodeResult.TOO_SHORT; }
+        byte flags = in.get(pos + 2);
+        if((flags & 0x78) != 0){ return DecodeResult.BAD_OPCODE; }
+        pos += 3;
+        boolean response = (flags & QR_BIT_MASK) != 0;
+
+        //RA, Z, RCode
+        if(pos >= limit){ return DecodeResult.TOO_SHORT; }
+        int rcode = in.get(pos++) & 0x0F;
+        if(response ? !RCode.isRCode(rcode) : rcode != 0){ return DecodeResult.BAD_FIELD; }
+
+        //0x0001
+        if(limit - pos < SHORT_BYTES){ return DecodeResult.TOO_SHORT; }
+        if(readShort(in, pos) != 1){ return DecodeResult.BAD_FIELD; }
+        pos += SHORT_BYTES;
+
+        //ANCOUNT, NSCOUNT, ARCOUNT (all 0 for a query)
+        int rrCount = 0;
+        for(int i=0; i<3; i++){
+            if(limit - pos < SHORT_BYTES){ return DecodeResult.TOO_SHORT; }
+            int count = readShort(in, pos);
+            if(!response && count != 0){ return DecodeResult.BAD_FIELD; }
+            rrCount += count;
+            pos += SHORT_BYTES;
+        }
+
+        //question
+        pos = checkQuestion(in, pos, limit);
+        //RRs
+        for(int i=0; i<rrCount && pos >= 0; i++){
+            pos = checkRR(in, pos, limit);
+        }
+
+        if(pos < 0){ return RESULTS[-pos]; }
+        return pos == limit ? DecodeResult.OK : DecodeResult.TOO_LONG;
+    }
+
+    /**
+     * Checks the question (name, 0x00FF, 0x0001)
+     * @param in message bytes
+     * @param pos position of the question
+     * @param limit end of the message
+     * @return position just past the question, or a failure
+     */
+    private static int checkQuestion(ByteBuffer in, int pos, int limit){
+        pos = checkDomainName(in, pos, limit, -1);
+        if(pos < 0){ return pos; }
+        if(limit - pos < SHORT_BYTES){ return TOO_SHORT; }
+        if(readShort(in, pos) != 0x00FF){ return BAD_FIELD; }
+        pos += SHORT_BYTES;
+        if(limit - pos < SHORT_BYTES){ return TOO_SHORT; }
+        if(readShort(in, pos) != 0x0001){ return BAD_FIELD; }
+        return pos + SHORT_BYTES;
+    }
+
+    /**
+     * Checks one RR like ResourceRecord.decode(ByteBuffer) and the RR constructors would
+     * @param in message bytes
+     * @param pos position of the RR
+     * @param limit end of the message
+     * @return position just past the RR, or a failure
+     */
+    private static int checkRR(ByteBuffer in, int pos, int limit){
+        pos = checkDomainName(in, pos, limit, -1);
+        if(pos < 0){ return pos; }
+
+        //type
+        if(limit - pos < SHORT_BYTES){ return TOO_SHORT; }
+        int type = readShort(in, pos);
+        pos += SHORT_BYTES;
+
+        //0x0001, a byte at a time
+        if(pos >= limit){ return TOO_SHORT; }
+        if(in.get(pos++) != 0){ return BAD_FIELD; }
+        if(pos >= limit){ return TOO_SHORT; }
+        if(in.get(pos++) != 1){ return BAD_FIELD; }
+
+        //TTL
+        if(limit - pos < INT_BYTES){ return TOO_SHORT; }
+        if(in.get(pos) < 0){ return BAD_FIELD; }
+        pos += INT_BYTES;
+
+        //RDLength
+        if(limit - pos < SHORT_BYTES){ return TOO_SHORT; }
+        int rdlen = readShort(in, pos);
+        pos += SHORT_BYTES;
+
+        switch(type){
+            case CN_TYPE_VALUE:
+            case NS_TYPE_VALUE:
+                return checkDomainName(in, pos, limit, rdlen);
+            case A_TYPE_VALUE:
+                return checkFixedRData(pos, limit, rdlen, INT_BYTES);
+            case AAAA_TYPE_VALUE:
+                return checkFixedRData(pos, limit, rdlen, 16);
+            case MX_TYPE_VALUE:
+                if(rdlen < SHORT_BYTES + 1){ return BAD_FIELD; }
+                if(limit - pos < SHORT_BYTES){ return TOO_SHORT; }
+                return checkDomainName(in, pos + SHORT_BYTES, limit, rdlen - SHORT_BYTES);
+            case CAA_TYPE_VALUE:
+                return checkCAA(in, pos, limit, rdlen);
+            case SOA_TYPE_VALUE:
+                int rdataStart = pos;
+                pos = checkDomainName(in, pos, limit, -1);
+                if(pos < 0){ return pos; }
+                pos = checkDomainName(in, pos, limit, -1);
+                if(pos < 0){ return pos; }
+                if(pos - rdataStart + SOA_FIXED_BYTES != rdlen){ return BAD_FIELD; }
+                return limit - pos < SOA_FIXED_BYTES ? TOO_SHORT : pos + SOA_FIXED_BYTES;
+            default://Unknown
+                return limit - pos < rdlen ? TOO_SHORT : pos + rdlen;
+        }
+    }
+
+    /**
+     * Checks rdata that must be exactly a certain length (A and AAAA)
+     * @param pos position of the rdata
+     * @param limit end of the message
+     * @param rdlen RDLength
+     * @param expected required RDLength
+     * @return position just past the rdata, or a failure
+     */
+    private static int checkFixedRData(int pos, int limit, int rdlen, int expected){
+        if(rdlen != expected){ return BAD_FIELD; }
+        return limit - pos < expected ? TOO_SHORT : pos + expected;
+    }
+
+    /**
+     * Checks CAA rdata (header, then visible ascii issuer)
+     * @param in message bytes
+     * @param pos position of the rdata
+     * @param limit end of the message
+     * @param rdlen RDLength
+     * @return position just past the rdata, or a failure
+     */
+    private static int checkCAA(ByteBuffer in, int pos, int limit, int rdlen){
+        if(rdlen < CAA.HEADER_CAA_WIDTH_BYTES){ return BAD_FIELD; }
+        for(byte b : CAA.PROPER_HEADER){
+            if(pos >= limit){ return TOO_SHORT; }
+            if(in.get(pos++) != b){ return BAD_FIELD; }
+        }
+        int end = pos + rdlen - CAA.HEADER_CAA_WIDTH_BYTES;
+        if(end > limit){ return TOO_SHORT; }
+        for(; pos < end; pos++){
+            byte b = in.get(pos);
+            if(b < 0x21 || b > 0x7E){ return BAD_FIELD; }
+        }
+        return end;
+    }
+
+    /**
+     * Checks a domain name like IOUtils.readDomainName(ByteBuffer, int) reads and validates it (a byte with the top two
+     *   bits set ends the name, and the byte after it is skipped)
+     * @param in message bytes
+     * @param pos position of the name
+     * @param limit end of the message
+     * @param maxSize number of bytes the name must take, or -1 if any number
+     * @return position just past the name, or a failure
+     */
+    private static int checkDomainName(ByteBuffer in, int pos, int limit, int maxSize){
+        if(maxSize == 0){ return BAD_FIELD; }
+
+        final int start = pos;
+        int nameLength = 0;
+        boolean valid = true;
+
+        if(pos >= limit){ return TOO_SHORT; }
+        byte llen = in.get(pos++);
+        while(llen > 0){
+            if(pos + llen > limit){ return TOO_SHORT; }
+            if(llen > ValidationUtils.DOMAIN_NAME_LABEL_MAX_LEN+1){ return BAD_LABEL; }
+            valid = valid && ValidationUtils.validateLabel(in, pos, pos + llen);
+            nameLength += llen + 1;
+            pos += llen;
+
+            if(pos >= limit){ return TOO_SHORT; }
+            llen = in.get(pos++);
+        }
+
+        if((llen & 0xC0) == 0xC0){//skip the next byte too, according to the specifications
+            if(pos >= limit){ return TOO_SHORT; }
+            pos++;
+        } else if(llen < 0){
+            return BAD_LABEL;
+        }
+
+        int numBytes = pos - start;
+        if(maxSize > 0 && maxSize != numBytes){
+            return maxSize > numBytes ? TOO_SHORT : BAD_FIELD;
+        }
+
+        if(!valid || nameLength > ValidationUtils.DOMAIN_NAME_MAX_LEN){ return BAD_LABEL; }
+        return pos;
+    }
+
+    /**
+     * Reads an unsigned short by absolute offset
+     * @param in message bytes
+     * @param pos position of the short
+     * @return the unsigned short
+     */
+    private static int readShort(ByteBuffer in, int pos){
+        return ((in.get(pos) & 0xFF) << 8) | (in.get(pos + 1) & 0xFF);
+    }
+}
@@ -2,74 +2,200 @@
 //Created: 11/14/20
 package sdns.serialization;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
-import static sdns.serialization.IOUtils.readUnsignedShortBigEndian;
+import static sdns.serialization.Framer.PREFIX_BYTES;
+import static sdns.serialization.IOUtils.QR_BIT_MASK;
+import static sdns.serialization.ValidationUtils.MAX_UNSIGNED_SHORT;
 
 /**
- * Non-blocking message deserialization from given buffers
+ * Non-blocking message deserialization from given buffers.  Bytes are buffered in a ring sized for typical frames, so
+ *   the memory a connection holds stays small, each byte is copied in once and never moved, and frames are handed back
+ *   as read-only slices of the ring instead of copies.
+ * A frame that wraps around the end of the ring is made contiguous by copying just its wrapped part into a mirror
+ *   region past the end of the ring.  A frame longer than the ring grows it (on the heap) until the frame is complete,
+ *   and the ring goes back to its own storage as soon as it empties again.  Not thread safe.
  * @author Ethan Dickey
  *   Credit: Dr. Donahoo of Baylor University for comments and API
  * @version 1.0
  */
 public class NIODeframer {
-    //Indicators of buffer status
-    private int frameSize = -1, nextInsert = 0;
-    //start small and grow as needed, starting value = 256 (2^8)
-    private byte[] buff = new byte[2 << 8];
+    //Default capacity: room for two typical (512 byte) frames
+    public static final int DEFAULT_CAPACITY = 2 * (512 + PREFIX_BYTES);
+    //Most a ring ever grows to: room for two of the longest frames
+    public static final int MAX_CAPACITY = 2 * (MAX_UNSIGNED_SHORT + PREFIX_BYTES);
+    //Nothing left over
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    //The ring's own storage, and its capacity
+    private final ByteBuffer home;
+    private final int homeCapacity;
+    //Ring of capacity bytes, followed by the mirror region (home, or a bigger heap buffer while a long frame is buffered)
+    private ByteBuffer buff;
+    //Second view of buff to copy from (a buffer can't be its own source)
+    private ByteBuffer source;
+    private int capacity;
+    //Index of the first buffered byte, and number of bytes buffered
+    private int head = 0, count = 0;
+    //Bytes given to getMessage(byte[]) that didn't fit in the ring yet, ahead of any new bytes
+    private ByteBuffer backlog = EMPTY;
 
     /**
-     * Doubles the internal buffer's size.  Could extract to utility function in the future.
+     * Constructs the NIODeframer object, with a heap ring big enough for typical frames
      */
-    private void doubleBuffSize(){
-        byte[] newBuff = new byte[this.buff.length*2];
-        System.arraycopy(this.buff, 0, newBuff, 0, nextInsert);
-        this.buff = newBuff;//automatically garbage collects old array (at some point)
+    public NIODeframer() { this(DEFAULT_CAPACITY, false); }
+
+    /**
+     * Constructs the NIODeframer object with a ring of the given size.  A frame (with its length prefix) longer than
+     *   the ring grows it for as long as the frame is buffered, so the ring should fit the frames usually expected.
+     * @param capacity number of bytes the ring buffers
+     * @param direct whether the ring is a direct buffer (so channels can fill it without an extra copy)
+     * @throws IllegalArgumentException if capacity is too small to hold a length prefix
+     */
+    public NIODeframer(int capacity, boolean direct) {
+        this(direct ? ByteBuffer.allocateDirect(storageSize(capacity)) : ByteBuffer.allocate(storageSize(capacity)),
+                capacity);
     }
 
     /**
-     * Adds the given bytes to the internal buffer, increasing the size of the buffer if needed
-     * @param toAdd bytes to add
+     * Constructs the NIODeframer object with a ring of the given size in the given storage (e.g. a pooled buffer), which
+     *   belongs to the deframer until it is no longer used
+     * @param storage buffer to keep the ring in, with room for at least storageSize(capacity) bytes
+     * @param capacity number of bytes the ring buffers
+     * @throws NullPointerException if storage is null
+     * @throws IllegalArgumentException if capacity is too small to hold a length prefix, or storage is too small
      */
-    private void addBytesToBuffer(byte[] toAdd){
-        while(buff.length < nextInsert + toAdd.length){
-            //increase size
-            this.doubleBuffSize();
+    public NIODeframer(ByteBuffer storage, int capacity) {
+        Objects.requireNonNull(storage);
+        if(capacity < PREFIX_BYTES){
+            throw new IllegalArgumentException("ERROR: capacity must be at least " + PREFIX_BYTES + ": " + capacity);
         }
+        if(storage.capacity() < storageSize(capacity) || storage.isReadOnly()){
+            throw new IllegalArgumentException("ERROR: storage must be writable with room for " + storageSize(capacity)
+                    + " bytes: " + storage.capacity());
+        }
+        this.homeCapacity = this.capacity = capacity;
+        this.home = this.buff = storage.duplicate().clear();
+        this.source = this.buff.duplicate();
+    }
 
-        //add arrays
-        System.arraycopy(toAdd, 0, this.buff, nextInsert, toAdd.length);
-        nextInsert += toAdd.length;
+    /**
+     * Get the number of bytes of storage a ring of the given size needs: the ring, plus room to mirror the longest
+     *   frame body that can wrap around it
+     * @param capacity number of bytes the ring buffers
+     * @return bytes of storage needed
+     */
+    public static int storageSize(int capacity) {
+        return capacity + Math.min(capacity, MAX_UNSIGNED_SHORT);
     }
 
     /**
-     * Check if buffer length is big enough to have a frame length field
-     */
-    private void checkAndSetFrameSize(){
-        if(nextInsert >= 2){
-            //can read the frame size
-            ByteArrayInputStream bin = new ByteArrayInputStream(buff);
-            try {
-                int length = readUnsignedShortBigEndian(bin);
-                bin.close();//done using, so close resource
-                //check if we can parse a message, if so, set the frameSize
-                if(length + 2 <= nextInsert){//length + length of header bytes
-                    frameSize = length;
-                }//else do nothing
-            } catch (IOException ignored) {
-                //uh oh...  shouldn't happen
+     * Get the number of bytes the ring buffers right now (more than it was made with while a long frame is buffered)
+     * @return capacity of the ring
+     */
+    public int getCapacity() { return this.capacity; }
+
+    /**
+     * Get the number of bytes buffered and not yet returned as part of a frame
+     * @return number of bytes buffered
+     */
+    public int getBuffered() { return this.count + this.backlog.remaining(); }
+
+    /**
+     * Moves as many bytes as there is room for into the ring: first the backlog, then (once the backlog is empty) the
+     *   remaining bytes of the given buffer
+     * @param toAdd buffer to take from
+     */
+    private void addBytesToBuffer(ByteBuffer toAdd){
+        if(this.backlog.hasRemaining()){
+            this.copyIn(this.backlog);
+            if(this.backlog.hasRemaining()){
+                return;
             }
+            this.backlog = EMPTY;
         }
+        this.copyIn(toAdd);
     }
 
+    /**
+     * Copies as many of the remaining bytes of the given buffer as there is room for into the ring
+     * @param toAdd buffer to take from
+     */
+    private void copyIn(ByteBuffer toAdd){
+        int numBytes = Math.min(toAdd.remaining(), this.capacity - this.count);
+        int tail = (this.head + this.count) % this.capacity;
+        int first = Math.min(numBytes, this.capacity - tail);
+        int limit = toAdd.limit();
+
+        //up to the end of the ring, then the rest from the front
+        toAdd.limit(toAdd.position() + first);
+        this.buff.clear().position(tail);
+        this.buff.put(toAdd);
+        toAdd.limit(toAdd.position() + numBytes - first);
+        this.buff.clear();
+        this.buff.put(toAdd);
+        toAdd.limit(limit);
+        this.count += numBytes;
+    }
+
+    /**
+     * Moves the buffered bytes to the front of a new heap ring of the given size
+     * @param capacity number of bytes the new ring buffers
+     */
+    private void grow(int capacity){
+        ByteBuffer bigger = ByteBuffer.allocate(storageSize(capacity));
+        int first = Math.min(this.count, this.capacity - this.head);
+        this.source.clear().position(this.head).limit(this.head + first);
+        bigger.put(this.source);
+        this.source.clear().limit(this.count - first);
+        bigger.put(this.source);
+
+        this.buff = bigger;
+        this.source = bigger.duplicate();
+        this.capacity = capacity;
+        this.head = 0;
+    }
 
     /**
-     * Constructs the NIODeframer object, setting up internal objects
-     * Required according to the API, but can remove because it does nothing
+     * Takes the next complete frame (if any) out of the ring, growing the ring first if the frame is longer than it
+     * @return read-only slice holding the frame, excluding the prefix length, or null if no complete frame is buffered.
+     *   The slice is only good until bytes are next added.
      */
-    public NIODeframer() {}
+    private ByteBuffer nextFrame(){
+        if(this.count < PREFIX_BYTES){
+            return null;
+        }
+        int length = ((this.buff.get(this.head) & 0xFF) << 8) | (this.buff.get((this.head + 1) % this.capacity) & 0xFF);
+        if(length + PREFIX_BYTES > this.capacity){
+            //long frames are rare, so only they pay for a bigger ring
+            this.grow(Math.min(MAX_CAPACITY, Math.max(2 * this.capacity, length + PREFIX_BYTES)));
+        }
+        if(this.count < length + PREFIX_BYTES){
+            return null;
+        }
+
+        //copy the part of the frame that wrapped to the front into the mirror, right after the rest of it
+        int start = (this.head + PREFIX_BYTES) % this.capacity;
+        int wrapped = start + length - this.capacity;
+        if(wrapped > 0){
+            this.buff.clear().position(this.capacity);
+            this.buff.put(this.source.clear().limit(wrapped));
+        }
+        ByteBuffer frame = this.buff.clear().position(start).limit(start + length).slice().asReadOnlyBuffer();
+        //absolute gets check against the limit, so it always stays at the end of the storage
+        this.buff.clear();
+
+        this.count -= length + PREFIX_BYTES;
+        //start over at the front whenever the ring empties, so fewer frames wrap
+        this.head = this.count == 0 ? 0 : (start + length) % this.capacity;
+        if(this.count == 0 && this.buff != this.home){
+            //the long frame is out, so go back to the ring's own storage (the frame's slice still holds the bigger one)
+            this.buff = this.home;
+            this.source = this.home.duplicate();
+            this.capacity = this.homeCapacity;
+        }
+        return frame;
+    }
 
     /**
      * Non-blocking call to get the next message (not including prefix) if immediately available.  If a complete
@@ -85,29 +211,112 @@ public class NIODeframer {
         //check parameter
         Objects.requireNonNull(buffer);
 
-        //shove the new bytes into internal buffer
+        ByteBuffer in = ByteBuffer.wrap(buffer);
+        ByteBuffer frame;
+        do {
+            //a full ring either completes a frame or grows, so this drains until there is a frame or nothing left
+            this.addBytesToBuffer(in);
+        } while((frame = this.nextFrame()) == null && (in.hasRemaining() || this.backlog.hasRemaining()));
+
+        //keep (a copy of) whatever didn't fit for later calls
+        if(in.hasRemaining()){
+            this.backlog = ByteBuffer.allocate(this.backlog.remaining() + in.remaining()).put(this.backlog).put(in)
+                    .flip();
+        }
+        return toArray(frame);
+    }
+
+    /**
+     * Same as getMessage(byte[]), but takes the next bytes straight from the remaining bytes of a (heap or direct)
+     *   buffer, so callers don't have to copy a receive buffer out into an array first.  Only as many bytes as there is
+     *   room for are taken; the buffer's position is advanced past them, and the rest are left for the next call.
+     * @param buffer next bytes of message
+     * @return next message, excluding the prefix length
+     * @throws NullPointerException if buffer is null
+     */
+    public byte[] getMessage(ByteBuffer buffer) throws NullPointerException {
+        return toArray(this.getFrame(buffer));
+    }
+
+    /**
+     * Copies a frame out of the ring
+     * @param frame the frame (may be null)
+     * @return copy of the frame, or null if there is no frame
+     */
+    private static byte[] toArray(ByteBuffer frame){
+        if(frame == null){
+            return null;
+        }
+        byte[] toReturn = new byte[frame.remaining()];
+        frame.get(toReturn);
+        return toReturn;
+    }
+
+    /**
+     * Same as getMessage(ByteBuffer), but hands the message back as a read-only slice of the ring instead of a copy.
+     *   The slice is only good until the next call to this deframer.
+     * @param buffer next bytes of message
+     * @return next message, excluding the prefix length, or null if a complete message is not immediately available
+     * @throws NullPointerException if buffer is null
+     */
+    public ByteBuffer getFrame(ByteBuffer buffer) throws NullPointerException {
+        //check parameter
+        Objects.requireNonNull(buffer);
+
+        //shove the new bytes into the ring
         this.addBytesToBuffer(buffer);
 
-        //deal with buffer
-        this.checkAndSetFrameSize();
+        return this.nextFrame();
+    }
 
-        //return something
-        byte[] toReturn = null;
-        //check if have enough bytes to satisfy frame size (frame size will be set if this is valid)
-        if(frameSize != -1 && nextInsert >= frameSize + 2){//second check is superfluous, but just in case
-            //if so, return those bytes and remove them from the array, leaving the rest of the array in tact
-            toReturn = new byte[frameSize];
+    /**
+     * Decodes every complete message buffered so far, including any completed by the remaining bytes of the given
+     *   buffer, into the batch in one call.  Each message is decoded straight out of the ring (queries, which have no
+     *   RRs to point back into it) or out of its own copy (everything else).  The buffer is drained into the ring as
+     *   frames make room, and its position is advanced to its limit.
+     * @param buffer next bytes of messages (may be empty)
+     * @param batch batch to fill, cleared first
+     * @return number of messages in the batch (0 if no complete message is buffered)
+     * @throws NullPointerException if buffer or batch is null
+     */
+    public int getMessages(ByteBuffer buffer, MessageBatch batch) throws NullPointerException {
+        Objects.requireNonNull(buffer);
+        Objects.requireNonNull(batch);
+        batch.clear();
 
-            //Copy array over
-            System.arraycopy(buff, 2, toReturn, 0, frameSize);
+        do {
+            //shove as many new bytes as fit into the ring, then take out every frame they completed
+            this.addBytesToBuffer(buffer);
+            ByteBuffer frame;
+            while((frame = this.nextFrame()) != null){
+                this.decodeFrame(batch, frame);
+            }
+        } while(buffer.hasRemaining() || this.backlog.hasRemaining());//a full ring completes a frame or grows, so this drains
 
-            //copy rest of array forwards
-            System.arraycopy(buff, frameSize+2, buff, 0, nextInsert-frameSize-1);
+        return batch.size();
+    }
 
-            nextInsert -= (frameSize + 2);
-            frameSize = -1;
+    /**
+     * Checks and decodes a frame, adding it to the batch
+     * @param batch batch to add to
+     * @param frame the frame
+     */
+    private void decodeFrame(MessageBatch batch, ByteBuffer frame){
+        int length = frame.remaining();
+        DecodeResult result = Message.check(frame);
+        if(result != DecodeResult.OK){
+            batch.add(null, result, length);
+            return;
         }
 
-        return toReturn;
+        //an Unknown RR keeps a view of the bytes it was decoded from, and these bytes are about to be reused
+        if((frame.get(frame.position() + 2) & QR_BIT_MASK) != 0){
+            frame = ByteBuffer.allocate(length).put(frame).flip();
+        }
+        try {
+            batch.add(Message.decode(frame), DecodeResult.OK, length);
+        } catch (ValidationException e) {//check already said it decodes
+            batch.add(null, DecodeResult.BAD_FIELD, length);
+        }
     }
 }
@@ -4,8 +4,7 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 import static sdns.serialization.IOUtils.*;
 import static sdns.serialization.ValidationUtils.validateDomainName;
@@ -17,7 +16,7 @@ import static sdns.serialization.ValidationUtils.validateDomainName;
  */
 public class NS extends ResourceRecord {
     //Name server
-    private String nameServer;
+    private DomainName nameServer;
 
     /**
      * Constructs NS using given values
@@ -45,14 +44,37 @@ public class NS extends ResourceRecord {
         int rdlen = readUnsignedShortBigEndian(in);
         //RData
         String rdata = readDomainName(in, rdlen);
-        this.setNameServer(rdata);
+        this.nameServer = DomainName.ofValidated(rdata);//already validated label by label as it was read
+    }
+
+    /**
+     * Finishes parsing an NS ResourceRecord from the buffer
+     * @param name the name of the RR
+     * @param in the buffer to finish parsing from
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @throws ValidationException if invalid data
+     * @throws IOException if premature end of buffer
+     */
+    protected NS(String name, ByteBuffer in, NameDecompressor names) throws ValidationException, IOException {
+        super(name, in);
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+        //RData
+        String rdata = readDomainName(in, rdlen, names);
+        this.nameServer = DomainName.ofValidated(rdata);//already validated label by label as it was read
     }
 
     /**
      * Get name server
      * @return name
      */
-    public String getNameServer() { return this.nameServer; }
+    public String getNameServer() { return this.nameServer.toString(); }
+
+    /**
+     * Get name server
+     * @return name
+     */
+    public DomainName getNameServerAsDomainName() { return this.nameServer; }
 
     /**
      * Set name server
@@ -67,7 +89,8 @@ public class NS extends ResourceRecord {
 
         //require non null and validate domain name all in one!
         if(validateDomainName(nameServer)){
-            this.nameServer = nameServer;
+            this.beforeChange();
+            this.nameServer = DomainName.ofValidated(nameServer);
         } else {
             throw new ValidationException("Name Server did not pass domain name checks", nameServer);
         }
@@ -75,6 +98,21 @@ public class NS extends ResourceRecord {
         return this;
     }
 
+    /**
+     * Set name server
+     * @param nameServer new name server
+     * @return this NS with new name server
+     * @throws ValidationException if name server null
+     */
+    public NS setNameServer(DomainName nameServer) throws ValidationException {
+        if(nameServer == null){
+            throw new ValidationException("Name Server cannot be null", "null");
+        }
+        this.beforeChange();
+        this.nameServer = nameServer;
+        return this;
+    }
+
     /**
      * Return type value for NS
      * @return type value
@@ -83,21 +121,20 @@ public class NS extends ResourceRecord {
     public int getTypeValue() { return NS_TYPE_VALUE; }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
-     * @return the serialized version of this objects rdata
+     * Writes the rdata for this object into the buffer.  For internal use only.
+     *
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
      */
     @Override
-    protected List<Byte> serializeRData(){
-        List<Byte> rdataBytes = new ArrayList<>();
-        try {
-            serializeDomainName(this.getNameServer(), rdataBytes);
-        } catch (ValidationException e) {
-            //Do nothing
-//            throw new ValidationException("WARN WARN WARN: \"NAMESERVER\" FIELD DOES NOT CONTAIN A VALID DOMAIN NAME", this.getName());
-        }
+    protected void writeRData(ByteBuffer out, NameCompressor names){ writeDomainName(this.nameServer, out, names); }
 
-        return rdataBytes;
-    }
+    /**
+     * Get the number of bytes writeRData writes without compression.  For internal use only.
+     * @return uncompressed length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return this.nameServer.getWireLength(); }
 
     /**
      * Returns a String representation
@@ -120,7 +157,7 @@ public class NS extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         NS that = (NS) o;
-        return nameServer.equalsIgnoreCase(that.nameServer);
+        return nameServer.equals(that.nameServer);
     }
 
     /**
@@ -128,11 +165,11 @@ public class NS extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 1019;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((nameServer == null) ? 0 : nameServer.toLowerCase().hashCode());
+        result = prime * result + super.computeHashCode();
+        result = prime * result + ((nameServer == null) ? 0 : nameServer.hashCode());
         return result;
     }
 }
@@ -0,0 +1,75 @@
+//Contains the NameCompressor class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes domain names with RFC 1035 (section 4.1.4) message compression: any name suffix that has already been written
+ *   in the message is replaced by a two byte pointer to where it was written.  Keeps one suffix-to-offset table per
+ *   message, so reset it at the start of each message (Message.encodeTo(ByteBuffer, NameCompressor) does this).
+ * Note: SDNS decoders treat a pointer as the end of the name, so only use this for peers that follow pointers.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class NameCompressor {
+    //Top two bits of the first pointer byte
+    private static final int POINTER_BITS = 0xC0;
+    //Largest offset a pointer can hold (14 bits)
+    private static final int MAX_POINTER_OFFSET = 0x3FFF;
+    //Lowercase name suffixes already written in the message, mapped to their offset from the start of the message
+    private final Map<String, Integer> suffixOffsets = new HashMap<>();
+    //Position in the buffer of the first byte of the message
+    private int messageStart = 0;
+
+    /**
+     * Starts a new message whose first byte is at the given buffer position, forgetting every name written before
+     * @param messageStart position of the start of the message in the buffer being written to
+     */
+    public void reset(int messageStart){
+        this.suffixOffsets.clear();
+        this.messageStart = messageStart;
+    }
+
+    /**
+     * Writes the given domain name into the buffer, ending it with a pointer as soon as the rest of the name has
+     *   already been written in this message.  Suffixes are matched case insensitively.
+     * @param name the (already validated) domain name to write
+     * @param out the buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room
+     */
+    public void writeDomainName(String name, ByteBuffer out){
+        final int len = name.length();
+        //"." has no labels, so it is written as the final '0' alone
+        if(len > 1){
+            final String lower = name.toLowerCase();
+            int labelStart = 0;
+            while(labelStart < len){
+                String suffix = lower.substring(labelStart);
+                Integer offset = this.suffixOffsets.get(suffix);
+                if(offset != null){
+                    out.put((byte) (POINTER_BITS | (offset >> 8))).put((byte) (int) offset);
+                    return;
+                }
+
+                //remember where this suffix starts, if a pointer can reach it
+                int here = out.position() - this.messageStart;
+                if(here <= MAX_POINTER_OFFSET){
+                    this.suffixOffsets.put(suffix, here);
+                }
+
+                int dot = name.indexOf('.', labelStart);
+                out.put((byte) (dot - labelStart));
+                for(int j=labelStart; j<dot; j++){
+                    out.put((byte) name.charAt(j));
+                }
+                labelStart = dot + 1;
+            }
+        }
+
+        //Add the final '0' to signal the end of the name
+        out.put((byte) 0);
+    }
+}
@@ -0,0 +1,130 @@
+//Contains the NameDecompressor class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static sdns.serialization.IOUtils.prematureEOF;
+
+/**
+ * Reads domain names that may use RFC 1035 (section 4.1.4) message compression, following pointers against the whole
+ *   message.  Pointers are offsets from index 0 of the buffer, so read from a buffer whose index 0 is the first byte of
+ *   the message (Message.decodeCompressed(ByteBuffer) slices the message for you).
+ * Every pointer must point before the start of the labels it was found in, which rules out loops; the number of
+ *   pointers followed in one name is also capped.  Names decoded so far are cached by the offset of each of their
+ *   labels, so a pointer to a suffix that has already been read is resolved without walking its labels again.  Keeps
+ *   one cache per message, so reset it at the start of each message.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class NameDecompressor {
+    //Top two bits of the first pointer byte
+    private static final int POINTER_BITS = 0xC0;
+    //Most pointers that will be followed while reading one name
+    private static final int MAX_POINTER_HOPS = 64;
+    //Most labels a name can have (each takes at least 2 characters, e.g. "a.")
+    private static final int MAX_LABELS = ValidationUtils.DOMAIN_NAME_MAX_LEN / 2 + 1;
+    //Decoded name suffixes, keyed by the offset of their first label in the message
+    private final Map<Integer, String> suffixes = new HashMap<>();
+    //Scratch space for the name being read: the offset of each label and where it starts in the name
+    private final int[] labelOffsets = new int[MAX_LABELS], labelIndices = new int[MAX_LABELS];
+    private final StringBuilder name = new StringBuilder(ValidationUtils.DOMAIN_NAME_MAX_LEN);
+
+    /**
+     * Starts a new message, forgetting every name read before
+     */
+    public void reset(){ this.suffixes.clear(); }
+
+    /**
+     * Reads a domain name from the given buffer, starting at its position and following any compression pointers.
+     *   Leaves the position just past the name as it appears in place (i.e. just past the first pointer, if any).
+     * @param in the buffer (whose index 0 is the start of the message) to read from
+     * @return the decoded domain name
+     * @throws ValidationException if a label or pointer is invalid, or the name is too long
+     * @throws IOException if premature EOF
+     */
+    public String readDomainName(ByteBuffer in) throws ValidationException, IOException {
+        final int limit = in.limit();
+        int pos = in.position(), segmentStart = pos, end = -1, hops = 0, nLabels = 0;
+        String tail = null;
+        this.name.setLength(0);
+
+        while(true){
+            if(pos >= limit){ throw prematureEOF("ERROR: Premature EOF when reading domain name"); }
+            int llen = in.get(pos) & 0xFF;
+
+            if(llen == 0){//end of the name
+                pos++;
+                break;
+            }
+
+            if((llen & POINTER_BITS) == POINTER_BITS){
+                if(pos + 1 >= limit){ throw prematureEOF("ERROR: Premature EOF when reading compression pointer"); }
+                int target = ((llen & ~POINTER_BITS) << 8) | (in.get(pos + 1) & 0xFF);
+                if(end < 0){
+                    end = pos + 2;
+                }
+
+                //only ever jumping backwards past where this run of labels started guarantees the walk ends
+                if(target >= segmentStart){
+                    throw new ValidationException("ERROR: compression pointer does not point backwards", null, target + "", false);
+                }
+                if(++hops > MAX_POINTER_HOPS){
+                    throw new ValidationException("ERROR: too many compression pointers in one name", null, hops + "", false);
+                }
+
+                tail = this.suffixes.get(target);
+                if(tail != null){
+                    break;
+                }
+                pos = segmentStart = target;
+                continue;
+            }
+
+            if(llen > ValidationUtils.DOMAIN_NAME_LABEL_MAX_LEN){//also catches the reserved 01 and 10 prefixes
+                throw new ValidationException("Label cannot exceed " + ValidationUtils.DOMAIN_NAME_LABEL_MAX_LEN +
+                        " characters", null, llen + "", false);
+            }
+            if(pos + 1 + llen > limit){ throw prematureEOF("ERROR: Premature EOF when reading domain name"); }
+            if(this.name.length() + llen + 1 > ValidationUtils.DOMAIN_NAME_MAX_LEN){
+                throw new ValidationException("Domain name cannot exceed " + ValidationUtils.DOMAIN_NAME_MAX_LEN +
+                        " characters", null, (this.name.length() + llen + 1) + "", false);
+            }
+
+            int labelStart = this.name.length();
+            this.labelOffsets[nLabels] = pos;
+            this.labelIndices[nLabels++] = labelStart;
+            for(int i = pos + 1, labelEnd = pos + 1 + llen; i < labelEnd; i++){
+                this.name.append((char) in.get(i));
+            }
+            //validated as it is read, so neither this name nor any later name sharing the label is validated again
+            if(!ValidationUtils.validateLabel(this.name, labelStart, this.name.length())){
+                throw new ValidationException("Domain name did not pass domain name checks", null, this.name.toString(), false);
+            }
+            this.name.append('.');
+            pos += 1 + llen;
+        }
+
+        String toReturn;
+        if(tail != null){
+            if(this.name.length() + tail.length() > ValidationUtils.DOMAIN_NAME_MAX_LEN){
+                throw new ValidationException("Domain name cannot exceed " + ValidationUtils.DOMAIN_NAME_MAX_LEN +
+                        " characters", null, (this.name.length() + tail.length()) + "", false);
+            }
+            toReturn = this.name.length() == 0 ? tail : this.name.append(tail).toString();
+        } else {
+            toReturn = this.name.length() == 0 ? "." : this.name.toString();
+        }
+
+        //remember every suffix of this name for later pointers
+        for(int i=0; i<nLabels; i++){
+            this.suffixes.putIfAbsent(this.labelOffsets[i], toReturn.substring(this.labelIndices[i]));
+        }
+
+        in.position(end < 0 ? pos : end);
+        return toReturn;
+    }
+}
@@ -2,9 +2,8 @@
 //Created: 9/18/20
 package sdns.serialization;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import static sdns.serialization.IOUtils.*;
 
@@ -15,6 +14,17 @@ import static sdns.serialization.IOUtils.*;
  * @version 1.0
  */
 public class Query extends Message {
+    //Every query header is the same after the ID
+    private static final byte[] HEADER = {
+            //Write from QR to Response code
+            //0[000 0]001      0[000] [0000]
+            1, 0,
+            //Write 0x0001
+            0, 1,
+            //Write ANCount, NSCount, and ARCount
+            0, 0, 0, 0, 0, 0
+    };
+
     /**
      * Constructs SDNS query using given values
      * @param id query id
@@ -24,7 +34,7 @@ public class Query extends Message {
     public Query(int id, String query) throws ValidationException { super(id, query); }
 
     /**
-     * Finishes parsing a Query Message from the input stream
+     * Finishes parsing a Query Message from the buffer
      *
      * Spec: Bits   Field (assigned value encode, decode)
      *       16     ID (*, * - must match)
@@ -42,65 +52,75 @@ public class Query extends Message {
      *       16     ARCOUNT (unsigned) query(0, 0), response(*, *)
      *
      * @param id Message ID
-     * @param in Input stream to finish parsing from
+     * @param in buffer to finish parsing from
+     * @param names name decompressor for the message, or null for plain SDNS names
      * @throws ValidationException if validation fails (see specification)
      */
-    protected Query(int id, InputStream in) throws ValidationException {
+    protected Query(int id, ByteBuffer in, NameDecompressor names) throws ValidationException {
         super(id);
 
         try {
             byte temp = readByte(in, "when reading the header");
             //RA, ignore; Z, ignore; RCode, 0
             if((temp & 0x0F) != 0){
-                throw new ValidationException("ERROR: RCode not set correctly, byte: " + temp, temp + "");
+                throw new ValidationException("ERROR: RCode not set correctly, byte: " + temp, null, temp + "", false);
             }
             //0x0001
             int trash = readUnsignedShortBigEndian(in);
             if(trash != 1){
-                throw new ValidationException("ERROR: 0x0001 not set correctly: " + trash, trash + "");
+                throw new ValidationException("ERROR: 0x0001 not set correctly: " + trash, null, trash + "", false);
             }
             //ANCOUNT, NSCOUNT, ARCOUNT
             final String[] args = {"ANCOUNT", "NSCOUNT", "ARCOUNT"};
             for(int i=0; i<3; ++i){
                 trash = readUnsignedShortBigEndian(in);
                 if(trash != 0){
-                    throw new ValidationException("ERROR: " + args[i] + " not set correctly: " + trash, trash + "");
+                    throw new ValidationException("ERROR: " + args[i] + " not set correctly: " + trash, null, trash + "", false);
                 }
             }
 
             //decode question
-            super.decodeQuestion(in);
+            super.decodeQuestion(in, names);
         } catch (IOException e) {
-            throw new ValidationException("ERROR: stream read error", e.getMessage());
+            throw new ValidationException("ERROR: stream read error", e, e.getMessage(), false);
         }
     }
 
     /**
      * Finishes writing the encoded header based on which subtype it is
      *
-     * @param out the output stream to write to
-     * @throws IOException if error writing to the buffer
+     * @param out the buffer to write to
      */
     @Override
-    protected void writeHeader(ByteArrayOutputStream out) throws IOException {
-        out.write(new byte[]{
-                //Write from QR to Response code
-                //0[000 0]001      0[000] [0000]
-                1, 0,
-                //Write 0x0001
-                0, 1,
-                //Write ANCount, NSCount, and ARCount
-                0, 0, 0, 0, 0, 0
-        });
-    }
+    protected void writeHeader(ByteBuffer out) { out.put(HEADER); }
 
     /**
      * Finishes writing the encoded data section based on which subtype it is
      *
-     * @param out the output stream to write to
+     * @param out the buffer to write to
+     * @param names name compressor for the message (unused)
+     */
+    @Override
+    protected void writeData(ByteBuffer out, NameCompressor names) { }//do nothing
+
+    /**
+     * Finishes writing the encoded data section (there is none, so never truncated)
+     *
+     * @param out the buffer to write to
+     * @param names name compressor for the message (unused)
+     * @param start where the message starts in the buffer (unused)
+     * @return false, every time
+     */
+    @Override
+    protected boolean writeDataWithin(ByteBuffer out, NameCompressor names, int start) { return false; }
+
+    /**
+     * Get the number of bytes writeData writes
+     *
+     * @return 0, every time
      */
     @Override
-    protected void writeData(ByteArrayOutputStream out) { }//do nothing
+    protected int dataLength() { return 0; }
 
 
     /**
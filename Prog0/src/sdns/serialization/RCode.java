@@ -36,6 +36,8 @@ public enum RCode {
      */
     REFUSED(5, "The name server refuses to perform the specified operation");
 
+    //values() copies the array every call, so keep one
+    private static final RCode[] VALUES = values();
     /** Value for rcode */
     private int val;
     /** Error message associated with the rcode */
@@ -58,7 +60,7 @@ public enum RCode {
      * @throws ValidationException if rcode value is out of range
      */
     public static RCode getRCode(int rcodeValue) throws ValidationException {
-        for(RCode r : RCode.values()){
+        for(RCode r : VALUES){
             if(r.val == rcodeValue){
                 return r;//compiler will optimize appropriately
             }
@@ -66,6 +68,20 @@ public enum RCode {
         throw new ValidationException("Invalid RCode: " + rcodeValue, rcodeValue + "");
     }
 
+    /**
+     * Checks whether there is an rcode with the given value
+     * @param rcodeValue rcode value
+     * @return whether or not getRCode(rcodeValue) succeeds
+     */
+    static boolean isRCode(int rcodeValue){
+        for(RCode r : VALUES){
+            if(r.val == rcodeValue){
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Get the rcode value
      * @return the value associated with the rcode
@@ -6,10 +6,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
 
 import static sdns.serialization.IOUtils.*;
@@ -31,10 +27,19 @@ public abstract class ResourceRecord implements Cloneable {
     protected static final int MX_TYPE_VALUE = 15;
     protected static final int CAA_TYPE_VALUE = 257;
     protected static final int SOA_TYPE_VALUE = 6;
+    //Bytes between the name and the rdata: type, 0x0001, TTL, and RDLength
+    private static final int FIXED_BYTES = 10;
 
     //RR name and TimeToLive (TTL)
-    private String name = null;
+    private DomainName name = null;
     private int ttl = -1;
+    //Uncompressed wire form from the last encode (null until encoded, and again after any change).  Never modified once
+    //  set, so clones share it.
+    private volatile byte[] encoded = null;
+    //Hash code from the last hashCode() (0 until hashed, and again after any change)
+    private int hash = 0;
+    //Whether this RR is a snapshot, which can never change (see snapshot())
+    private boolean snapshot = false;
 
     /**
      * Finishes reading the 0x0001 and ttl from the input stream and sets up name and ttl for this RR
@@ -47,7 +52,7 @@ public abstract class ResourceRecord implements Cloneable {
         if(name == null){
             throw new ValidationException("ERROR: Name null", "null");
         }
-        this.setName(name);
+        this.name = DomainName.ofValidated(name);//already validated label by label as it was read
 
         //0x0001
         byte tempByte = readByte(in, "when reading 0x0001");
@@ -61,6 +66,31 @@ public abstract class ResourceRecord implements Cloneable {
         this.setTTL(ttl);
     }
 
+    /**
+     * Finishes reading the 0x0001 and ttl from the buffer and sets up name and ttl for this RR
+     * @param name name to set
+     * @param in buffer to read from
+     * @throws ValidationException if invalid input
+     * @throws IOException if premature eof
+     */
+    protected ResourceRecord(String name, ByteBuffer in) throws ValidationException, IOException {
+        if(name == null){
+            throw new ValidationException("ERROR: Name null", "null");
+        }
+        this.name = DomainName.ofValidated(name);//already validated label by label as it was read
+
+        //0x0001
+        byte tempByte = readByte(in, "when reading 0x0001");
+        if(tempByte != 0){ throw new ValidationException("ERROR: 0x0001 first byte not set correctly: " + tempByte, null, tempByte + "", false); }
+
+        tempByte = readByte(in, "when reading 0x0001");
+        if(tempByte != 1){ throw new ValidationException("ERROR: 0x0001 second byte not set correctly: " + tempByte, null, tempByte + "", false); }
+
+        //TTL
+        int ttl = readIntBigEndian(in);
+        this.setTTL(ttl);
+    }
+
     /**
      * Sets up this RR with name and ttl
      * @param name name to set
@@ -109,6 +139,55 @@ public abstract class ResourceRecord implements Cloneable {
         return toReturn;
     }
 
+    /**
+     * Deserializes RR from a buffer, starting at its position and leaving the position just past the RR.
+     *   Reads straight out of the buffer (heap or direct) without copying it into a stream first.
+     * @param in deserialization input source
+     * @return a specific RR resulting from deserialization
+     * @throws ValidationException if parse or validation problem
+     * @throws IOException if premature end of buffer
+     * @throws NullPointerException if in is null
+     */
+    public static ResourceRecord decode(ByteBuffer in) throws ValidationException, IOException {
+        return decode(in, null);
+    }
+
+    /**
+     * Deserializes RR from a buffer like decode(ByteBuffer), following compression pointers in its names if there is a
+     *   decompressor (in which case index 0 of the buffer must be the start of the message)
+     * @param in deserialization input source
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @return a specific RR resulting from deserialization
+     * @throws ValidationException if parse or validation problem
+     * @throws IOException if premature end of buffer
+     * @throws NullPointerException if in is null
+     */
+    static ResourceRecord decode(ByteBuffer in, NameDecompressor names) throws ValidationException, IOException {
+        Objects.requireNonNull(in, "Input buffer cannot be null");
+
+        //name
+        String name = readDomainName(in, -1, names);
+
+        //read higher order Type byte
+        int type = readByte(in, "when reading type") << 8;
+        //read lower order Type byte
+        type += readByte(in, "when reading type") & BYTE_BIT_MASK;
+
+        ResourceRecord toReturn;
+        switch(type){
+            case (short) CN_TYPE_VALUE: toReturn = new CName(name, in, names); break;
+            case (short) NS_TYPE_VALUE: toReturn = new NS(name, in, names); break;
+            case (short) A_TYPE_VALUE: toReturn = new A(name, in); break;
+            case (short) AAAA_TYPE_VALUE: toReturn = new AAAA(name, in); break;
+            case (short) MX_TYPE_VALUE: toReturn = new MX(name, in, names); break;
+            case (short) CAA_TYPE_VALUE: toReturn = new CAA(name, in); break;
+            case (short) SOA_TYPE_VALUE: toReturn = new SOA(name, in, names); break;
+            default: toReturn = new Unknown(name, type, in); break;
+        }
+
+        return toReturn;
+    }
+
     /**
      * Serializes RR to given sink
      * @param out serialization sink
@@ -118,6 +197,41 @@ public abstract class ResourceRecord implements Cloneable {
     public void encode(OutputStream out) throws IOException {
         Objects.requireNonNull(out, "Output stream cannot be null");
 
+        ByteBuffer buff = encodeToScratch(this::encodeTo);
+        out.write(buff.array(), 0, buff.position());
+    }
+
+    /**
+     * Serializes RR straight into the given buffer, starting at its position and leaving the position just past the RR.
+     *   The wire form is remembered after the first encode, so later encodes (until a setter changes the RR) are a
+     *   single bulk copy.
+     * @param out serialization sink
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room (the buffer's contents past its original
+     *   position are then undefined)
+     * @throws NullPointerException if out is null
+     */
+    public void encodeTo(ByteBuffer out) { this.encodeTo(out, null); }
+
+    /**
+     * Serializes RR straight into the given buffer, compressing names against the rest of the message being written.
+     *   Only the RDATA names of well known types (NS, CNAME, MX, SOA) are ever compressed (RFC 3597 section 4).
+     * @param out serialization sink
+     * @param names name compressor for the message, or null to write every name in full
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room (the buffer's contents past its original
+     *   position are then undefined)
+     * @throws NullPointerException if out is null
+     */
+    public void encodeTo(ByteBuffer out, NameCompressor names) {
+        Objects.requireNonNull(out, "Output buffer cannot be null");
+
+        //nothing has changed since the last uncompressed encode, so copy those bytes in bulk
+        byte[] encoded = this.encoded;
+        if(names == null && encoded != null){
+            out.put(encoded);
+            return;
+        }
+        final int start = out.position();
+
         /*  "foo." = 3 102, 111, 111, 192, 5 //-64 signed = 192 unsigned
             Valid data:
                 3, 'f', 'o', 'o', -64, 5,
@@ -127,50 +241,83 @@ public abstract class ResourceRecord implements Cloneable {
                 6,
                 3, 'f', 'o', 'o', -64, 5//"foo."
          */
-        //Construct the output
-        List<Byte> a = new ArrayList<>();
-
         //Name
-        try{
-            serializeDomainName(this.getName(), a);
-        } catch(ValidationException e){
-            //Do nothing
-//            throw new ValidationException("WARN WARN WARN: \"NAME\" FIELD DOES NOT CONTAIN A VALID DOMAIN NAME", this.getName());
-        }
+        writeDomainName(this.name, out, names);
 
         //Type -- this is not expandable, and is written acknowledging the "quick and dirty" way was used.
-        Collections.addAll(a, (byte)(this.getTypeValue() >> 8), (byte)this.getTypeValue());
+        putShortBigEndian(out, this.getTypeValue());
 
         //0x0001
-        Collections.addAll(a, (byte)0, (byte)1);
+        putShortBigEndian(out, 1);
 
         //TTL
-        ByteBuffer buff = ByteBuffer.allocate(4);
-        buff.order(ByteOrder.BIG_ENDIAN);
-        buff.putInt(this.getTTL());
-        Collections.addAll(a, buff.get(0), buff.get(1), buff.get(2), buff.get(3));
+        putIntBigEndian(out, this.getTTL());
 
-        //RData and RDLength
-        List<Byte> rdataBytes = this.serializeRData();
-        short rdlen = (short) rdataBytes.size();
+        //RDLength, filled in once the RData has been written
+        int rdlenPos = out.position();
+        putShortBigEndian(out, 0);
 
-        ByteBuffer buff2 = ByteBuffer.allocate(4);
-        buff2.order(ByteOrder.BIG_ENDIAN);
-        buff2.putShort(rdlen);
-
-        //RDLength
-        Collections.addAll(a, buff2.get(0), buff2.get(1));
         //RData
-        a.addAll(rdataBytes);
+        this.writeRData(out, names);
+        int rdlen = out.position() - rdlenPos - 2;
+        out.put(rdlenPos, (byte) (rdlen >> 8));
+        out.put(rdlenPos + 1, (byte) rdlen);
+
+        //compressed names depend on the rest of the message, so only remember uncompressed encodings
+        if(names == null){
+            encoded = new byte[out.position() - start];
+            out.duplicate().position(start).get(encoded);
+            this.encoded = encoded;
+        }
+    }
 
-        //Copy output list to byte array
-        byte[] finalBuff = new byte[a.size()];
-        for(int i=0;i<a.size();i++){
-            finalBuff[i] = a.get(i);
+    /**
+     * Every setter calls this just before changing the RR: snapshots cannot change, and otherwise the remembered wire
+     *   form and hash code are forgotten
+     * @throws UnsupportedOperationException if this RR is a snapshot
+     */
+    protected void beforeChange(){
+        if(this.snapshot){
+            throw new UnsupportedOperationException("ERROR: snapshot RRs cannot be changed");
         }
-        out.write(finalBuff);
+        this.encoded = null;
+        this.hash = 0;
     }
 
+    /**
+     * Returns an immutable snapshot of this RR.  A snapshot's setters throw UnsupportedOperationException and its hash
+     *   code is computed up front, so one snapshot can be put in any number of responses and read by any number of
+     *   threads without being copied (hand it to other threads the usual safe way, e.g. through a concurrent collection
+     *   or an executor).  A snapshot's clone is an ordinary, changeable RR.
+     * @return this RR if it is already a snapshot, otherwise a snapshot copy of it
+     */
+    public ResourceRecord snapshot(){
+        if(this.snapshot){
+            return this;
+        }
+        ResourceRecord copy = (ResourceRecord) this.clone();
+        copy.hashCode();
+        copy.snapshot = true;
+        return copy;
+    }
+
+    /**
+     * Makes this RR a snapshot in place, without copying it.  Only for RRs nothing else can see yet (e.g. one that was
+     *   just decoded), since anyone holding the RR finds it can no longer change.
+     * @return this RR, now a snapshot
+     */
+    ResourceRecord freeze(){
+        this.hashCode();
+        this.snapshot = true;
+        return this;
+    }
+
+    /**
+     * Whether this RR is a snapshot (see snapshot())
+     * @return whether this RR can never change
+     */
+    public boolean isSnapshot(){ return this.snapshot; }
+
     /**
      * Return type value for specific RR
      * @return type value
@@ -181,7 +328,13 @@ public abstract class ResourceRecord implements Cloneable {
      * Get name of RR
      * @return name
      */
-    public String getName() { return this.name; }
+    public String getName() { return this.name.toString(); }
+
+    /**
+     * Get name of RR
+     * @return name
+     */
+    public DomainName getNameAsDomainName() { return this.name; }
 
     /**
      * Get TTL of RR
@@ -202,7 +355,8 @@ public abstract class ResourceRecord implements Cloneable {
 
         //require non null and validate domain name all in one!
         if(validateDomainName(name)){
-            this.name = name;
+            this.beforeChange();
+            this.name = DomainName.ofValidated(name);
         } else {
             throw new ValidationException("Name did not pass domain name checks", name);
         }
@@ -210,6 +364,21 @@ public abstract class ResourceRecord implements Cloneable {
         return this;
     }
 
+    /**
+     * Set name of RR
+     * @param name new name of RR
+     * @return this RR with new name
+     * @throws ValidationException if new name null
+     */
+    public ResourceRecord setName(DomainName name) throws ValidationException {
+        if(name == null){
+            throw new ValidationException("Name cannot be null", "null");
+        }
+        this.beforeChange();
+        this.name = name;
+        return this;
+    }
+
     /**
      * Set TTL of RR
      * @param ttl new TTL
@@ -220,15 +389,34 @@ public abstract class ResourceRecord implements Cloneable {
         if(ttl < 0){
             throw new ValidationException("TTL < 0", ttl + "");
         }
+        this.beforeChange();
         this.ttl = ttl;
         return this;
     }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
-     * @return the serialized version of this objects rdata
+     * Writes the rdata for this object into the buffer.  For internal use only.
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room
+     */
+    protected abstract void writeRData(ByteBuffer out, NameCompressor names);
+
+    /**
+     * Get the number of bytes encodeTo(ByteBuffer) writes for this RR, without encoding it.  Compressing names never
+     *   makes an RR longer, so this is also the most encodeTo(ByteBuffer, NameCompressor) can write.
+     * @return encoded length of this RR
+     */
+    public int encodedLength() {
+        byte[] encoded = this.encoded;
+        return encoded != null ? encoded.length : this.name.getWireLength() + FIXED_BYTES + this.rdataLength();
+    }
+
+    /**
+     * Get the number of bytes writeRData(ByteBuffer, null) writes.  For internal use only.
+     * @return uncompressed length of the rdata
      */
-    protected abstract List<Byte> serializeRData();
+    protected abstract int rdataLength();
 
     /**
      * Checks for equality
@@ -240,20 +428,33 @@ public abstract class ResourceRecord implements Cloneable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ResourceRecord that = (ResourceRecord) o;
-        return ttl == that.ttl && name.equalsIgnoreCase(that.name);
+        return ttl == that.ttl && name.equals(that.name);
     }
 
     /**
-     * Hashes the object
+     * Hashes the object, remembering the hash until the RR next changes
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    public final int hashCode() {
+        int hash = this.hash;
+        if(hash == 0){
+            hash = this.computeHashCode();
+            this.hash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the hash code.  Subtypes add their own fields to this.
+     * @return the hashed value
+     */
+    protected int computeHashCode() {
         final int prime = 9857;
         int result = 1;
         result = prime * result;
         result = prime * result + ttl;
-        result = prime * result + name.toLowerCase().hashCode();
+        result = prime * result + name.hashCode();
         return result;
     }
 
@@ -315,7 +516,9 @@ public abstract class ResourceRecord implements Cloneable {
     @Override
     public Object clone() {
         try {
-            return super.clone();
+            ResourceRecord copy = (ResourceRecord) super.clone();
+            copy.snapshot = false;
+            return copy;
         } catch (CloneNotSupportedException e) {
             return null;
         }
@@ -2,12 +2,10 @@
 //Created: 9/18/20
 package sdns.serialization;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
 
 import static sdns.serialization.IOUtils.*;
 
@@ -26,6 +24,9 @@ public class Response extends Message {
     private final List<ResourceRecord> nameServerList = new ArrayList<>();
     //A list of additional RRs
     private final List<ResourceRecord> additionalList = new ArrayList<>();
+    //The same RRs as each list, so duplicates are found by hash instead of by walking the list
+    private final Set<ResourceRecord> answerSet = new HashSet<>(), nameServerSet = new HashSet<>(),
+                                      additionalSet = new HashSet<>();
     //Message response code
     private RCode responseCode = RCode.NOERROR;
 
@@ -42,12 +43,13 @@ public class Response extends Message {
     }
 
     /**
-     * Finishes parsing a Response Message from the input stream
+     * Finishes parsing a Response Message from the buffer
      * @param id Message ID
-     * @param in Input stream to finish parsing from
+     * @param in buffer to finish parsing from
+     * @param names name decompressor for the message, or null for plain SDNS names
      * @throws ValidationException if validation fails (see specification)
      */
-    protected Response(int id, InputStream in) throws ValidationException {
+    protected Response(int id, ByteBuffer in, NameDecompressor names) throws ValidationException {
         super(id);
 
         try {
@@ -60,7 +62,7 @@ public class Response extends Message {
             //0x0001
             int trash = readUnsignedShortBigEndian(in);
             if (trash != 1) {
-                throw new ValidationException("ERROR: 0x0001 not set correctly: " + trash, trash + "");
+                throw new ValidationException("ERROR: 0x0001 not set correctly: " + trash, null, trash + "", false);
             }
             //ANCOUNT, NSCOUNT, ARCOUNT
             int ancount = readUnsignedShortBigEndian(in),//answer
@@ -68,24 +70,24 @@ public class Response extends Message {
                 arcount = readUnsignedShortBigEndian(in);//additional records
 
             //decode question
-            super.decodeQuestion(in);
+            super.decodeQuestion(in, names);
 
             //Parse Answer field
             for(int i=0;i<ancount;i++){
-                this.addAnswer(ResourceRecord.decode(in));
+                adopt(ResourceRecord.decode(in, names), this.answerList, this.answerSet);
             }
 
             //Parse Authority field
             for(int i=0;i<nscount;i++){
-                this.addNameServer(ResourceRecord.decode(in));
+                adopt(ResourceRecord.decode(in, names), this.nameServerList, this.nameServerSet);
             }
 
             //Parse Additional field
             for(int i=0;i<arcount;i++){
-                this.addAdditional(ResourceRecord.decode(in));
+                adopt(ResourceRecord.decode(in, names), this.additionalList, this.additionalSet);
             }
         } catch (IOException e) {
-            throw new ValidationException("ERROR: stream read error", e.getMessage());
+            throw new ValidationException("ERROR: stream read error", e, e.getMessage(), false);
         }
     }
 
@@ -108,43 +110,132 @@ public class Response extends Message {
      *       16     ANCOUNT (unsigned) query(0, 0), response(*, *)
      *       16     NSCOUNT (unsigned) query(0, 0), response(*, *)
      *       16     ARCOUNT (unsigned) query(0, 0), response(*, *)
-     * @param out the output stream to write to
-     * @throws IOException if error writing to the buffer
+     * @param out the buffer to write to
      */
     @Override
-    protected void writeHeader(ByteArrayOutputStream out) throws IOException {
-        out.write(new byte[]{
-                //Write from QR to Response code
-                //1[000 0]001        0[000] [this.response & 0x0F]
-                (byte) 0x81, (byte) (this.responseCode.getRCodeValue() & 0x0F),
-                //Write 0x0001
-                0, 1
-        });
-
-        //Write ANCount, NSCount, and ARCount DISCOUNTING number of unknowns
-        out.write(writeShortBigEndian((short) this.answerList.stream()
-                                                                .filter(e -> !(e instanceof Unknown))
-                                                                .count()));
-        out.write(writeShortBigEndian((short) this.nameServerList.stream()
-                                                                .filter(e -> !(e instanceof Unknown))
-                                                                .count()));
-        out.write(writeShortBigEndian((short) this.additionalList.stream()
-                                                                .filter(e -> !(e instanceof Unknown))
-                                                                .count()));
+    protected void writeHeader(ByteBuffer out) {
+        //Write from QR to Response code
+        //1[000 0]001        0[000] [this.response & 0x0F]
+        out.put((byte) 0x81).put((byte) (this.responseCode.getRCodeValue() & 0x0F));
+        //Write 0x0001
+        putShortBigEndian(out, 1);
+
+        //Write ANCount, NSCount, and ARCount
+        putShortBigEndian(out, this.answerList.size());
+        putShortBigEndian(out, this.nameServerList.size());
+        putShortBigEndian(out, this.additionalList.size());
     }
 
     /**
-     * Writes the encode Answer, Authority, and Additional sections to the output array
-     * @param out output stream to write to
+     * Writes the encode Answer, Authority, and Additional sections to the output buffer
+     * @param out buffer to write to
      */
-    public void writeData(ByteArrayOutputStream out) {
-        try {
-            encodeRRList(answerList, out);
-            encodeRRList(nameServerList, out);
-            encodeRRList(additionalList, out);
-        } catch(IOException e){
-            throw new RuntimeException("ERROR: internal encoding failure: ", e);
+    public void writeData(ByteBuffer out) { this.writeData(out, null); }
+
+    /**
+     * Writes the encode Answer, Authority, and Additional sections to the output buffer, compressing names against
+     *   everything already written in the message
+     * @param out buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
+     */
+    @Override
+    public void writeData(ByteBuffer out, NameCompressor names) {
+        encodeRRList(answerList, out, names);
+        encodeRRList(nameServerList, out, names);
+        encodeRRList(additionalList, out, names);
+    }
+
+    /**
+     * Writes as much of the Answer, Authority, and Additional sections as fits before the buffer's limit.  Additional
+     *   records are left out first, then authority records (each section whole or not at all), then any answers that
+     *   don't fit, which sets the TrunCation bit.  The header counts are fixed up to match what was written.
+     * @param out buffer to write to, limited to the room the message has
+     * @param names name compressor for the message, or null to write every name in full
+     * @param start where the message starts in the buffer
+     * @return whether the TrunCation bit was set
+     */
+    @Override
+    protected boolean writeDataWithin(ByteBuffer out, NameCompressor names, int start) {
+        int ancount = encodeRRListWithin(answerList, out, names), nscount = 0, arcount = 0;
+        boolean truncated = ancount < answerList.size();
+
+        //a section that doesn't fit whole is left out, along with every section after it
+        if(!truncated){
+            int mark = out.position();
+            nscount = encodeRRListWithin(nameServerList, out, names);
+            if(nscount < nameServerList.size()){
+                nscount = 0;
+                out.position(mark);
+            } else {
+                mark = out.position();
+                arcount = encodeRRListWithin(additionalList, out, names);
+                if(arcount < additionalList.size()){
+                    arcount = 0;
+                    out.position(mark);
+                }
+            }
+        }
+
+        //ANCount, NSCount, and ARCount follow the ID, flags, and 0x0001
+        if(truncated){
+            out.put(start + 2, (byte) (out.get(start + 2) | TC_BIT_MASK));
+        }
+        putShortBigEndian(out, start + 6, ancount);
+        putShortBigEndian(out, start + 8, nscount);
+        putShortBigEndian(out, start + 10, arcount);
+        return truncated;
+    }
+
+    /**
+     * Encodes RRs from the list until one doesn't fit before the buffer's limit
+     * @param rrs RRs to encode
+     * @param out buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
+     * @return number of RRs written
+     */
+    private static int encodeRRListWithin(List<ResourceRecord> rrs, ByteBuffer out, NameCompressor names) {
+        for(int i=0; i<rrs.size(); i++){
+            ResourceRecord rr = rrs.get(i);
+            //the uncompressed length is the most it can take, so only try when compression is the one chance it fits
+            if(rr.encodedLength() <= out.remaining()){
+                rr.encodeTo(out, names);
+                continue;
+            }
+            if(names != null){
+                int mark = out.position();
+                try {
+                    rr.encodeTo(out, names);
+                    continue;
+                } catch (BufferOverflowException e) {
+                    //nothing is written after this, so names remembered from the partial RR are never pointed to
+                    out.position(mark);
+                }
+            }
+            return i;
+        }
+        return rrs.size();
+    }
+
+    /**
+     * Get the number of bytes writeData writes without compression
+     * @return uncompressed length of the Answer, Authority, and Additional sections
+     */
+    @Override
+    protected int dataLength() {
+        return encodedLength(answerList) + encodedLength(nameServerList) + encodedLength(additionalList);
+    }
+
+    /**
+     * Adds up the encoded lengths of the RRs
+     * @param rrs RRs to measure
+     * @return total encoded length
+     */
+    private static int encodedLength(List<ResourceRecord> rrs) {
+        int length = 0;
+        for(var rr : rrs){
+            length += rr.encodedLength();
         }
+        return length;
     }
     /*End Encode functionality*/
 
@@ -159,6 +250,7 @@ public class Response extends Message {
         if(rcode == null) {
             throw new ValidationException("ERROR: RCode null", "null");
         }
+        this.beforeChange();
         this.responseCode = rcode;
         return this;
     }
@@ -170,10 +262,9 @@ public class Response extends Message {
      * @throws ValidationException if answer is invalid (null)
      */
     public Response addAnswer(ResourceRecord answer) throws ValidationException {
+        this.beforeChange();
         if(answer == null){ throw new ValidationException("ERROR: addAnswer parameter cannot be null", "null"); }
-        if(!this.answerList.contains(answer)) {
-            this.answerList.add((ResourceRecord) answer.clone());
-        }
+        add(answer, this.answerList, this.answerSet);
         return this;
     }
 
@@ -184,10 +275,9 @@ public class Response extends Message {
      * @throws ValidationException if nameServer is invalid (null)
      */
     public Response addNameServer(ResourceRecord nameServer) throws ValidationException {
+        this.beforeChange();
         if(nameServer == null){ throw new ValidationException("ERROR: addNameServer parameter cannot be null", "null"); }
-        if(!this.nameServerList.contains(nameServer)) {
-            this.nameServerList.add((ResourceRecord) nameServer.clone());
-        }
+        add(nameServer, this.nameServerList, this.nameServerSet);
         return this;
     }
 
@@ -198,13 +288,65 @@ public class Response extends Message {
      * @throws ValidationException if additional is invalid (null)
      */
     public Response addAdditional(ResourceRecord additional) throws ValidationException {
+        this.beforeChange();
         if(additional == null){ throw new ValidationException("ERROR: addAdditional parameter cannot be null", "null"); }
-        if(!this.additionalList.contains(additional)) {
-            this.additionalList.add((ResourceRecord) additional.clone());
-        }
+        add(additional, this.additionalList, this.additionalSet);
         return this;
     }
 
+    /**
+     * Adds a snapshot of the RR to the section unless the section already has it (the caller may still change the RR
+     *   it passed in, so unless it is already a snapshot it is copied)
+     * @param rr RR to add
+     * @param list the section's RRs
+     * @param set the same RRs, for finding duplicates
+     */
+    private static void add(ResourceRecord rr, List<ResourceRecord> list, Set<ResourceRecord> set){
+        //snapshots are shared rather than copied, and their hash codes are already computed
+        ResourceRecord snapshot = rr.snapshot();
+        if(set.add(snapshot)){
+            list.add(snapshot);
+        }
+    }
+
+    /**
+     * Adds an RR this response just decoded to the section unless the section already has it.  Nothing else can see
+     *   the RR, so it becomes a snapshot in place instead of being copied like an added RR.
+     * @param rr RR to add
+     * @param list the section's RRs
+     * @param set the same RRs, for finding duplicates
+     */
+    private static void adopt(ResourceRecord rr, List<ResourceRecord> list, Set<ResourceRecord> set){
+        if(set.add(rr.freeze())){
+            list.add(rr);
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of this response.  Its RRs are snapshots (see ResourceRecord.snapshot()) and all of
+     *   its setters throw UnsupportedOperationException, so it can be cached and read by any number of threads at once.
+     *   Nothing is copied but the lists of references to the RRs, which are already snapshots.
+     * @return this response if it is already a snapshot, otherwise a snapshot copy of it
+     */
+    public Response snapshot(){
+        if(this.isSnapshot()){
+            return this;
+        }
+        try {
+            Response copy = new Response(this.getID(), this.getQuery(), this.responseCode);
+            copy.answerList.addAll(this.answerList);
+            copy.answerSet.addAll(this.answerSet);
+            copy.nameServerList.addAll(this.nameServerList);
+            copy.nameServerSet.addAll(this.nameServerSet);
+            copy.additionalList.addAll(this.additionalList);
+            copy.additionalSet.addAll(this.additionalSet);
+            copy.markSnapshot();
+            return copy;
+        } catch (ValidationException e) {//can't happen, this response's fields are already valid
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Get response code
      * @return response code
@@ -213,21 +355,24 @@ public class Response extends Message {
 
     /**
      * Get a list of RR answers
-     * @return list of RRs
+     * @return read only list of RRs (snapshots, see ResourceRecord.snapshot()); add RRs with addAnswer(ResourceRecord),
+     *   which keeps out duplicates
      */
-    public List<ResourceRecord> getAnswerList() { return this.answerList; }
+    public List<ResourceRecord> getAnswerList() { return Collections.unmodifiableList(this.answerList); }
 
     /**
      * Get list of RR name servers
-     * @return list of RRs
+     * @return read only list of RRs (snapshots, see ResourceRecord.snapshot()); add RRs with addNameServer(ResourceRecord),
+     *   which keeps out duplicates
      */
-    public List<ResourceRecord> getNameServerList() { return this.nameServerList; }
+    public List<ResourceRecord> getNameServerList() { return Collections.unmodifiableList(this.nameServerList); }
 
     /**
      * Get list of RR additionals
-     * @return list of RRs
+     * @return read only list of RRs (snapshots, see ResourceRecord.snapshot()); add RRs with addAdditional(ResourceRecord),
+     *   which keeps out duplicates
      */
-    public List<ResourceRecord> getAdditionalList() { return this.additionalList; }
+    public List<ResourceRecord> getAdditionalList() { return Collections.unmodifiableList(this.additionalList); }
 
     /**
      * Returns a String representation
@@ -0,0 +1,270 @@
+//Contains the ResponseView class (see comments below)
+//Created: 10/17/26
+package sdns.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static sdns.serialization.IOUtils.*;
+import static sdns.serialization.ValidationUtils.QR_BIT_SET;
+
+/**
+ * Read-only view of an encoded SDNS response.  Wrapping a response checks its header and question and finds where every
+ *   RR starts in one pass, but builds nothing: the query and each RR are only deserialized when asked for.  The wire
+ *   bytes stay available (getBytes()), so a response that is only passed along never has to be deserialized at all.
+ * Note: RRs are deserialized from the backing bytes each time they are asked for, so don't change those bytes while the
+ *   view is in use.  A view that follows compression pointers is not thread safe.
+ * @author Ethan Dickey
+ * @version 1.0
+ */
+public class ResponseView {
+    //Number of bytes in the header
+    private static final int HEADER_BYTES = 12;
+    //Fewest bytes an RR can take: a one-byte name, then type, 0x0001, TTL, and RDLength
+    private static final int MIN_RR_BYTES = 11;
+    //Message bytes; index 0 is the first byte of the message
+    private final ByteBuffer message;
+    //Name decompressor for this message, or null for plain SDNS names
+    private final NameDecompressor names;
+    //Header fields
+    private final int id;
+    private final RCode responseCode;
+    //Number of RRs in each section
+    private final int answerCount, nameServerCount, additionalCount;
+    //Offset of each RR in the message (answers, then name servers, then additionals)
+    private final int[] rrOffsets;
+
+    /**
+     * Indexes the given response
+     * @param message response bytes, index 0 being the first byte
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @throws ValidationException if the header, question, or RR layout is invalid (including too few or many bytes)
+     */
+    private ResponseView(ByteBuffer message, NameDecompressor names) throws ValidationException {
+        this.message = message;
+        this.names = names;
+
+        try {
+            this.id = readUnsignedShortBigEndian(message);
+            byte temp = readByte(message, "when reading the header");
+            //verify Opcode = 0, ignore AA and TC and RD
+            if((temp & 0x78) != 0){
+                throw new ValidationException("ERROR: Opcode is not 0: " + (temp & 0x78), null, (temp & 0x78) + "", false);
+            }
+            if((temp & QR_BIT_MASK) != QR_BIT_SET){
+                throw new ValidationException("ERROR: Message is not a response", null, temp + "", false);
+            }
+            //RA, ignore; Z, ignore (top 4 bytes); rcode
+            this.responseCode = RCode.getRCode(readByte(message, "when reading the header") & 0x0F);
+
+            //0x0001
+            int trash = readUnsignedShortBigEndian(message);
+            if(trash != 1){
+                throw new ValidationException("ERROR: 0x0001 not set correctly: " + trash, null, trash + "", false);
+            }
+            this.answerCount = readUnsignedShortBigEndian(message);
+            this.nameServerCount = readUnsignedShortBigEndian(message);
+            this.additionalCount = readUnsignedShortBigEndian(message);
+
+            //question
+            skipDomainName(message);
+            int temp1 = readUnsignedShortBigEndian(message), temp2 = readUnsignedShortBigEndian(message);
+            if(temp1 != 0x00FF){
+                throw new ValidationException("ERROR: invalid 0x00FF", null, temp1 + "", false);
+            }
+            if(temp2 != 0x0001){
+                throw new ValidationException("ERROR: invalid 0x0001", null, temp2 + "", false);
+            }
+
+            //find every RR (checking the counts could fit first, so a short message can't make a huge offsets array)
+            int rrCount = this.answerCount + this.nameServerCount + this.additionalCount;
+            if(rrCount > message.remaining() / MIN_RR_BYTES){
+                throw new ValidationException("ERROR: not enough bytes for " + rrCount + " RRs: " + message.remaining(), null,
+                        message.limit() + "", false);
+            }
+            this.rrOffsets = new int[rrCount];
+            for(int i=0; i<this.rrOffsets.length; i++){
+                this.rrOffsets[i] = message.position();
+                skipDomainName(message);
+                //type
+                readUnsignedShortBigEndian(message);
+                trash = readUnsignedShortBigEndian(message);
+                if(trash != 1){
+                    throw new ValidationException("ERROR: 0x0001 not set correctly: " + trash, null, trash + "", false);
+                }
+                //TTL
+                readIntBigEndian(message);
+                int rdlen = readUnsignedShortBigEndian(message);
+                skipBytes(message, rdlen);
+            }
+        } catch (IOException e) {
+            throw new ValidationException("Message invalid length", e, message.limit() + "", false);
+        }
+
+        //verify the bytes have been used up
+        if(message.hasRemaining()){
+            throw new ValidationException("ERROR: too many bytes in Response Message decoding", null, "Too many bytes", false);
+        }
+    }
+
+    /**
+     * Wraps the response between the buffer's position and limit.  Names are read like Message.decode(ByteBuffer).
+     *   The buffer's position is left unchanged.
+     * @param message response bytes
+     * @return a view of the response
+     * @throws ValidationException if the header, question, or RR layout is invalid (including too few or many bytes)
+     * @throws NullPointerException if message is null
+     */
+    public static ResponseView wrap(ByteBuffer message) throws ValidationException, NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        return new ResponseView(message.slice(), null);
+    }
+
+    /**
+     * Wraps the response between the buffer's position and limit, following compression pointers in names like
+     *   Message.decodeCompressed(ByteBuffer).  The buffer's position is left unchanged.
+     * @param message response bytes
+     * @return a view of the response
+     * @throws ValidationException if the header, question, or RR layout is invalid (including too few or many bytes)
+     * @throws NullPointerException if message is null
+     */
+    public static ResponseView wrapCompressed(ByteBuffer message) throws ValidationException, NullPointerException {
+        Objects.requireNonNull(message, "Message cannot be null");
+        return new ResponseView(message.slice(), new NameDecompressor());
+    }
+
+    /**
+     * Get message ID
+     * @return message ID
+     */
+    public int getID() { return this.id; }
+
+    /**
+     * Get response code
+     * @return response code
+     */
+    public RCode getRCode() { return this.responseCode; }
+
+    /**
+     * Get query, deserializing it from the backing bytes
+     * @return query
+     * @throws ValidationException if the query is not a valid domain name
+     */
+    public String getQuery() throws ValidationException {
+        try {
+            String query = readDomainName(this.message.duplicate().position(HEADER_BYTES), -1, this.names);
+            if(!ValidationUtils.validateDomainName(query)){
+                throw new ValidationException("Query did not pass domain name checks", null, query, false);
+            }
+            return query;
+        } catch (IOException e) {//can't happen, the question was checked when wrapped
+            throw new ValidationException("ERROR: Input not long enough", e, e.getMessage(), false);
+        }
+    }
+
+    /**
+     * Get number of answer RRs
+     * @return number of answers
+     */
+    public int getAnswerCount() { return this.answerCount; }
+
+    /**
+     * Get number of name server RRs
+     * @return number of name servers
+     */
+    public int getNameServerCount() { return this.nameServerCount; }
+
+    /**
+     * Get number of additional RRs
+     * @return number of additionals
+     */
+    public int getAdditionalCount() { return this.additionalCount; }
+
+    /**
+     * Deserializes an answer RR
+     * @param i index of the answer
+     * @return the answer
+     * @throws ValidationException if the RR is invalid
+     * @throws IndexOutOfBoundsException if there is no such answer
+     */
+    public ResourceRecord getAnswer(int i) throws ValidationException {
+        return this.getRR(i, 0, this.answerCount);
+    }
+
+    /**
+     * Deserializes a name server RR
+     * @param i index of the name server
+     * @return the name server
+     * @throws ValidationException if the RR is invalid
+     * @throws IndexOutOfBoundsException if there is no such name server
+     */
+    public ResourceRecord getNameServer(int i) throws ValidationException {
+        return this.getRR(i, this.answerCount, this.nameServerCount);
+    }
+
+    /**
+     * Deserializes an additional RR
+     * @param i index of the additional
+     * @return the additional
+     * @throws ValidationException if the RR is invalid
+     * @throws IndexOutOfBoundsException if there is no such additional
+     */
+    public ResourceRecord getAdditional(int i) throws ValidationException {
+        return this.getRR(i, this.answerCount + this.nameServerCount, this.additionalCount);
+    }
+
+    /**
+     * Deserializes the RR at index i of the section starting at the given RR
+     * @param i index in the section
+     * @param sectionStart index of the section's first RR
+     * @param sectionCount number of RRs in the section
+     * @return the RR
+     * @throws ValidationException if the RR is invalid
+     * @throws IndexOutOfBoundsException if there is no such RR
+     */
+    private ResourceRecord getRR(int i, int sectionStart, int sectionCount) throws ValidationException {
+        Objects.checkIndex(i, sectionCount);
+        try {
+            return ResourceRecord.decode(this.message.duplicate().position(this.rrOffsets[sectionStart + i]), this.names);
+        } catch (IOException e) {
+            throw new ValidationException("ERROR: stream read error", e, e.getMessage(), false);
+        }
+    }
+
+    /**
+     * Deserializes the whole response
+     * @return the response
+     * @throws ValidationException if the query or any RR is invalid
+     */
+    public Response toResponse() throws ValidationException {
+        Response response = new Response(this.id, this.getQuery(), this.responseCode);
+        for(int i=0; i<this.answerCount; i++){
+            response.addAnswer(this.getAnswer(i));
+        }
+        for(int i=0; i<this.nameServerCount; i++){
+            response.addNameServer(this.getNameServer(i));
+        }
+        for(int i=0; i<this.additionalCount; i++){
+            response.addAdditional(this.getAdditional(i));
+        }
+        return response;
+    }
+
+    /**
+     * Get the response's wire bytes, to send on as they are
+     * @return read-only buffer of the whole response (position 0, limit its length)
+     */
+    public ByteBuffer getBytes() { return this.message.asReadOnlyBuffer().clear(); }
+
+    /**
+     * Returns a String representation
+     * Response: id=<id> answers=<answer count> nameservers=<name server count> additionals=<additional count>
+     * @return a String representation
+     */
+    @Override
+    public String toString() {
+        return "Response: id=" + this.id + " answers=" + this.answerCount + " nameservers=" + this.nameServerCount +
+                " additionals=" + this.additionalCount;
+    }
+}
@@ -4,8 +4,7 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import static sdns.serialization.IOUtils.*;
@@ -18,8 +17,11 @@ import static sdns.serialization.ValidationUtils.validateDomainName;
  * @version 1.0
  */
 public class SOA extends ResourceRecord {
-    private String mName, rName;
-    private long serial, refresh, retry, expire, minimum;
+    private DomainName mName, rName;
+    //Unsigned 32 bit fields, kept as ints (see the getters)
+    private int serial, refresh, retry, expire, minimum;
+    //Bytes taken by the five 32 bit fields
+    private static final int FIXED_RDATA_BYTES = 20;
 
     /**
      * Constructs SOA using given values
@@ -63,9 +65,10 @@ public class SOA extends ResourceRecord {
         //RData
         int totRDLen = 0;
         List<String> rdata;
-        this.setMName((rdata = readDomainNameWithLength(in)).get(0));
+        //already validated label by label as it was read
+        this.mName = DomainName.ofValidated((rdata = readDomainNameWithLength(in)).get(0));
         totRDLen += Integer.parseInt(rdata.get(1));
-        this.setRName((rdata = readDomainNameWithLength(in)).get(0));
+        this.rName = DomainName.ofValidated((rdata = readDomainNameWithLength(in)).get(0));
         totRDLen += Integer.parseInt(rdata.get(1));
 
         if(totRDLen + 20 != rdlen){
@@ -79,47 +82,91 @@ public class SOA extends ResourceRecord {
         this.setMinimum(readUnsignedIntBigEndian(in));
     }
 
+    /**
+     * Finishes parsing a SOA ResourceRecord from the buffer
+     * @param name the name of the RR
+     * @param in the buffer to finish parsing from
+     * @param names name decompressor for the message, or null for plain SDNS names
+     * @throws ValidationException if invalid data
+     * @throws IOException if premature end of buffer
+     */
+    protected SOA(String name, ByteBuffer in, NameDecompressor names) throws ValidationException, IOException {
+        super(name, in);
+
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+
+        //RData
+        int rdataStart = in.position();
+        //already validated label by label as it was read
+        this.mName = DomainName.ofValidated(readDomainName(in, -1, names));
+        this.rName = DomainName.ofValidated(readDomainName(in, -1, names));
+        int totRDLen = in.position() - rdataStart;
+
+        if(totRDLen + 20 != rdlen){
+            throw new ValidationException("RDLen (" + rdlen + ") != rdata length (" + totRDLen + ")", null, rdlen + "", false);
+        }
+
+        this.setSerial(readUnsignedIntBigEndian(in));
+        this.setRefresh(readUnsignedIntBigEndian(in));
+        this.setRetry(readUnsignedIntBigEndian(in));
+        this.setExpire(readUnsignedIntBigEndian(in));
+        this.setMinimum(readUnsignedIntBigEndian(in));
+    }
+
     /**
      * Get mName
      * @return mName domain name
      */
-    public String getMName(){ return this.mName; }
+    public String getMName(){ return this.mName.toString(); }
+
+    /**
+     * Get mName
+     * @return mName domain name
+     */
+    public DomainName getMNameAsDomainName() { return this.mName; }
+
+    /**
+     * Get rName
+     * @return rName domain name
+     */
+    public String getRName() { return this.rName.toString(); }
 
     /**
      * Get rName
      * @return rName domain name
      */
-    public String getRName() { return this.rName; }
+    public DomainName getRNameAsDomainName() { return this.rName; }
 
     /**
      * Get serial
      * @return serial value
      */
-    public long getSerial() { return this.serial; }
+    public long getSerial() { return Integer.toUnsignedLong(this.serial); }
 
     /**
      * Get refresh
      * @return refresh value
      */
-    public long getRefresh() { return this.refresh; }
+    public long getRefresh() { return Integer.toUnsignedLong(this.refresh); }
 
     /**
      * Get retry
      * @return retry value
      */
-    public long getRetry() { return this.retry; }
+    public long getRetry() { return Integer.toUnsignedLong(this.retry); }
 
     /**
      * Get expire
      * @return expire value
      */
-    public long getExpire() { return this.expire; }
+    public long getExpire() { return Integer.toUnsignedLong(this.expire); }
 
     /**
      * Get minimum
      * @return minimum value
      */
-    public long getMinimum() { return this.minimum; }
+    public long getMinimum() { return Integer.toUnsignedLong(this.minimum); }
 
     /**
      * Set mName domain name
@@ -134,7 +181,8 @@ public class SOA extends ResourceRecord {
 
         //validate domain name
         if(validateDomainName(mName)){
-            this.mName = mName;
+            this.beforeChange();
+            this.mName = DomainName.ofValidated(mName);
         } else {
             throw new ValidationException("MName did not pass domain name checks: " + mName, mName);
         }
@@ -142,6 +190,21 @@ public class SOA extends ResourceRecord {
         return this;
     }
 
+    /**
+     * Set mName domain name
+     * @param mName new mName domain name
+     * @return this RR with new mname
+     * @throws ValidationException if mName null
+     */
+    public SOA setMName(DomainName mName) throws ValidationException {
+        if(mName == null){
+            throw new ValidationException("MName cannot be null", "null");
+        }
+        this.beforeChange();
+        this.mName = mName;
+        return this;
+    }
+
     /**
      * Set rName domain name
      * @param rName new rName domain name
@@ -155,7 +218,8 @@ public class SOA extends ResourceRecord {
 
         //validate domain name
         if(validateDomainName(rName)){
-            this.rName = rName;
+            this.beforeChange();
+            this.rName = DomainName.ofValidated(rName);
         } else {
             throw new ValidationException("RName did not pass domain name checks: " + rName, rName);
         }
@@ -163,6 +227,21 @@ public class SOA extends ResourceRecord {
         return this;
     }
 
+    /**
+     * Set rName domain name
+     * @param rName new rName domain name
+     * @return this RR with new rName
+     * @throws ValidationException if rName null
+     */
+    public SOA setRName(DomainName rName) throws ValidationException {
+        if(rName == null){
+            throw new ValidationException("RName cannot be null", "null");
+        }
+        this.beforeChange();
+        this.rName = rName;
+        return this;
+    }
+
     /**
      * Set serial
      * @param serial new serial
@@ -173,7 +252,8 @@ public class SOA extends ResourceRecord {
         if(serial < 0 || serial > ValidationUtils.MAX_UNSIGNED_INT){
             throw new ValidationException("Serial number out of range.", serial + "");
         }
-        this.serial = serial;
+        this.beforeChange();
+        this.serial = (int) serial;
         return this;
     }
 
@@ -187,7 +267,8 @@ public class SOA extends ResourceRecord {
         if(refresh < 0 || refresh > ValidationUtils.MAX_UNSIGNED_INT){
             throw new ValidationException("Refresh number out of range.", refresh + "");
         }
-        this.refresh = refresh;
+        this.beforeChange();
+        this.refresh = (int) refresh;
         return this;
     }
 
@@ -201,7 +282,8 @@ public class SOA extends ResourceRecord {
         if(retry < 0 || retry > ValidationUtils.MAX_UNSIGNED_INT){
             throw new ValidationException("Retry number out of range.", retry + "");
         }
-        this.retry = retry;
+        this.beforeChange();
+        this.retry = (int) retry;
         return this;
     }
 
@@ -215,7 +297,8 @@ public class SOA extends ResourceRecord {
         if(expire < 0 || expire > ValidationUtils.MAX_UNSIGNED_INT){
             throw new ValidationException("Expire number out of range.", expire + "");
         }
-        this.expire = expire;
+        this.beforeChange();
+        this.expire = (int) expire;
         return this;
     }
 
@@ -229,7 +312,8 @@ public class SOA extends ResourceRecord {
         if(minimum < 0 || minimum > ValidationUtils.MAX_UNSIGNED_INT){
             throw new ValidationException("Minimum number out of range.", minimum + "");
         }
-        this.minimum = minimum;
+        this.beforeChange();
+        this.minimum = (int) minimum;
         return this;
     }
 
@@ -246,8 +330,8 @@ public class SOA extends ResourceRecord {
      */
     @Override
     public String toString(){ return "SOA: name=" + this.getName() + " ttl=" + this.getTTL() + " mname=" + this.mName
-        + " rname=" + this.rName + " serial=" + this.serial + " refresh=" + this.refresh + " retry=" + this.retry
-            + " expire=" + this.expire  + " minimum=" + this.minimum; }
+        + " rname=" + this.rName + " serial=" + this.getSerial() + " refresh=" + this.getRefresh() + " retry=" +
+            this.getRetry() + " expire=" + this.getExpire() + " minimum=" + this.getMinimum(); }
 
     /**
      * Return type value for specific RR
@@ -257,32 +341,32 @@ public class SOA extends ResourceRecord {
     public int getTypeValue() { return SOA_TYPE_VALUE; }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
+     * Writes the rdata for this object into the buffer.  For internal use only.
      *
-     * @return the serialized version of this objects rdata
+     * @param out the buffer to write to
+     * @param names name compressor for the message, or null to write every name in full
      */
     @Override
-    protected List<Byte> serializeRData() {
-        List<Byte> rdataBytes = new ArrayList<>();
-
+    protected void writeRData(ByteBuffer out, NameCompressor names) {
         //add all the domain names
-        try {
-            serializeDomainName(this.mName, rdataBytes);
-            serializeDomainName(this.rName, rdataBytes);
-        } catch (ValidationException e) {
-            //ack!
-        }
+        writeDomainName(this.mName, out, names);
+        writeDomainName(this.rName, out, names);
 
         //add all the longs
-        rdataBytes.addAll(Arrays.asList(toObject(writeIntBigEndian((int) this.serial))));
-        rdataBytes.addAll(Arrays.asList(toObject(writeIntBigEndian((int) this.refresh))));
-        rdataBytes.addAll(Arrays.asList(toObject(writeIntBigEndian((int) this.retry))));
-        rdataBytes.addAll(Arrays.asList(toObject(writeIntBigEndian((int) this.expire))));
-        rdataBytes.addAll(Arrays.asList(toObject(writeIntBigEndian((int) this.minimum))));
-
-        return rdataBytes;
+        putIntBigEndian(out, this.serial);
+        putIntBigEndian(out, this.refresh);
+        putIntBigEndian(out, this.retry);
+        putIntBigEndian(out, this.expire);
+        putIntBigEndian(out, this.minimum);
     }
 
+    /**
+     * Get the number of bytes writeRData writes without compression.  For internal use only.
+     * @return uncompressed length of the rdata
+     */
+    @Override
+    protected int rdataLength() { return this.mName.getWireLength() + this.rName.getWireLength() + FIXED_RDATA_BYTES; }
+
     /**
      * Checks for equality
      * @param o the object to compare to
@@ -294,7 +378,7 @@ public class SOA extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         SOA that = (SOA) o;
-        return mName.equalsIgnoreCase(that.mName) && rName.equalsIgnoreCase(that.rName)
+        return mName.equals(that.mName) && rName.equals(that.rName)
                 && serial == that.serial && refresh == that.refresh && retry == that.retry
                 && expire == that.expire && minimum == that.minimum;
     }
@@ -304,17 +388,17 @@ public class SOA extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 1229;
         int result = 1;
-        result = prime * result + super.hashCode();
-        result = prime * result + ((mName == null) ? 0 : mName.toLowerCase().hashCode());
-        result = prime * result + ((rName == null) ? 0 : rName.toLowerCase().hashCode());
-        result = (int) (prime * result + serial);
-        result = (int) (prime * result + refresh);
-        result = (int) (prime * result + retry);
-        result = (int) (prime * result + expire);
-        result = (int) (prime * result + minimum);
+        result = prime * result + super.computeHashCode();
+        result = prime * result + ((mName == null) ? 0 : mName.hashCode());
+        result = prime * result + ((rName == null) ? 0 : rName.hashCode());
+        result = (int) (prime * result + this.getSerial());
+        result = (int) (prime * result + this.getRefresh());
+        result = (int) (prime * result + this.getRetry());
+        result = (int) (prime * result + this.getExpire());
+        result = (int) (prime * result + this.getMinimum());
         return result;
     }
 }
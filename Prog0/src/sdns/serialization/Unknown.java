@@ -4,20 +4,27 @@ package sdns.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.List;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
+import static sdns.serialization.IOUtils.prematureEOF;
 import static sdns.serialization.IOUtils.readUnsignedShortBigEndian;
 import static sdns.serialization.IOUtils.readXBytes;
 
 /**
- * Represents an unknown type and provide deserialization
+ * Represents an unknown type and provide deserialization.  The rdata is kept as is and written back out verbatim, so
+ *   RRs of types SDNS doesn't know (TXT, SRV, ...) pass through a decode and encode untouched.
+ * When decoded from a ByteBuffer, the rdata is a read-only view of that buffer's bytes rather than a copy, so don't
+ *   reuse those bytes while the RR is still in use.  The rdata is never looked into, so any compression pointers in it
+ *   (only older types like PTR may have them) are written back out as is.
  *   Credit: Dr. Donahoo of Baylor University for comments and API
  * @version 1.1
  */
 public class Unknown extends ResourceRecord {
     //RR type
     private int type;
+    //Read-only rdata, from 0 to its limit (never moved, so it can be shared between threads)
+    private ByteBuffer rdata;
 
     /**
      * Finishes parsing an Unknown ResourceRecord from the input stream (including clearing the input stream
@@ -33,7 +40,27 @@ public class Unknown extends ResourceRecord {
         this.type = type;
         //RDLength
         int rdlen = readUnsignedShortBigEndian(in);
-        readXBytes(in, rdlen);
+        this.rdata = ByteBuffer.wrap(readXBytes(in, rdlen)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Finishes parsing an Unknown ResourceRecord from the buffer
+     * @param name the name of the RR
+     * @param type the type of the RR
+     * @param in the buffer to finish parsing from
+     * @throws ValidationException if invalid data
+     * @throws IOException if premature end of buffer
+     */
+    protected Unknown(String name, int type, ByteBuffer in) throws ValidationException, IOException {
+        super(name, in);
+        this.type = type;
+        //RDLength
+        int rdlen = readUnsignedShortBigEndian(in);
+        if(in.remaining() < rdlen){
+            throw prematureEOF("ERROR: Premature end of input buffer, expected: " + rdlen + " got: " + in.remaining());
+        }
+        this.rdata = in.duplicate().limit(in.position() + rdlen).slice().asReadOnlyBuffer();
+        in.position(in.position() + rdlen);
     }
 
     /**
@@ -44,18 +71,32 @@ public class Unknown extends ResourceRecord {
     private Unknown() throws ValidationException { super(".", 1); throw new UnsupportedOperationException("DO NOT CONSTRUCT THIS WAY"); }
 
     /**
-     * Always throws UnsupportedOperationException
-     * @param out serialization sink
+     * Writes the rdata for this object into the buffer, exactly as it was decoded.  For internal use only.
+     * @param out the buffer to write to
+     * @param names name compressor (unused)
+     * @throws BufferOverflowException if the buffer runs out of room
      */
     @Override
-    public void encode(OutputStream out) throws UnsupportedOperationException { throw new UnsupportedOperationException("Cannot encode Unknown type"); }
+    protected void writeRData(ByteBuffer out, NameCompressor names) {
+        if(out.remaining() < this.rdata.limit()){
+            throw new BufferOverflowException();
+        }
+        //put from a duplicate, so the shared rdata's position is never touched
+        out.put(this.rdata.duplicate());
+    }
 
     /**
-     * Returns a byte array of the rdata for this object.  For internal use only.
-     * @return the serialized version of this objects rdata
+     * Get the number of bytes writeRData writes.  For internal use only.
+     * @return length of the rdata
      */
     @Override
-    protected List<Byte> serializeRData() throws UnsupportedOperationException { throw new UnsupportedOperationException("Cannot encode Unknown type"); }
+    protected int rdataLength() { return this.rdata.limit(); }
+
+    /**
+     * Get the rdata, exactly as it was decoded
+     * @return a read-only view of the rdata (from its position to its limit)
+     */
+    public ByteBuffer getRData() { return this.rdata.duplicate(); }
 
     /**
      * Return type value for specific RR
@@ -85,7 +126,7 @@ public class Unknown extends ResourceRecord {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         Unknown that = (Unknown) o;
-        return this.getTypeValue() == that.getTypeValue();
+        return this.getTypeValue() == that.getTypeValue() && this.rdata.equals(that.rdata);
     }
 
     /**
@@ -93,11 +134,12 @@ public class Unknown extends ResourceRecord {
      * @return the hashed value
      */
     @Override
-    public int hashCode() {
+    protected int computeHashCode() {
         final int prime = 1087;
         int result = 1;
-        result = prime * result + super.hashCode();
+        result = prime * result + super.computeHashCode();
         result = prime * result + this.type;
+        result = prime * result + this.rdata.hashCode();
         return result;
     }
 }
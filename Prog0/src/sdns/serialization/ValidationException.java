@@ -33,6 +33,19 @@ public class ValidationException extends Exception implements Serializable {
         this.badToken = badToken;
     }
 
+    /**
+     * Constructs validation exception, optionally without a stack trace.  Filling in the stack trace is most of the
+     *   cost of an exception, so leave it out where exceptions are expected often (e.g. rejecting malformed packets).
+     * @param message exception message
+     * @param cause exception cause
+     * @param badToken string causing exception (null if no such string)
+     * @param writableStackTrace whether or not to fill in the stack trace
+     */
+    public ValidationException(String message, Throwable cause, String badToken, boolean writableStackTrace){
+        super(message, cause, true, writableStackTrace);
+        this.badToken = badToken;
+    }
+
     /**
      * Returns bad token
      * @return bad token
@@ -2,6 +2,7 @@
 //Created: 9/18/20
 package sdns.serialization;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -25,39 +26,83 @@ public class ValidationUtils {
     private static final byte ASCII_VISIBLE_MIN = 0x21;
     private static final byte ASCII_VISIBLE_MAX = 0x7E;
 
+    //Character classes for domain name labels, looked up by character (anything past 0xFF is in no class)
+    //  Each label must start with a letter, end with a letter or digit, and have as interior characters only letters
+    //    (A-Z and a-z), digits (0-9), hyphen (-), and underscore (_)
+    private static final byte LABEL_START = 1, LABEL_END = 2, LABEL_INTERIOR = 4;
+    private static final byte[] LABEL_CHAR_CLASS = new byte[256];
+    static {
+        for(char c = 'A'; c <= 'Z'; c++){
+            LABEL_CHAR_CLASS[c] = LABEL_CHAR_CLASS[c + ('a' - 'A')] = LABEL_START | LABEL_END | LABEL_INTERIOR;
+        }
+        for(char c = '0'; c <= '9'; c++){
+            LABEL_CHAR_CLASS[c] = LABEL_END | LABEL_INTERIOR;
+        }
+        LABEL_CHAR_CLASS['-'] = LABEL_CHAR_CLASS['_'] = LABEL_INTERIOR;
+    }
+
     /**
-     * Checks if character is in the set of characters [a-zA-Z]
-     * @param c char to check
-     * @return if character is in [a-zA-Z]
+     * Looks up the label character classes of a character
+     * @param c char to look up
+     * @return the character's classes (LABEL_START, LABEL_END, and/or LABEL_INTERIOR), 0 if none
      */
-    static boolean isAZaz(char c){
-        //I use the -1/+1 syntax because <= makes the assembly check 2 conditions whereas incrementing/decrementing allows
-        //  for a faster check (because the +-1 is calculated at compile time)
-        return ('A'-1 < c && c < 'Z'+1) || ('a'-1 < c && c < 'z'+1);
-    }
+    private static int labelCharClass(char c){ return c < LABEL_CHAR_CLASS.length ? LABEL_CHAR_CLASS[c] : 0; }
 
     /**
-     * Checks if character is in the set of characters [a-zA-Z0-9]
-     * @param c char to check
-     * @return if character is in [a-zA-Z0-9]
+     * Validates one label (without its dot), checking each character once against the character class table
+     * @param s characters holding the label
+     * @param start index of the first character of the label
+     * @param end index just past the last character of the label
+     * @return whether or not the label is valid based on the Specifications
      */
-    static boolean isAZaz09(char c){
-        //I use the -1/+1 syntax because <= makes the assembly check 2 conditions whereas incrementing/decrementing allows
-        //  for a faster check (because the +-1 is calculated at compile time)
-        return ('0'-1 < c && c < '9'+1) || ('A'-1 < c && c < 'Z'+1) || ('a'-1 < c && c < 'z'+1);
+    static boolean validateLabel(CharSequence s, int start, int end){
+        //A label may not be empty or longer than 63 characters
+        if(end - start < 1 || end - start > DOMAIN_NAME_LABEL_MAX_LEN){
+            return false;
+        }
+        if((labelCharClass(s.charAt(start)) & LABEL_START) == 0 || (labelCharClass(s.charAt(end-1)) & LABEL_END) == 0){
+            return false;
+        }
+        for(int i=start+1; i<end-1; i++){
+            if((labelCharClass(s.charAt(i)) & LABEL_INTERIOR) == 0){
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Checks if character is in the set of characters [a-zA-Z0-9-]
-     * @param c char to check
-     * @return if character is in [a-zA-Z0-9-]
+     * Validates one label (without its length byte) straight from its wire bytes, exactly like
+     *   validateLabel(CharSequence, int, int) does for the characters the bytes decode to
+     * @param in buffer holding the label
+     * @param start index of the first byte of the label
+     * @param end index just past the last byte of the label
+     * @return whether or not the label is valid based on the Specifications
      */
-    static boolean isAZaz09DashUnderscore(char c){
-        //I use the -1/+1 syntax because <= makes the assembly check 2 conditions whereas incrementing/decrementing allows
-        //  for a faster check (because the +-1 is calculated at compile time)
-        return ('0'-1 < c && c < '9'+1) || ('A'-1 < c && c < 'Z'+1) || ('a'-1 < c && c < 'z'+1) || (c == '-') || (c == '_');
+    static boolean validateLabel(ByteBuffer in, int start, int end){
+        if(end - start < 1 || end - start > DOMAIN_NAME_LABEL_MAX_LEN){
+            return false;
+        }
+        //bytes past 0x7F decode to chars past 0xFF, and no byte past 0x7F is in a class
+        if((LABEL_CHAR_CLASS[in.get(start) & 0xFF] & LABEL_START) == 0
+                || (LABEL_CHAR_CLASS[in.get(end-1) & 0xFF] & LABEL_END) == 0){
+            return false;
+        }
+        for(int i=start+1; i<end-1; i++){
+            if((LABEL_CHAR_CLASS[in.get(i) & 0xFF] & LABEL_INTERIOR) == 0){
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * Lowercases an ascii character
+     * @param b the character
+     * @return the lowercase character
+     */
+    static int toLowerAscii(byte b){ return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b; }
+
     /**
      * Validates a domain with the following constraints
      * @param domainName the domain name to validate
@@ -70,54 +115,27 @@ public class ValidationUtils {
         //  Each label must start with a letter, end with a letter or digit, and have as interior characters only letters
         //    (A-Z and a-z), digits (0-9), and hypen (-).
         //  A name with a single, empty label (".") is acceptable
-
-        //Base checks
-        //A name may not be longer than 255 characters, inclusive of dots
-        if("".equals(domainName) || domainName.length() < 1 || domainName.length() > DOMAIN_NAME_MAX_LEN){
+        //  A name may not be longer than 255 characters, inclusive of dots
+        final int len = domainName.length();
+        if(len < 1 || len > DOMAIN_NAME_MAX_LEN){
             return false;
         }
-
-        //  A name with a single, empty label (".") is acceptable
-        if(".".equals(domainName)){
-            return true;
+        if(len == 1){
+            return domainName.charAt(0) == '.';
         }
-
-        //Check that the first character isn't an empty label so that when we split, it doesn't get rid of
-        // that bad test case
-        //Also check that the last character is a ., which gets lost when splitting
-        if(domainName.charAt(0) == '.' || domainName.charAt(domainName.length()-1) != '.'){
+        //every label ends with a dot, including the last
+        if(domainName.charAt(len-1) != '.'){
             return false;
         }
-        //Remove the last dot after validating that it's there because it causes split to add one extra field
-        domainName = domainName.substring(0, domainName.length()-1);
-
-        //Parse into labels
-        String[] labels = domainName.split("\\.", -1);
-
-        if(labels.length < 1){ return false; }
-
-        //Validate each label
-        for(String l : labels){
-            //A label may not be longer than 63 characters
-            if(l.length() < 1 || l.length() > DOMAIN_NAME_LABEL_MAX_LEN){
-                return false;
-            }
-
-            //  Each label must start with a letter
-            if(!isAZaz(l.charAt(0))){
-                return false;
-            }
 
-            //  Each label must end with a letter or digit
-            if(!isAZaz09(l.charAt(l.length()-1))){
-                return false;
-            }
-
-            //  Each label must have as interior characters only letters (A-Z and a-z), digits (0-9), and hypen (-)
-            for(char c : l.toCharArray()){
-                if(!isAZaz09DashUnderscore(c)){
+        //Validate each label in one pass
+        int labelStart = 0;
+        for(int i=0; i<len; i++){
+            if(domainName.charAt(i) == '.'){
+                if(!validateLabel(domainName, labelStart, i)){
                     return false;
                 }
+                labelStart = i + 1;
             }
         }
 
@@ -139,6 +157,20 @@ public class ValidationUtils {
         return true;
     }
 
+    /**
+     * Validates that every byte is a visible ascii character
+     * @param bytes bytes to check
+     * @return if all bytes are visible ascii characters (individually)
+     */
+    static boolean validateVisibleAscii(byte[] bytes){
+        for(byte b : bytes){
+            if(ASCII_VISIBLE_MAX < b || b < ASCII_VISIBLE_MIN){
+                return false;
+            }
+        }
+        return true;
+    }
+
     //used prime numbers (in hash code):
     /*
      ResourceRecord : 9857
@@ -7,12 +7,14 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import sdns.serialization.A;
 import sdns.serialization.AAAA;
+import sdns.serialization.ResourceRecord;
 import sdns.serialization.ValidationException;
 import sdns.serialization.test.factories.DomainNameTestFactory;
 import sdns.serialization.test.factories.EqualsAndHashCodeCaseInsensitiveTestFactory;
 import sdns.serialization.test.factories.IPv6TestFactory;
 import sdns.serialization.test.factories.TTLTestFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.Inet4Address;
@@ -443,4 +445,53 @@ class AAAATest {
             return a;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The address is kept as raw bytes, so every address round trips exactly
+     */
+    @Nested
+    class AddressStorage {
+        /**
+         * An IPv4-mapped address decodes and is handed back as an Inet6Address
+         */
+        @Test @DisplayName("IPv4-mapped address")
+        void ipv4Mapped() {
+            byte[] encoded = {1, 'a', 0,//name
+                    0, 28,//type
+                    0, 1,//0x0001
+                    0, 0, 0, 1,//ttl
+                    0, 16,//rdlen
+                    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1, -1, 1, 2, 3, 4};
+            try {
+                AAAA aaaa = (AAAA) ResourceRecord.decode(new ByteArrayInputStream(encoded));
+                Inet6Address address = aaaa.getAddress();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                aaaa.encode(out);
+                assertAll(() -> assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1, -1, 1, 2, 3, 4},
+                                address.getAddress()),
+                        () -> assertArrayEquals(encoded, out.toByteArray()),
+                        () -> assertEquals(new AAAA("a.", 1, address), aaaa));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Every half of the address counts for equality
+         */
+        @Test @DisplayName("Both halves compared")
+        void bothHalves() {
+            try {
+                AAAA high = new AAAA("a.", 1, (Inet6Address) Inet6Address.getByName("1::")),
+                     low = new AAAA("a.", 1, (Inet6Address) Inet6Address.getByName("::1")),
+                     both = new AAAA("a.", 1, (Inet6Address) Inet6Address.getByName("1::1"));
+                assertAll(() -> assertNotEquals(high, low),
+                        () -> assertNotEquals(high, both),
+                        () -> assertNotEquals(low, both),
+                        () -> assertEquals(Inet6Address.getByName("1::1"), both.getAddress()));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+}
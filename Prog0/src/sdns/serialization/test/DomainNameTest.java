@@ -0,0 +1,303 @@
+//Contains the DomainNameTest class (see comments below)
+//Created: 10/17/26
+package sdns.serialization.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import sdns.serialization.*;
+import sdns.serialization.test.factories.DomainNameTestFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ethan Dickey
+ */
+public class DomainNameTest {
+    /**
+     * Encodes an RR into a new array
+     * @param rr RR to encode
+     * @return the encoded RR
+     */
+    private static byte[] encode(ResourceRecord rr) {
+        ByteBuffer buff = ByteBuffer.allocate(1024);
+        rr.encodeTo(buff);
+        return Arrays.copyOf(buff.array(), buff.position());
+    }
+
+    /**
+     * Validation when making a name
+     */
+    @Nested
+    class Of extends DomainNameTestFactory {
+        /**
+         * Factory method for calling the appropriate function you want to test for domain name validity
+         * @param dm domain name to test
+         * @return the result of a getDM on the respective object
+         * @throws ValidationException if invalid domain name
+         */
+        @Override
+        protected String setGetDomainName(String dm) throws ValidationException {
+            return DomainName.of(dm).toString();
+        }
+
+        /**
+         * Allows the concrete class to specify which exception it wants to be thrown when a
+         * null string is passed to the function
+         * @return class to throw
+         */
+        @Override
+        protected Class<? extends Throwable> getNullThrowableType() {
+            return ValidationException.class;
+        }
+    }
+
+    /**
+     * Precomputed labels, wire form, and hash code
+     */
+    @Nested
+    class Precomputed {
+        /**
+         * The wire form is exactly what an RR writes for the name
+         * @param dm domain name to test
+         */
+        @ParameterizedTest(name = "Wire form = {0}")
+        @ValueSource(strings = {".", "foo.", "www.Foo.com.", "f-_0.c0m."})
+        void wireForm(String dm) {
+            try {
+                DomainName name = DomainName.of(dm);
+                byte[] rr = encode(new NS(dm, 0, "a."));
+                byte[] expected = Arrays.copyOf(rr, name.getWireLength());
+                ByteBuffer buff = ByteBuffer.allocate(name.getWireLength());
+                name.writeTo(buff);
+                assertAll(() -> assertArrayEquals(expected, name.getWireBytes()),
+                        () -> assertArrayEquals(expected, buff.array()),
+                        () -> assertFalse(buff.hasRemaining()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Labels are found where the wire form has them
+         */
+        @Test @DisplayName("Labels")
+        void labels() {
+            try {
+                DomainName name = DomainName.of("www.Foo.com.");
+                assertAll(() -> assertEquals(3, name.getLabelCount()),
+                        () -> assertEquals("www", name.getLabel(0)),
+                        () -> assertEquals("Foo", name.getLabel(1)),
+                        () -> assertEquals("com", name.getLabel(2)),
+                        () -> assertEquals(4, name.getLabelOffset(1)),
+                        () -> assertEquals(8, name.getLabelOffset(2)),
+                        () -> assertEquals(0, DomainName.of(".").getLabelCount()),
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> name.getLabel(3)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * The wire form handed out is a copy
+         */
+        @Test @DisplayName("Wire form copied")
+        void wireCopied() {
+            try {
+                DomainName name = DomainName.of("foo.");
+                name.getWireBytes()[1] = 'x';
+                assertEquals('f', name.getWireBytes()[1]);
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Equality is case insensitive, and the hash code is that of the lowercase name
+     */
+    @Nested
+    class EqualsAndHashCode {
+        /**
+         * Case insensitive equality
+         * @param dm domain name to test
+         */
+        @ParameterizedTest(name = "Equals = {0}")
+        @ValueSource(strings = {".", "foo.", "www.Foo.COM.", "F-_0.c0m."})
+        void caseInsensitive(String dm) {
+            try {
+                DomainName name = DomainName.of(dm), lower = DomainName.of(dm.toLowerCase()),
+                           upper = DomainName.of(dm.toUpperCase());
+                assertAll(() -> assertEquals(lower, name),
+                        () -> assertEquals(upper, name),
+                        () -> assertEquals(dm.toLowerCase().hashCode(), name.hashCode()),
+                        () -> assertEquals(lower.hashCode(), upper.hashCode()),
+                        () -> assertEquals(dm, name.toString()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Different names are not equal
+         */
+        @Test @DisplayName("Not equal")
+        void notEqual() {
+            try {
+                DomainName foo = DomainName.of("foo.");
+                assertAll(() -> assertNotEquals(foo, DomainName.of("fo.")),
+                        () -> assertNotEquals(foo, DomainName.of(".")),
+                        () -> assertNotEquals(foo, "foo."));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * RRs and messages take and give back DomainNames as well as Strings
+     */
+    @Nested
+    class Accessors {
+        /**
+         * Setting a DomainName is the same as setting its String
+         */
+        @Test @DisplayName("Set and get")
+        void setGet() {
+            try {
+                DomainName name = DomainName.of("Bar.com.");
+                SOA soa = new SOA("foo.", 1, "a.", "b.", 1, 2, 3, 4, 5);
+                soa.setName(name).setTTL(1);
+                soa.setMName(name).setRName(name);
+                MX mx = new MX("foo.", 1, "a.", 2).setExchange(name);
+                NS ns = new NS("foo.", 1, "a.").setNameServer(name);
+                CName cn = new CName("foo.", 1, "a.").setCanonicalName(name);
+                Query q = new Query(1, "foo.");
+                q.setQuery(name);
+                assertAll(() -> assertEquals(new SOA("Bar.com.", 1, "Bar.com.", "Bar.com.", 1, 2, 3, 4, 5), soa),
+                        () -> assertSame(name, soa.getMNameAsDomainName()),
+                        () -> assertSame(name, soa.getNameAsDomainName()),
+                        () -> assertEquals("Bar.com.", soa.getRName()),
+                        () -> assertArrayEquals(encode(new MX("foo.", 1, "Bar.com.", 2)), encode(mx)),
+                        () -> assertSame(name, mx.getExchangeAsDomainName()),
+                        () -> assertEquals(new NS("foo.", 1, "bar.com."), ns),
+                        () -> assertSame(name, ns.getNameServerAsDomainName()),
+                        () -> assertEquals("Bar.com.", cn.getCanonicalName()),
+                        () -> assertEquals(DomainName.of("bar.COM."), cn.getCanonicalNameAsDomainName()),
+                        () -> assertEquals(new Query(1, "Bar.com."), q),
+                        () -> assertSame(name, q.getQueryAsDomainName()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Null DomainNames are invalid
+         */
+        @Test @DisplayName("Null")
+        void nullName() {
+            try {
+                SOA soa = new SOA("foo.", 1, "a.", "b.", 1, 2, 3, 4, 5);
+                Query q = new Query(1, "foo.");
+                assertAll(() -> assertThrows(ValidationException.class, () -> soa.setName((DomainName) null)),
+                        () -> assertThrows(ValidationException.class, () -> soa.setMName((DomainName) null)),
+                        () -> assertThrows(ValidationException.class, () -> soa.setRName((DomainName) null)),
+                        () -> assertThrows(ValidationException.class,
+                                () -> new MX("foo.", 1, "a.", 2).setExchange((DomainName) null)),
+                        () -> assertThrows(ValidationException.class,
+                                () -> new NS("foo.", 1, "a.").setNameServer((DomainName) null)),
+                        () -> assertThrows(ValidationException.class,
+                                () -> new CName("foo.", 1, "a.").setCanonicalName((DomainName) null)),
+                        () -> assertThrows(ValidationException.class, () -> q.setQuery((DomainName) null)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Names are pooled, so equal names made or decoded anywhere share one object
+     */
+    @Nested
+    class Pool {
+        /**
+         * Made, set, and decoded names all come from the pool
+         */
+        @Test @DisplayName("Shared")
+        void shared() {
+            try {
+                NS made = new NS("pool.foo.com.", 1, "ns.pool.foo.com.");
+                ResourceRecord decoded = ResourceRecord.decode(ByteBuffer.wrap(encode(made)));
+                MX mx = new MX("other.", 1, "a.", 2).setExchange("pool.foo.com.");
+                Query q = new Query(1, "ns.pool.foo.com.");
+                assertAll(() -> assertSame(made.getNameAsDomainName(), decoded.getNameAsDomainName()),
+                        () -> assertSame(made.getNameServerAsDomainName(),
+                                ((NS) decoded).getNameServerAsDomainName()),
+                        () -> assertSame(made.getNameAsDomainName(), mx.getExchangeAsDomainName()),
+                        () -> assertSame(made.getNameServerAsDomainName(), q.getQueryAsDomainName()),
+                        () -> assertSame(made.getNameAsDomainName(), DomainName.of("pool.foo.com.")),
+                        () -> assertSame(made.getName(), decoded.getName()));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Decoded query names are not pooled
+         */
+        @Test @DisplayName("Query names unpooled")
+        void queryUnpooled() {
+            try {
+                byte[] encoded = new Query(1, "unpooled.query.").encode();
+                DomainNamePool.clear();
+                Message decoded = Message.decode(encoded);
+                assertAll(() -> assertEquals("unpooled.query.", decoded.getQuery()),
+                        () -> assertEquals(0, DomainNamePool.size()),
+                        () -> assertNotSame(DomainName.of("unpooled.query."), decoded.getQueryAsDomainName()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Names are pooled exactly as given, so names differing only in case are equal but not shared
+         */
+        @Test @DisplayName("Case kept")
+        void caseKept() {
+            try {
+                DomainName lower = DomainName.of("case.pool."), upper = DomainName.of("CASE.pool.");
+                assertAll(() -> assertNotSame(lower, upper),
+                        () -> assertEquals(lower, upper),
+                        () -> assertEquals("CASE.pool.", upper.toString()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Clearing the pool stops sharing with names already handed out, without changing them
+         */
+        @Test @DisplayName("Clear")
+        void clear() {
+            try {
+                DomainName before = DomainName.of("clear.pool.");
+                assertTrue(DomainNamePool.size() > 0);
+                DomainNamePool.clear();
+                assertEquals(0, DomainNamePool.size());
+                DomainName after = DomainName.of("clear.pool.");
+                assertAll(() -> assertNotSame(before, after),
+                        () -> assertEquals(before, after),
+                        () -> assertSame(after, DomainName.of("clear.pool.")),
+                        () -> assertEquals(1, DomainNamePool.size()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+}
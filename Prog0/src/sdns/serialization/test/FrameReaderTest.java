@@ -0,0 +1,199 @@
+//Contains the FrameReaderTest class (see comments below)
+//Created: 10/17/26
+package sdns.serialization.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import sdns.serialization.*;
+import sdns.serialization.test.factories.DeframerTestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ethan Dickey
+ */
+public class FrameReaderTest {
+    /**
+     * Stream over the given bytes that counts its reads, and can time out once at a given offset
+     */
+    private static class CountingStream extends InputStream {
+        private final byte[] buf;
+        private int pos = 0, reads = 0, timeoutAt;
+
+        /**
+         * Constructs the stream
+         * @param buf bytes to read
+         * @param timeoutAt offset to time out at (once), or -1 for never
+         */
+        CountingStream(byte[] buf, int timeoutAt){
+            this.buf = buf;
+            this.timeoutAt = timeoutAt;
+        }
+
+        /**
+         * Reads one byte
+         * @return the byte, or -1 at the end
+         * @throws SocketTimeoutException at the timeout offset
+         */
+        @Override
+        public int read() throws SocketTimeoutException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        /**
+         * Reads bytes, stopping short of (and then timing out at) the timeout offset
+         * @return number of bytes read
+         * @throws SocketTimeoutException at the timeout offset
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws SocketTimeoutException {
+            reads++;
+            if(timeoutAt == pos){
+                timeoutAt = -1;
+                throw new SocketTimeoutException();
+            }
+            if(pos == buf.length){
+                return -1;
+            }
+            len = Math.min(len, (timeoutAt > pos ? timeoutAt : buf.length) - pos);
+            System.arraycopy(buf, pos, b, off, len);
+            pos += len;
+            return len;
+        }
+    }
+
+    /**
+     * Frames the messages one after another
+     * @param messages messages to frame
+     * @return the frames
+     * @throws ValidationException if a message is too long
+     */
+    private static byte[] frameAll(byte[]... messages) throws ValidationException {
+        ByteBuffer buff = ByteBuffer.allocate(200000);
+        for(byte[] m : messages){
+            buff.put(Framer.frameMsg(m));
+        }
+        byte[] frames = new byte[buff.position()];
+        buff.flip().get(frames);
+        return frames;
+    }
+
+    /**
+     * Same behavior as Framer.nextMsg(InputStream)
+     */
+    @Nested
+    class TestNextMsg extends DeframerTestFactory {
+        /**
+         * Factory method for calling the appropriate function you want to test for deframing validity
+         *
+         * @param buff buffer to test
+         * @return the message without the frame
+         */
+        @Override
+        protected byte[] getNextMsg(byte[] buff) throws IOException {
+            return new FrameReader(new ByteArrayInputStream(buff)).nextMsg();
+        }
+
+        /**
+         * Allows the concrete class to specify which exception it wants to be thrown when a
+         * null buffer is passed to the function
+         *
+         * @return class to throw
+         */
+        @Override
+        protected Class<? extends Throwable> getNullThrowableType() {
+            return NullPointerException.class;
+        }
+    }
+
+    /**
+     * Buffering
+     */
+    @Nested
+    class TestBuffered {
+        /**
+         * Many frames are read from the stream in one read, and handed out as read-only slices
+         */
+        @Test @DisplayName("Bulk reads")
+        void bulk() {
+            try {
+                byte[][] messages = new byte[100][];
+                for(int i=0; i<messages.length; i++){
+                    messages[i] = new Query(i, "foo" + i + ".").encode();
+                }
+                CountingStream in = new CountingStream(frameAll(messages), -1);
+                FrameReader reader = new FrameReader(in);
+                ByteBuffer first = reader.nextFrame();
+                assertAll(() -> assertTrue(first.isReadOnly()),
+                        () -> assertEquals(new Query(0, "foo0."), Message.decode(first)));
+                for(int i=1; i<messages.length; i++){
+                    assertArrayEquals(messages[i], reader.nextMsg());
+                }
+                assertAll(() -> assertTrue(in.reads < 5, "reads: " + in.reads),
+                        () -> assertEquals(0, reader.getBuffered()),
+                        () -> assertThrows(EOFException.class, reader::nextFrame));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Frames too long for the buffer get their own arrays, between frames that don't
+         */
+        @Test @DisplayName("Too long for buffer")
+        void large() {
+            try {
+                byte[] small = {1, 2, 3}, big = new byte[100], bigger = new byte[65535];
+                for(int i=0; i<big.length; i++){
+                    big[i] = (byte) i;
+                }
+                FrameReader reader = new FrameReader(new ByteArrayInputStream(frameAll(small, big, small, bigger)), 16);
+                assertAll(() -> assertArrayEquals(small, reader.nextMsg()),
+                        () -> assertArrayEquals(big, reader.nextMsg()),
+                        () -> assertArrayEquals(small, reader.nextMsg()),
+                        () -> assertArrayEquals(bigger, reader.nextMsg()),
+                        () -> assertThrows(IllegalArgumentException.class,
+                                () -> new FrameReader(new ByteArrayInputStream(small), 1)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A timeout partway through a frame (or its length) loses nothing
+         */
+        @Test @DisplayName("Timeout")
+        void timeout() {
+            try {
+                byte[] small = {1, 2, 3}, big = new byte[40];
+                big[39] = 9;
+                byte[] frames = frameAll(small, big, small);
+                for(int timeoutAt : new int[]{1, 3, 6, 7, 30, 47, 48}){
+                    FrameReader reader = new FrameReader(new CountingStream(frames, timeoutAt), 16);
+                    byte[][] got = new byte[3][];
+                    for(int i=0; i<got.length; i++){
+                        try {
+                            got[i] = reader.nextMsg();
+                        } catch(SocketTimeoutException e){
+                            got[i] = reader.nextMsg();
+                        }
+                    }
+                    assertAll(() -> assertArrayEquals(small, got[0]),
+                            () -> assertArrayEquals(big, got[1]),
+                            () -> assertArrayEquals(small, got[2]));
+                }
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+}
@@ -15,6 +15,10 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -117,6 +121,137 @@ public class FramerTest {
         }
     }
 
+    /**
+     * Test framing a message straight into a buffer
+     */
+    @Nested
+    class TestFrameMessageBuffer {
+        /**
+         * Null checks
+         */
+        @Test @DisplayName("Null error")
+        void testNull(){
+            assertAll(() -> assertThrows(NullPointerException.class, () -> Framer.frameMsg(null, ByteBuffer.allocate(10))),
+                    () -> assertThrows(NullPointerException.class, () -> Framer.frameMsg(new Query(1, "foo."), null)));
+        }
+
+        /**
+         * Framing into a buffer matches framing the encoded bytes
+         */
+        @Test @DisplayName("Matches frameMsg(byte[])")
+        void testMatchesArray(){
+            try {
+                Query q = new Query(7, "www.foo.com.");
+                byte[] expected = Framer.frameMsg(q.encode());
+                ByteBuffer buff = ByteBuffer.allocate(100);
+                buff.put((byte) 99);
+                Framer.frameMsg(q, buff);
+                assertEquals(1 + expected.length, buff.position());
+                assertArrayEquals(expected, Arrays.copyOfRange(buff.array(), 1, buff.position()));
+            } catch (ValidationException e) {
+                fail();
+            }
+        }
+
+        /**
+         * Not enough room leaves the position alone
+         */
+        @Test @DisplayName("Buffer too small")
+        void testTooSmall(){
+            ByteBuffer buff = ByteBuffer.allocate(10);
+            buff.position(3);
+            assertThrows(BufferOverflowException.class, () -> Framer.frameMsg(new Query(7, "www.foo.com."), buff));
+            assertEquals(3, buff.position());
+        }
+
+        /**
+         * Messages over 65535 bytes are rejected
+         */
+        @Test @DisplayName("Message too long")
+        void testTooLong(){
+            try {
+                Response r = new Response(1, "foo.", RCode.NOERROR);
+                for(int i=0; i<7000; i++){
+                    r.addAnswer(new CName("foo.", i, "foo."));
+                }
+                ByteBuffer buff = ByteBuffer.allocate(70000);
+                assertThrows(ValidationException.class, () -> Framer.frameMsg(r, buff));
+                assertEquals(0, buff.position());
+            } catch (ValidationException e) {
+                fail();
+            }
+        }
+    }
+
+    /**
+     * Test framing for gathering writes
+     */
+    @Nested
+    class TestFrameMessageGathering {
+        /**
+         * Null checks
+         */
+        @Test @DisplayName("Null error")
+        void testNull(){
+            assertAll(() -> assertThrows(NullPointerException.class, () -> Framer.frameGathering(null)),
+                    () -> assertThrows(NullPointerException.class, () -> Framer.framePrefix(ByteBuffer.allocate(1), null)));
+        }
+
+        /**
+         * The prefix and body written together through a channel are the same frame frameMsg(byte[]) makes, and the
+         *   body is written from where it is
+         */
+        @Test @DisplayName("Gathering write")
+        void testGatheringWrite(){
+            try {
+                byte[] encoded = new Query(7, "www.foo.com.").encode();
+                ByteBuffer body = ByteBuffer.wrap(encoded);
+                ByteBuffer[] frame = Framer.frameGathering(body);
+                assertAll(() -> assertSame(body, frame[1]),
+                        () -> assertEquals(0, body.position()),
+                        () -> assertEquals(Framer.PREFIX_BYTES, frame[0].remaining()));
+
+                Pipe pipe = Pipe.open();
+                pipe.sink().write(frame);
+                pipe.sink().close();
+                assertArrayEquals(Framer.frameMsg(encoded), Channels.newInputStream(pipe.source()).readAllBytes());
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * One prefix buffer can be reused for every body, and the body is framed from its position
+         */
+        @Test @DisplayName("Reused prefix")
+        void testReusedPrefix(){
+            try {
+                ByteBuffer prefix = ByteBuffer.allocateDirect(Framer.PREFIX_BYTES);
+                ByteBuffer body = ByteBuffer.allocate(300).position(4);
+                assertSame(prefix, Framer.framePrefix(body, prefix));
+                assertEquals(1, prefix.get(0));
+                assertEquals(40, prefix.get(1));
+                Framer.framePrefix(body.limit(5), prefix);
+                assertAll(() -> assertEquals(0, prefix.get(0)),
+                        () -> assertEquals(1, prefix.get(1)),
+                        () -> assertEquals(Framer.PREFIX_BYTES, prefix.remaining()),
+                        () -> assertThrows(BufferOverflowException.class,
+                                () -> Framer.framePrefix(body, ByteBuffer.allocate(1))));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Bodies over 65535 bytes are rejected
+         */
+        @Test @DisplayName("Message too long")
+        void testTooLong(){
+            assertAll(() -> assertThrows(ValidationException.class, () -> Framer.frameGathering(ByteBuffer.allocate(65536))),
+                    () -> assertDoesNotThrow(() -> Framer.frameGathering(ByteBuffer.allocate(65535))));
+        }
+    }
+
     /**
      * Test nextMsg
      */
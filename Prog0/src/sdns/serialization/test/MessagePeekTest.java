@@ -0,0 +1,164 @@
+//Contains the MessagePeekTest class (see comments below)
+//Created: 10/17/26
+package sdns.serialization.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import sdns.serialization.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ethan Dickey
+ */
+class MessagePeekTest {
+    /**
+     * Header and question fields
+     */
+    @Nested
+    class Fields {
+        /**
+         * A query's fields are read without decoding it
+         */
+        @Test @DisplayName("Query")
+        void query() {
+            try {
+                byte[] query = new Query(513, "www.Foo.com.").encode();
+                long peeked = MessagePeek.peek(query);
+                assertAll(() -> assertEquals(DecodeResult.OK, MessagePeek.getResult(peeked)),
+                        () -> assertEquals(513, MessagePeek.getID(peeked)),
+                        () -> assertFalse(MessagePeek.isResponse(peeked)),
+                        () -> assertEquals(0, MessagePeek.getOpcode(peeked)),
+                        () -> assertEquals(DomainName.of("www.foo.com.").hashCode(), MessagePeek.getQuestionHash(peeked)),
+                        () -> assertEquals(DomainName.of("www.foo.com.").getWireLength(),
+                                MessagePeek.getQuestionKeyLength(peeked)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A response is peeked the same way, RRs and all
+         */
+        @Test @DisplayName("Response")
+        void response() {
+            try {
+                Response r = new Response(65535, ".", RCode.NOERROR).addAnswer(new NS(".", 1, "ns.foo."));
+                long peeked = MessagePeek.peek(ByteBuffer.wrap(r.encode()));
+                assertAll(() -> assertEquals(DecodeResult.OK, MessagePeek.getResult(peeked)),
+                        () -> assertEquals(65535, MessagePeek.getID(peeked)),
+                        () -> assertTrue(MessagePeek.isResponse(peeked)),
+                        () -> assertEquals(DomainName.ROOT.hashCode(), MessagePeek.getQuestionHash(peeked)),
+                        () -> assertEquals(1, MessagePeek.getQuestionKeyLength(peeked)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * The opcode is reported rather than rejected, and the position of the buffer is left alone
+         */
+        @Test @DisplayName("Opcode and position")
+        void opcode() {
+            byte[] buff = { 9, 9, 9, 9, 0, 1, 0x28, 0, 0, 1, 0, 0, 0, 0, 0, 0,
+                    3, 'f', 'o', 'o', -64, 5, 0, -1, 0, 1};
+            ByteBuffer message = ByteBuffer.wrap(buff, 4, buff.length - 4);
+            long peeked = MessagePeek.peek(message);
+            assertAll(() -> assertEquals(DecodeResult.OK, MessagePeek.getResult(peeked)),
+                    () -> assertEquals(5, MessagePeek.getOpcode(peeked)),
+                    () -> assertEquals(1, MessagePeek.getID(peeked)),
+                    () -> assertEquals("foo.".hashCode(), MessagePeek.getQuestionHash(peeked)),
+                    () -> assertEquals(4, message.position()));
+        }
+    }
+
+    /**
+     * Bad headers and questions are reported without an exception
+     */
+    @Nested
+    class Failures {
+        /**
+         * Messages that end too soon
+         * @param length bytes kept from a valid query
+         */
+        @ParameterizedTest(name = "Length = {0}")
+        @ValueSource(ints = {0, 11, 12, 14, 17, 18, 20})
+        void tooShort(int length) {
+            try {
+                byte[] query = Arrays.copyOf(new Query(1, "foo.").encode(), length);
+                assertEquals(DecodeResult.TOO_SHORT, MessagePeek.getResult(MessagePeek.peek(query)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Invalid question names and fields
+         */
+        @Test @DisplayName("Bad question")
+        void badQuestion() {
+            byte[] badLabel = { 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', '-', '-', 0, 0, -1, 0, 1};
+            byte[] badLength = { 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', -128, 0, -1, 0, 1};
+            byte[] badField = { 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', 0, 0, -2, 0, 1};
+            assertAll(() -> assertEquals(DecodeResult.BAD_LABEL, MessagePeek.getResult(MessagePeek.peek(badLabel))),
+                    () -> assertEquals(DecodeResult.BAD_LABEL, MessagePeek.getResult(MessagePeek.peek(badLength))),
+                    () -> assertEquals(DecodeResult.BAD_FIELD, MessagePeek.getResult(MessagePeek.peek(badField))),
+                    () -> assertThrows(NullPointerException.class, () -> MessagePeek.peek((byte[]) null)));
+        }
+    }
+
+    /**
+     * Case insensitive question keys
+     */
+    @Nested
+    class QuestionKey {
+        /**
+         * Keys are the same for names equal ignoring case, and different otherwise
+         */
+        @Test @DisplayName("Copy")
+        void copy() {
+            try {
+                ByteBuffer upper = ByteBuffer.wrap(new Query(1, "WWW.foo.COM.").encode()),
+                           lower = ByteBuffer.wrap(new Query(2, "www.foo.com.").encode()),
+                           other = ByteBuffer.wrap(new Query(3, "www.foo.co.").encode());
+                byte[] key1 = new byte[300], key2 = new byte[300], key3 = new byte[300];
+                int len1 = MessagePeek.copyQuestionKey(upper, key1, 0), len2 = MessagePeek.copyQuestionKey(lower, key2, 10),
+                    len3 = MessagePeek.copyQuestionKey(other, key3, 0);
+                assertAll(() -> assertEquals(MessagePeek.getQuestionKeyLength(MessagePeek.peek(upper)), len1),
+                        () -> assertArrayEquals(DomainName.of("www.foo.com.").getWireBytes(), Arrays.copyOf(key1, len1)),
+                        () -> assertArrayEquals(Arrays.copyOf(key1, len1), Arrays.copyOfRange(key2, 10, 10 + len2)),
+                        () -> assertNotEquals(len1, len3),
+                        () -> assertThrows(IndexOutOfBoundsException.class,
+                                () -> MessagePeek.copyQuestionKey(upper, new byte[4], 0)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * The question is compared to a name ignoring case
+         */
+        @Test @DisplayName("Equals")
+        void equals() {
+            try {
+                ByteBuffer query = ByteBuffer.wrap(new Query(1, "WWW.foo.COM.").encode());
+                byte[] sdnsEnd = { 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'F', 'o', 'o', -64, 5, 0, -1, 0, 1};
+                assertAll(() -> assertTrue(MessagePeek.questionEquals(query, DomainName.of("www.foo.com."))),
+                        () -> assertTrue(MessagePeek.questionEquals(query, DomainName.of("WWW.FOO.COM."))),
+                        () -> assertFalse(MessagePeek.questionEquals(query, DomainName.of("www.foo."))),
+                        () -> assertFalse(MessagePeek.questionEquals(query, DomainName.of("www.foo.com.a."))),
+                        () -> assertFalse(MessagePeek.questionEquals(query, DomainName.of("www.fob.com."))),
+                        () -> assertFalse(MessagePeek.questionEquals(query, DomainName.ROOT)),
+                        () -> assertTrue(MessagePeek.questionEquals(ByteBuffer.wrap(sdnsEnd), DomainName.of("foo."))));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+}
@@ -13,9 +13,12 @@ import sdns.serialization.test.factories.DomainNameTestFactory;
 import sdns.serialization.test.factories.SdnsIDTestFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
 /**
@@ -159,7 +162,15 @@ class MessageTest {
          */
         @Test @DisplayName("Null test")
         void inputStreamNull(){
-            assertThrows(NullPointerException.class, () -> Message.decode(null));
+            assertThrows(NullPointerException.class, () -> Message.decode((byte[]) null));
+        }
+
+        /**
+         * Null buffer test
+         */
+        @Test @DisplayName("Null buffer test")
+        void bufferNull(){
+            assertThrows(NullPointerException.class, () -> Message.decode((ByteBuffer) null));
         }
     }
 
@@ -813,6 +824,301 @@ class MessageTest {
         }
     }
 
+    /**
+     * Test decoding straight out of a ByteBuffer
+     */
+    @Nested
+    class DecodeBuffer {
+        //Response with a CName answer and an A additional
+        private final byte[] response = { 0, 42,//id
+                -128, 0, //1 0000 [ignored bit]x7 0000
+                0, 1, //0x0001
+                0, 1, //ANCount
+                0, 0, //NSCount
+                0, 1, //ARCount
+                3, 'f', 'o', 'o', -64, 5,//query
+                0, -1,//0x00FF
+                0, 1,  //0x0001
+                3, 'f', 'o', 'o', -64, 5,//CName
+                0, 5,
+                0, 1, //0x0001
+                0, 0, 0, 7,
+                0, 6,
+                3, 'f', 'o', 'o', -64, 5,
+                0,//A
+                0, 1,
+                0, 1,
+                0, 0, 0, 0,
+                0, 4,
+                -1, 0, -1, -119
+        };
+
+        /**
+         * Decoding a heap buffer matches decoding the array
+         */
+        @Test @DisplayName("Heap buffer matches byte array")
+        void heapBuffer(){
+            try {
+                assertEquals(Message.decode(response), Message.decode(ByteBuffer.wrap(response)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Decoding a direct buffer from a non-zero position only reads position to limit and leaves position alone
+         */
+        @Test @DisplayName("Direct buffer with offset")
+        void directBufferWithOffset(){
+            ByteBuffer buff = ByteBuffer.allocateDirect(response.length + 10);
+            buff.put(new byte[]{9, 9, 9}).put(response).put(new byte[]{9, 9});
+            buff.position(3).limit(3 + response.length);
+            try {
+                Message m = Message.decode(buff);
+                assertAll(() -> assertEquals(Message.decode(response), m),
+                        () -> assertEquals(42, m.getID()),
+                        () -> assertEquals("foo.", m.getQuery()),
+                        () -> assertEquals(3, buff.position()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Too short and too long buffers are rejected
+         */
+        @ParameterizedTest(name = "Bad length: {0}")
+        @ValueSource(ints = {-1, -5, 1})
+        void badLength(int delta){
+            byte[] bad = Arrays.copyOf(response, response.length + delta);
+            assertThrows(ValidationException.class, () -> Message.decode(ByteBuffer.wrap(bad)));
+        }
+    }
+
+    /**
+     * Test checking messages without decoding them
+     */
+    @Nested
+    class Check {
+        /**
+         * Builds an encoded response with every kind of RR
+         * @return encoded response
+         */
+        private byte[] makeResponse() throws ValidationException, UnknownHostException {
+            Response r = new Response(42, "www.foo.com.", RCode.NAMEERROR);
+            r.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+            r.addAnswer(new A("www.foo.com.", 200, (Inet4Address) Inet4Address.getByName("20.69.42.21")));
+            r.addAnswer(new AAAA("www.foo.com.", 200, (java.net.Inet6Address) java.net.Inet6Address.getByName("::1")));
+            r.addNameServer(new NS("foo.com.", 200, "ns.foo.com."));
+            r.addNameServer(new SOA("foo.com.", 200, "ns.foo.com.", "dns.foo.com.", 1, 2, 3, 4, 5));
+            r.addAdditional(new MX("foo.com.", 200, "mail.foo.com.", 10));
+            r.addAdditional(new CAA("foo.com.", 200, "ca.com"));
+            return r.encode();
+        }
+
+        /**
+         * Checks that check() says OK exactly when decode() succeeds
+         * @param message bytes to check and decode
+         * @return the check result
+         */
+        private DecodeResult assertCheckMatchesDecode(byte[] message) {
+            DecodeResult result = Message.check(ByteBuffer.wrap(message));
+            boolean decoded;
+            try {
+                Message.decode(message);
+                decoded = true;
+            } catch (ValidationException e) {
+                decoded = false;
+            }
+            assertEquals(decoded, result == DecodeResult.OK, () -> result + " for " + Arrays.toString(message));
+            return result;
+        }
+
+        /**
+         * Valid messages are OK
+         */
+        @Test @DisplayName("Valid")
+        void valid() {
+            assertAll(() -> assertEquals(DecodeResult.OK, assertCheckMatchesDecode(makeResponse())),
+                    () -> assertEquals(DecodeResult.OK, assertCheckMatchesDecode(new Query(3, "foo.").encode())),
+                    () -> assertEquals(DecodeResult.OK, assertCheckMatchesDecode(new Query(3, ".").encode())));
+        }
+
+        /**
+         * Every truncation is too short, and an extra byte is too long
+         */
+        @Test @DisplayName("Bad lengths")
+        void badLengths() {
+            try {
+                byte[] response = makeResponse();
+                for(int i=0; i<response.length; i++){
+                    assertEquals(DecodeResult.TOO_SHORT, assertCheckMatchesDecode(Arrays.copyOf(response, i)));
+                }
+                assertEquals(DecodeResult.TOO_LONG, assertCheckMatchesDecode(Arrays.copyOf(response, response.length + 1)));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Specific problems are reported as such
+         */
+        @Test @DisplayName("Specific problems")
+        void specificProblems() {
+            try {
+                byte[] opcode = makeResponse();
+                opcode[2] |= 0x10;
+                byte[] label = makeResponse();
+                label[13] = '-';//first character of the query
+                byte[] rcode = makeResponse();
+                rcode[3] = 0x0F;
+                assertAll(() -> assertEquals(DecodeResult.BAD_OPCODE, assertCheckMatchesDecode(opcode)),
+                        () -> assertEquals(DecodeResult.BAD_LABEL, assertCheckMatchesDecode(label)),
+                        () -> assertEquals(DecodeResult.BAD_FIELD, assertCheckMatchesDecode(rcode)));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Changing any single byte to any of a spread of values never makes check and decode disagree
+         */
+        @Test @DisplayName("Single byte corruption")
+        void singleByteCorruption() {
+            try {
+                byte[] response = makeResponse();
+                final byte[] values = {0, 1, 2, 4, 5, 6, 15, 28, 63, 64, 65, 'a', '-', '0', 0x7F, -1, -64, -65, -128};
+                for(int i=0; i<response.length; i++){
+                    for(byte v : values){
+                        byte[] bad = response.clone();
+                        bad[i] = v;
+                        assertCheckMatchesDecode(bad);
+                    }
+                }
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Null
+         */
+        @Test @DisplayName("Null")
+        void nullBuffer() {
+            assertThrows(NullPointerException.class, () -> Message.check(null));
+        }
+    }
+
+    /**
+     * Test decoding with compression pointers followed
+     */
+    @Nested
+    class DecodeCompressed {
+        //Response for "foo.com." with a CName and an MX answer, compressed like a real DNS server would
+        private final byte[] response = { 0, 42,//id
+                -128, 0, //1 0000 [ignored bit]x7 0000
+                0, 1, //0x0001
+                0, 2, //ANCount
+                0, 0, //NSCount
+                0, 0, //ARCount
+                3, 'f', 'o', 'o', 3, 'c', 'o', 'm', 0,//query "foo.com." at 12
+                0, -1,//0x00FF
+                0, 1,  //0x0001
+                3, 'w', 'w', 'w', -64, 12,//CName "www.foo.com." at 25
+                0, 5,
+                0, 1, //0x0001
+                0, 0, 0, 7,
+                0, 2,
+                -64, 12,//"foo.com."
+                -64, 25,//MX "www.foo.com."
+                0, 15,
+                0, 1,
+                0, 0, 0, 7,
+                0, 9,
+                0, 10,
+                4, 'm', 'a', 'i', 'l', -64, 16//"mail.com."
+        };
+
+        /**
+         * Pointers are followed and their targets expanded
+         */
+        @Test @DisplayName("Follows pointers")
+        void followsPointers(){
+            try {
+                Response r = (Response) Message.decodeCompressed(ByteBuffer.wrap(response));
+                Response expected = new Response(42, "foo.com.", RCode.NOERROR);
+                expected.addAnswer(new CName("www.foo.com.", 7, "foo.com."));
+                expected.addAnswer(new MX("www.foo.com.", 7, "mail.com.", 10));
+                assertEquals(expected, r);
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Plain SDNS treats the same pointers as the end of the name
+         */
+        @Test @DisplayName("Plain decode truncates")
+        void plainDecodeTruncates(){
+            try {
+                Response r = (Response) Message.decode(ByteBuffer.wrap(response));
+                assertEquals("www.", r.getAnswerList().get(0).getName());
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Compressed encoding round trips, and uncompressed messages decode the same either way
+         */
+        @Test @DisplayName("Round trip")
+        void roundTrip(){
+            try {
+                Response r = new Response(7, "foo.com.", RCode.NOERROR);
+                r.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+                r.addNameServer(new SOA("foo.com.", 200, "ns.foo.com.", "dns.foo.com.", 1, 2, 3, 4, 5));
+                r.addAdditional(new MX("FOO.com.", 200, "mail.foo.com.", 10));
+                r.addAdditional(new NS("ns.foo.com.", 200, "ns.FOO.com."));
+                ByteBuffer buff = ByteBuffer.allocate(1024);
+                r.encodeCompressedTo(buff);
+                buff.flip();
+                assertTrue(buff.remaining() < r.encode().length);
+                assertEquals(r, Message.decodeCompressed(buff));
+                assertEquals(r, Message.decodeCompressed(ByteBuffer.wrap(r.encode())));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Pointers that point forward or at themselves are rejected instead of looping
+         */
+        @ParameterizedTest(name = "Bad pointer target: {0}")
+        @ValueSource(ints = {25, 29, 31, 100})
+        void badPointer(int target){
+            byte[] bad = response.clone();
+            bad[30] = (byte) target;//first CName name pointer (at 29, usually pointing to 12)
+            ValidationException e = assertThrows(ValidationException.class,
+                    () -> Message.decodeCompressed(ByteBuffer.wrap(bad)));
+            assertAll(() -> assertEquals(target + "", e.getBadToken()),
+                    () -> assertEquals(0, e.getStackTrace().length));
+        }
+
+        /**
+         * A pointer cut off by the end of the message is too short
+         */
+        @Test @DisplayName("Truncated pointer")
+        void truncatedPointer(){
+            byte[] bad = Arrays.copyOf(response, response.length - 1);
+            ValidationException e = assertThrows(ValidationException.class,
+                    () -> Message.decodeCompressed(ByteBuffer.wrap(bad)));
+            //neither the exception nor the premature EOF behind it fill in a stack trace
+            assertAll(() -> assertEquals(0, e.getStackTrace().length),
+                    () -> assertTrue(e.getCause() instanceof EOFException),
+                    () -> assertEquals(0, e.getCause().getStackTrace().length));
+        }
+    }
+
     /**
      * Test getter/setter for ID
      */
@@ -2,15 +2,21 @@
 //Created: 11/15/20
 package sdns.serialization.test;
 
+import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
-import sdns.serialization.NIODeframer;
+import sdns.serialization.*;
 import sdns.serialization.test.factories.DeframerTestFactory;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static sdns.serialization.ValidationUtils.MAX_UNSIGNED_SHORT;
 
 /**
  * @author Ethan Dickey
@@ -148,4 +154,232 @@ public class NIODeframerTest {
             assertArrayEquals(message2, deframer.getMessage(new byte[0]));
         }
     }
+
+    /**
+     * Decoding every complete message at once
+     */
+    @Nested
+    class TestGetMessages {
+        /**
+         * Frames the messages one after another
+         * @param messages messages to frame
+         * @return the frames
+         * @throws ValidationException if a message is too long (never)
+         */
+        private ByteBuffer frameAll(Message... messages) throws ValidationException {
+            ByteBuffer buff = ByteBuffer.allocate(4096);
+            for(Message m : messages){
+                Framer.frameMsg(m, buff);
+            }
+            return buff.flip();
+        }
+
+        /**
+         * Every complete message in the buffer is decoded in one call, in order, and a partial one is kept for later
+         */
+        @Test @DisplayName("Pipelined")
+        void pipelined() {
+            try {
+                Query q1 = new Query(1, "foo."), q2 = new Query(2, "bar.com."), q3 = new Query(3, ".");
+                ByteBuffer frames = frameAll(q1, q2, q3);
+                ByteBuffer first = frames.duplicate().limit(frames.limit() - 3), rest = frames.position(first.limit());
+
+                NIODeframer deframer = new NIODeframer();
+                MessageBatch batch = new MessageBatch(1);
+                assertEquals(2, deframer.getMessages(first, batch));
+                assertAll(() -> assertEquals(q1, batch.getMessage(0)),
+                        () -> assertEquals(q2, batch.getMessage(1)),
+                        () -> assertEquals(DecodeResult.OK, batch.getResult(1)),
+                        () -> assertEquals(q2.encode().length, batch.getFrameLength(1)),
+                        () -> assertFalse(first.hasRemaining()),
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> batch.getMessage(2)));
+
+                assertEquals(1, deframer.getMessages(rest, batch));
+                assertEquals(q3, batch.getMessage(0));
+                assertEquals(0, deframer.getMessages(ByteBuffer.allocate(0), batch));
+                assertEquals(0, batch.size());
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A message that can't be decoded gets its reason, without stopping the rest of the batch
+         */
+        @Test @DisplayName("Invalid message")
+        void invalid() {
+            try {
+                byte[] query = Framer.frameMsg(new Query(7, "foo.com.").encode());
+                byte[] frames = Arrays.copyOf(new byte[]{0, 3, 1, 2, 3}, 5 + query.length);
+                System.arraycopy(query, 0, frames, 5, query.length);
+                NIODeframer deframer = new NIODeframer();
+                MessageBatch batch = new MessageBatch();
+                assertEquals(2, deframer.getMessages(ByteBuffer.wrap(frames), batch));
+                assertAll(() -> assertNull(batch.getMessage(0)),
+                        () -> assertEquals(DecodeResult.TOO_SHORT, batch.getResult(0)),
+                        () -> assertEquals(3, batch.getFrameLength(0)),
+                        () -> assertEquals(new Query(7, "foo.com."), batch.getMessage(1)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Responses don't share the deframer's bytes, which are reused as soon as the next bytes arrive
+         */
+        @Test @DisplayName("Responses copied")
+        void responsesCopied() {
+            try {
+                byte[] unknown = { 3, 'f', 'o', 'o', 0, 0, 16, 0, 1, 0, 0, 0, 1, 0, 2, 'h', 'i'};
+                Response r = new Response(1, "foo.", RCode.NOERROR)
+                        .addAnswer(ResourceRecord.decode(ByteBuffer.wrap(unknown)));
+                NIODeframer deframer = new NIODeframer();
+                MessageBatch batch = new MessageBatch();
+                assertEquals(1, deframer.getMessages(frameAll(r), batch));
+                Message decoded = batch.getMessage(0);
+                deframer.getMessages(frameAll(new Response(2, "bar.", RCode.NOERROR)), batch);
+                assertArrayEquals(r.encode(), decoded.encode());
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+    /**
+     * Ring of bytes, handing back slices
+     */
+    @Nested
+    class TestRing {
+        /**
+         * Frames are read-only slices of the ring, not copies
+         */
+        @Test @DisplayName("Slices")
+        void slices() {
+            NIODeframer deframer = new NIODeframer(16, false);
+            ByteBuffer frame = deframer.getFrame(ByteBuffer.wrap(new byte[]{0, 3, 1, 2, 3, 0}));
+            assertAll(() -> assertTrue(frame.isReadOnly()),
+                    () -> assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), frame),
+                    () -> assertEquals(1, deframer.getBuffered()),
+                    () -> assertNull(deframer.getFrame(ByteBuffer.allocate(0))),
+                    () -> assertThrows(ReadOnlyBufferException.class, () -> frame.put(0, (byte) 0)));
+        }
+
+        /**
+         * Frames that wrap around the end of the ring come back whole, from heap and direct rings
+         * @param direct whether the ring is direct
+         */
+        @ParameterizedTest(name = "Direct = {0}")
+        @ValueSource(booleans = {false, true})
+        void wrapAround(boolean direct) {
+            NIODeframer deframer = new NIODeframer(7, direct);
+            for(int i=0; i<20; i++){
+                byte b = (byte) i;
+                byte[] in = {0, 4, b, b, b, b};
+                //two bytes of the ring are left over, so every frame starts somewhere new
+                assertNull(deframer.getMessage(ByteBuffer.wrap(in, 0, 5)));
+                assertArrayEquals(new byte[]{b, b, b, b}, deframer.getMessage(ByteBuffer.wrap(in, 5, 1)));
+            }
+            assertEquals(0, deframer.getBuffered());
+        }
+
+        /**
+         * Only what fits is taken from a buffer, and the rest is left for later
+         */
+        @Test @DisplayName("Leftover")
+        void leftover() {
+            NIODeframer deframer = new NIODeframer(4, false);
+            ByteBuffer in = ByteBuffer.wrap(new byte[]{0, 1, 7, 0, 2, 8, 9});
+            assertArrayEquals(new byte[]{7}, deframer.getMessage(in));
+            assertAll(() -> assertEquals(4, in.position()),
+                    () -> assertNull(deframer.getMessage(new byte[0])),
+                    () -> assertEquals(1, deframer.getBuffered()),
+                    () -> assertArrayEquals(new byte[]{8, 9}, deframer.getMessage(in)),
+                    () -> assertFalse(in.hasRemaining()));
+        }
+
+        /**
+         * The ring can live in storage the caller supplies, as long as there is room for it and its mirror
+         */
+        @Test @DisplayName("Supplied storage")
+        void storage() {
+            ByteBuffer storage = ByteBuffer.allocateDirect(NIODeframer.storageSize(5));
+            NIODeframer deframer = new NIODeframer(storage.position(3), 5);
+            assertAll(() -> assertEquals(10, NIODeframer.storageSize(5)),
+                    () -> assertArrayEquals(new byte[]{7}, deframer.getMessage(new byte[]{0, 1, 7, 0})),
+                    () -> assertNull(deframer.getMessage(new byte[]{2, 8})),
+                    () -> assertArrayEquals(new byte[]{8, 9}, deframer.getMessage(new byte[]{9})),
+                    () -> assertEquals(3, storage.position()),
+                    () -> assertThrows(IllegalArgumentException.class,
+                            () -> new NIODeframer(ByteBuffer.allocate(NIODeframer.storageSize(5) - 1), 5)),
+                    () -> assertThrows(IllegalArgumentException.class,
+                            () -> new NIODeframer(ByteBuffer.allocate(10).asReadOnlyBuffer(), 5)),
+                    () -> assertThrows(NullPointerException.class, () -> new NIODeframer(null, 5)));
+        }
+
+        /**
+         * A frame longer than the ring grows it, and the ring shrinks back once it empties
+         */
+        @Test @DisplayName("Too long")
+        void tooLong() {
+            NIODeframer deframer = new NIODeframer(4, true);
+            assertAll(() -> assertNull(deframer.getMessage(new byte[]{0, 3})),
+                    () -> assertTrue(deframer.getCapacity() >= 5),
+                    () -> assertArrayEquals(new byte[]{1, 2, 3}, deframer.getMessage(new byte[]{1, 2, 3})),
+                    () -> assertEquals(4, deframer.getCapacity()),
+                    () -> assertArrayEquals(new byte[]{7}, deframer.getMessage(new byte[]{0, 1, 7})),
+                    () -> assertThrows(IllegalArgumentException.class, () -> new NIODeframer(1, false)));
+        }
+
+        /**
+         * Arrays of any size are buffered, even ones that don't fit in the ring
+         */
+        @Test @DisplayName("Any size array")
+        void anySizeArray() {
+            NIODeframer deframer = new NIODeframer(4, false);
+            byte[] in = new byte[MAX_UNSIGNED_SHORT + 2 + 3 * 1488 + 1];
+            //a longest frame of 5s, then frames of 1 byte each
+            in[0] = in[1] = (byte) 0xFF;
+            Arrays.fill(in, 2, MAX_UNSIGNED_SHORT + 2, (byte) 5);
+            for(int i = MAX_UNSIGNED_SHORT + 2; i + 3 <= in.length; i += 3){
+                in[i + 1] = 1;
+                in[i + 2] = 6;
+            }
+            byte[] first = deframer.getMessage(in);
+            assertAll(() -> assertEquals(MAX_UNSIGNED_SHORT, first.length),
+                    () -> assertEquals(5, first[MAX_UNSIGNED_SHORT - 1]),
+                    () -> assertEquals(in.length - MAX_UNSIGNED_SHORT - 2, deframer.getBuffered()));
+            byte[] next;
+            int n = 0;
+            while((next = deframer.getMessage(new byte[0])) != null){
+                assertArrayEquals(new byte[]{6}, next);
+                n++;
+            }
+            final int frames = n;
+            assertAll(() -> assertEquals(1488, frames),
+                    () -> assertEquals(1, deframer.getBuffered()),
+                    () -> assertEquals(4, deframer.getCapacity()));
+        }
+
+        /**
+         * A batch bigger than the ring is drained through it a few frames at a time
+         */
+        @Test @DisplayName("Batch through small ring")
+        void batch() {
+            try {
+                ByteBuffer frames = ByteBuffer.allocate(4096);
+                for(int i=0; i<50; i++){
+                    Framer.frameMsg(new Query(i, "foo" + i + ".com."), frames);
+                }
+                frames.flip();
+                NIODeframer deframer = new NIODeframer(64, true);
+                MessageBatch batch = new MessageBatch();
+                assertEquals(50, deframer.getMessages(frames, batch));
+                assertAll(() -> assertEquals(new Query(0, "foo0.com."), batch.getMessage(0)),
+                        () -> assertEquals(new Query(49, "foo49.com."), batch.getMessage(49)),
+                        () -> assertFalse(frames.hasRemaining()),
+                        () -> assertEquals(0, deframer.getBuffered()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
 }
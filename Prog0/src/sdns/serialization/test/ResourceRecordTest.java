@@ -14,11 +14,15 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -255,7 +259,13 @@ class ResourceRecordTest {
         //Null input stream
         @Test @DisplayName("Null input stream")
         void decodeNullInput(){
-            assertThrows(NullPointerException.class, () -> ResourceRecord.decode(null));
+            assertThrows(NullPointerException.class, () -> ResourceRecord.decode((InputStream) null));
+        }
+
+        //Null input buffer
+        @Test @DisplayName("Null input buffer")
+        void decodeNullBufferInput(){
+            assertThrows(NullPointerException.class, () -> ResourceRecord.decode((ByteBuffer) null));
         }
 
         //No RDLength
@@ -1923,6 +1933,270 @@ class ResourceRecordTest {
         }
     }
 
+    /**
+     * Decoding straight out of a ByteBuffer
+     */
+    @Nested
+    class DecodeBuffer {
+        /**
+         * Every RR type decodes from a buffer exactly as it does from a stream, leaving the position just past the RR
+         * @param index which encoded RR to test
+         */
+        @ParameterizedTest(name = "Buffer matches stream: {0}")
+        @ValueSource(ints = {0, 1, 2, 3, 4, 5, 6, 7})
+        void matchesStream(int index){
+            byte[][] rrs = {
+                {3, 'f', 'o', 'o', 0, 0, 5, 0, 1, 0, 0, 0, 1, 0, 5, 3, 'b', 'a', 'r', 0},//CName
+                {3, 'f', 'o', 'o', 0, 0, 2, 0, 1, 0, 0, 0, 2, 0, 5, 3, 'b', 'a', 'r', 0},//NS
+                {0, 0, 1, 0, 1, 0, 0, 0, 3, 0, 4, -64, -88, 0, 69},//A
+                {0, 0, 28, 0, 1, 0, 0, 0, 4, 0, 16, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16},//AAAA
+                {0, 0, 15, 0, 1, 0, 0, 0, 5, 0, 7, 0, 10, 3, 'b', 'a', 'r', 0},//MX
+                {0, 1, 1, 0, 1, 0, 0, 0, 6, 0, 10, 0, 5, 'i', 's', 's', 'u', 'e', 'c', 'a', '.'},//CAA
+                {0, 0, 6, 0, 1, 0, 0, 0, 7, 0, 28, 3, 'b', 'a', 'r', 0, 1, 'x', 0,
+                        0, 0, 0, 1, 0, 0, 0, 2, 0, 0, 0, 3, 0, 0, 0, 4, 0, 0, 0, 5},//SOA
+                {0, 0, 8, 0, 1, 0, 0, 0, 8, 0, 2, 1, 2}//Unknown
+            };
+            byte[] rr = rrs[index];
+            //trailing bytes belong to whatever comes next
+            ByteBuffer buff = ByteBuffer.allocateDirect(rr.length + 3);
+            buff.put(rr).put(new byte[]{1, 2, 3}).flip();
+            try {
+                ResourceRecord fromStream = ResourceRecord.decode(new ByteArrayInputStream(rr));
+                ResourceRecord fromBuffer = ResourceRecord.decode(buff);
+                assertAll(() -> assertEquals(fromStream, fromBuffer),
+                        () -> assertEquals(fromStream.toString(), fromBuffer.toString()),
+                        () -> assertEquals(rr.length, buff.position()));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Running out of bytes is a premature EOF, just like the stream version
+         * @param length number of bytes of a valid A RR to keep
+         */
+        @ParameterizedTest(name = "Too short: {0}")
+        @ValueSource(ints = {0, 1, 2, 4, 8, 10, 14})
+        void tooShort(int length){
+            byte[] rr = Arrays.copyOf(new byte[]{0, 0, 1, 0, 1, 0, 0, 0, 3, 0, 4, -64, -88, 0, 69}, length);
+            assertThrows(EOFException.class, () -> ResourceRecord.decode(ByteBuffer.wrap(rr)));
+        }
+    }
+
+    /**
+     * Remembered wire form stays in step with the RR
+     */
+    @Nested
+    class EncodingCache {
+        /**
+         * Encodes an RR into a new array
+         * @param rr RR to encode
+         * @return the encoded RR
+         */
+        private byte[] encode(ResourceRecord rr) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            rr.encode(out);
+            return out.toByteArray();
+        }
+
+        /**
+         * Every setter changes what the next encode writes
+         */
+        @Test @DisplayName("Setters invalidate")
+        void settersInvalidate(){
+            try {
+                MX mx = new MX("foo.", 1, "bar.", 2);
+                SOA soa = new SOA("foo.", 1, "a.", "b.", 1, 2, 3, 4, 5);
+                A a = new A("foo.", 1, (Inet4Address) Inet4Address.getByName("1.2.3.4"));
+                CAA caa = new CAA("foo.", 1, "ca");
+                //warm the caches
+                encode(mx); encode(soa); encode(a); encode(caa);
+
+                mx.setExchange("baz.");
+                assertArrayEquals(encode(new MX("foo.", 1, "baz.", 2)), encode(mx));
+                mx.setPreference(7);
+                assertArrayEquals(encode(new MX("foo.", 1, "baz.", 7)), encode(mx));
+                mx.setTTL(9);
+                assertArrayEquals(encode(new MX("foo.", 9, "baz.", 7)), encode(mx));
+                mx.setName("qux.");
+                assertArrayEquals(encode(new MX("qux.", 9, "baz.", 7)), encode(mx));
+                soa.setMinimum(50);
+                assertArrayEquals(encode(new SOA("foo.", 1, "a.", "b.", 1, 2, 3, 4, 50)), encode(soa));
+                a.setAddress((Inet4Address) Inet4Address.getByName("4.3.2.1"));
+                assertArrayEquals(encode(new A("foo.", 1, (Inet4Address) Inet4Address.getByName("4.3.2.1"))), encode(a));
+                caa.setIssuer("other");
+                assertArrayEquals(encode(new CAA("foo.", 1, "other")), encode(caa));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A clone starts with the same encoding, but changing it leaves the original alone
+         */
+        @Test @DisplayName("Clones are independent")
+        void clonesIndependent(){
+            try {
+                NS ns = new NS("foo.", 1, "bar.");
+                byte[] original = encode(ns);
+                NS copy = (NS) ns.clone();
+                assertArrayEquals(original, encode(copy));
+                copy.setNameServer("baz.");
+                assertArrayEquals(original, encode(ns));
+                assertArrayEquals(encode(new NS("foo.", 1, "baz.")), encode(copy));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Compressed encoding is never cached, and doesn't disturb the uncompressed cache
+         */
+        @Test @DisplayName("Compression not cached")
+        void compressionNotCached(){
+            try {
+                CName cn = new CName("www.foo.", 1, "foo.");
+                byte[] plain = encode(cn);
+                NameCompressor names = new NameCompressor();
+                ByteBuffer buff = ByteBuffer.allocate(100);
+                names.reset(0);
+                cn.encodeTo(buff, names);
+                assertTrue(buff.position() < plain.length);
+                assertArrayEquals(plain, encode(cn));
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Snapshots never change, and changing RRs keep their hash codes in step
+     */
+    @Nested
+    class Snapshot {
+        /**
+         * Every setter of a snapshot throws, and the snapshot is left as it was
+         */
+        @Test @DisplayName("Snapshot setters throw")
+        void settersThrow(){
+            try {
+                SOA soa = (SOA) new SOA("foo.", 1, "a.", "b.", 1, 2, 3, 4, 5).snapshot();
+                MX mx = (MX) new MX("foo.", 1, "bar.", 2).snapshot();
+                A a = (A) new A("foo.", 1, (Inet4Address) Inet4Address.getByName("1.2.3.4")).snapshot();
+                CAA caa = (CAA) new CAA("foo.", 1, "issuer").snapshot();
+                assertAll(() -> assertThrows(UnsupportedOperationException.class, () -> soa.setName("bar.")),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> soa.setTTL(2)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> soa.setMName("c.")),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> soa.setMinimum(6)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> mx.setExchange("baz.")),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> mx.setPreference(3)),
+                        () -> assertThrows(UnsupportedOperationException.class,
+                                () -> a.setAddress((Inet4Address) Inet4Address.getByName("4.3.2.1"))),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> caa.setIssuer("other")),
+                        //invalid values are still reported as invalid
+                        () -> assertThrows(ValidationException.class, () -> soa.setTTL(-1)),
+                        () -> assertEquals(new SOA("foo.", 1, "a.", "b.", 1, 2, 3, 4, 5), soa),
+                        () -> assertEquals(new MX("foo.", 1, "bar.", 2), mx));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A snapshot equals the original, a snapshot of a snapshot is itself, and a clone of a snapshot can change
+         */
+        @Test @DisplayName("Snapshot copies")
+        void copies(){
+            try {
+                NS ns = new NS("foo.", 1, "bar.");
+                ResourceRecord snap = ns.snapshot();
+                NS copy = (NS) snap.clone();
+                copy.setNameServer("baz.");
+                assertAll(() -> assertEquals(ns, snap),
+                        () -> assertEquals(ns.hashCode(), snap.hashCode()),
+                        () -> assertSame(snap, snap.snapshot()),
+                        () -> assertFalse(ns.isSnapshot()),
+                        () -> assertFalse(copy.isSnapshot()),
+                        () -> assertEquals("bar.", ((NS) snap).getNameServer()),
+                        () -> assertEquals("baz.", copy.getNameServer()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * The remembered hash code is forgotten when an RR changes
+         */
+        @Test @DisplayName("Hash follows changes")
+        void hashFollowsChanges(){
+            try {
+                MX mx = new MX("foo.", 1, "bar.", 2);
+                int before = mx.hashCode();
+                mx.setExchange("baz.");
+                assertAll(() -> assertNotEquals(before, mx.hashCode()),
+                        () -> assertEquals(new MX("foo.", 1, "baz.", 2).hashCode(), mx.hashCode()));
+                mx.setTTL(5);
+                assertEquals(new MX("foo.", 5, "baz.", 2).hashCode(), mx.hashCode());
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Encoded lengths are worked out without encoding
+     */
+    @Nested
+    class EncodedLength {
+        /**
+         * The encoded length is what encoding writes, before and after the wire form is remembered, and is never less
+         *   than what is written with compression
+         */
+        @Test @DisplayName("Matches encoding")
+        void matchesEncoding() {
+            try {
+                byte[] unknown = { 3, 'f', 'o', 'o', 0, 0, 16, 0, 1, 0, 0, 0, 1, 0, 3, 2, 'h', 'i'};
+                List<ResourceRecord> rrs = List.of(
+                        new A("foo.com.", 1, (Inet4Address) Inet4Address.getByName("1.2.3.4")),
+                        new AAAA(".", 1, (Inet6Address) Inet6Address.getByName("::1")),
+                        new NS("foo.com.", 1, "ns.foo.com."),
+                        new CName("www.foo.com.", 1, "foo.com."),
+                        new MX("foo.com.", 1, "mail.foo.com.", 10),
+                        new SOA("foo.com.", 1, "ns.foo.com.", "me.foo.com.", 1, 2, 3, 4, 5),
+                        new CAA("foo.com.", 1, "ca.example"),
+                        ResourceRecord.decode(new ByteArrayInputStream(unknown)));
+                for(ResourceRecord rr : rrs){
+                    int before = rr.encodedLength();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    rr.encode(out);
+                    ByteBuffer compressed = ByteBuffer.allocate(1024);
+                    rr.encodeTo(compressed, new NameCompressor());
+                    assertAll(rr.toString(), () -> assertEquals(out.size(), before),
+                            () -> assertEquals(out.size(), rr.encodedLength()),
+                            () -> assertTrue(compressed.position() <= before));
+                }
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Changing an RR changes its encoded length
+         */
+        @Test @DisplayName("Follows changes")
+        void followsChanges() {
+            try {
+                NS ns = new NS("foo.com.", 1, "ns.foo.com.");
+                ns.encode(new ByteArrayOutputStream());
+                ns.setNameServer("ns1.foo.com.");
+                assertEquals(ns.encodedLength(), new NS("foo.com.", 1, "ns1.foo.com.").encodedLength());
+                assertEquals(9 + 10 + 13, ns.encodedLength());
+            } catch (ValidationException | IOException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
     /**
      * Name setter and getter tests (DONE)
      */
@@ -18,6 +18,8 @@ import sdns.serialization.test.factories.SdnsIDTestFactory;
 
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -787,6 +789,350 @@ class ResponseTest {
                 fail("Exception Thrown", e);
             }
         }
+
+        //encodeTo writes the same bytes as encode, starting at the buffer's position
+        @Test
+        @DisplayName("Response encodeTo matches encode")
+        void encodeToTest() {
+            try {
+                Response testResponse = new Response(42, "www.foo.com.", RCode.NAMEERROR);
+                testResponse.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+                testResponse.addNameServer(new SOA("foo.com.", 200, "ns.foo.com.", "dns.foo.com.", 1, 2, 3, 4, 5));
+                testResponse.addAdditional(new MX("foo.com.", 200, "mail.foo.com.", 10));
+                testResponse.addAdditional(new CAA("foo.com.", 200, "ca.com"));
+                byte[] expected = testResponse.encode();
+
+                ByteBuffer buff = ByteBuffer.allocateDirect(expected.length + 5);
+                buff.position(5);
+                testResponse.encodeTo(buff);
+                byte[] result = new byte[expected.length];
+                buff.flip().position(5);
+                buff.get(result);
+                assertArrayEquals(expected, result);
+                assertEquals(testResponse, Message.decode(expected));
+            } catch(Exception e) {
+                fail("Exception Thrown", e);
+            }
+        }
+
+        //encodeCompressedTo replaces names already written with pointers, matching suffixes case insensitively
+        @Test
+        @DisplayName("Response encodeCompressedTo")
+        void encodeCompressedToTest() {
+            byte[] expected = {0, 1,//id
+                    -127, 0, 0, 1,//header, 0x0001
+                    0, 2, 0, 0, 0, 0,//ANCount, NSCount, ARCount
+                    3, 'f', 'o', 'o', 3, 'c', 'o', 'm', 0,//"foo.com." at 12
+                    0, -1, 0, 1,//0x00FF 0x0001
+                    3, 'w', 'w', 'w', -64, 12,//"www.foo.com." at 25
+                    0, 5, 0, 1, 0, 0, 0, -56,
+                    0, 2,//rdlen
+                    -64, 12,//"foo.com."
+                    -64, 25,//"WWW.FOO.COM."
+                    0, 1, 0, 1, 0, 0, 0, -56,
+                    0, 4,//rdlen
+                    1, 2, 3, 4
+            };
+            try {
+                Response testResponse = new Response(1, "foo.com.", RCode.NOERROR);
+                testResponse.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+                testResponse.addAnswer(new A("WWW.FOO.COM.", 200, (Inet4Address)Inet4Address.getByName("1.2.3.4")));
+
+                ByteBuffer buff = ByteBuffer.allocate(expected.length + 3);
+                buff.position(3);
+                testResponse.encodeCompressedTo(buff);
+                assertEquals(expected.length + 3, buff.position());
+                assertArrayEquals(expected, Arrays.copyOfRange(buff.array(), 3, buff.position()));
+
+                //the compression table is per message
+                buff.clear();
+                testResponse.encodeCompressedTo(buff);
+                assertArrayEquals(expected, Arrays.copyOf(buff.array(), buff.position()));
+                //and plain encoding is unaffected
+                assertEquals(testResponse, Message.decode(testResponse.encode()));
+            } catch(Exception e) {
+                fail("Exception Thrown", e);
+            }
+        }
+
+        //encodeTo runs out of room in a buffer that is too small
+        @Test
+        @DisplayName("Response encodeTo overflow")
+        void encodeToOverflowTest() {
+            try {
+                Response testResponse = new Response(42, "www.foo.com.", RCode.NOERROR);
+                testResponse.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+                ByteBuffer buff = ByteBuffer.allocate(testResponse.encode().length - 1);
+                assertThrows(BufferOverflowException.class, () -> testResponse.encodeTo(buff));
+            } catch(ValidationException e) {
+                fail("Exception Thrown", e);
+            }
+        }
+    }
+
+    /**
+     * Snapshot tests
+     */
+    @Nested
+    class Snapshot {
+        /**
+         * Added RRs are stored as snapshots, and an RR that is already a snapshot is shared rather than copied
+         */
+        @Test @DisplayName("Added RRs are shared snapshots")
+        void addedShared() {
+            try {
+                CName cn = new CName("www.foo.com.", 200, "foo.com.");
+                Response r1 = new Response(1, "foo.com.", RCode.NOERROR).addAnswer(cn);
+                ResourceRecord stored = r1.getAnswerList().get(0);
+                Response r2 = new Response(2, "foo.com.", RCode.NOERROR).addAdditional(stored);
+                assertAll(() -> assertTrue(stored.isSnapshot()),
+                        () -> assertNotSame(cn, stored),
+                        () -> assertFalse(cn.isSnapshot()),
+                        () -> assertSame(stored, r2.getAdditionalList().get(0)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> stored.setTTL(1)),
+                        () -> assertThrows(UnsupportedOperationException.class,
+                                () -> r1.getAnswerList().add(cn)));
+                //changing the original doesn't change the response
+                cn.setTTL(5);
+                assertEquals(200, r1.getAnswerList().get(0).getTTL());
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Decoded RRs are snapshots already, so they are shared when added to another response
+         */
+        @Test @DisplayName("Decoded RRs are snapshots")
+        void decodedSnapshots() {
+            try {
+                Response r = new Response(1, "foo.com.", RCode.NOERROR);
+                r.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+                r.addNameServer(new NS("foo.com.", 200, "ns.foo.com."));
+                r.addNameServer(new NS("FOO.com.", 200, "NS.foo.COM."));
+                Response decoded = (Response) Message.decode(r.encode());
+                ResourceRecord rr = decoded.getAnswerList().get(0);
+                Response other = new Response(2, "foo.com.", RCode.NOERROR).addAnswer(rr);
+                assertAll(() -> assertEquals(r, decoded),
+                        () -> assertTrue(rr.isSnapshot()),
+                        () -> assertTrue(decoded.getNameServerList().get(0).isSnapshot()),
+                        () -> assertSame(rr, other.getAnswerList().get(0)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> rr.setTTL(1)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Duplicates are still found case insensitively, whether or not they are snapshots
+         */
+        @Test @DisplayName("Duplicates ignored")
+        void duplicates() {
+            try {
+                Response r = new Response(1, "foo.com.", RCode.NOERROR);
+                r.addNameServer(new NS("foo.com.", 200, "ns.foo.com."));
+                r.addNameServer(new NS("FOO.com.", 200, "NS.foo.COM."));
+                r.addNameServer(new NS("foo.com.", 200, "ns.foo.com.").snapshot());
+                r.addNameServer(new NS("foo.com.", 201, "ns.foo.com."));
+                assertEquals(2, r.getNameServerList().size());
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A response snapshot equals the response, shares its RRs, and refuses every change
+         */
+        @Test @DisplayName("Response snapshot")
+        void responseSnapshot() {
+            try {
+                Response r = new Response(1, "foo.com.", RCode.NOERROR);
+                r.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+                r.addAdditional(new A("www.foo.com.", 200, (Inet4Address) Inet4Address.getByName("1.2.3.4")));
+                Response snap = r.snapshot();
+                ResourceRecord rr = new NS("foo.com.", 200, "ns.foo.com.");
+                assertAll(() -> assertEquals(r, snap),
+                        () -> assertEquals(r.hashCode(), snap.hashCode()),
+                        () -> assertArrayEquals(r.encode(), snap.encode()),
+                        () -> assertSame(r.getAnswerList().get(0), snap.getAnswerList().get(0)),
+                        () -> assertTrue(snap.isSnapshot()),
+                        () -> assertFalse(r.isSnapshot()),
+                        () -> assertSame(snap, snap.snapshot()),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> snap.addAnswer(rr)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> snap.addNameServer(rr)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> snap.addAdditional(rr)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> snap.setRCode(RCode.REFUSED)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> snap.setID(2)),
+                        () -> assertThrows(UnsupportedOperationException.class, () -> snap.setQuery("bar.")));
+                //the original can still change, without changing the snapshot
+                r.addNameServer(rr);
+                assertAll(() -> assertEquals(1, r.getNameServerList().size()),
+                        () -> assertEquals(0, snap.getNameServerList().size()));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Encoding within a length, leaving out what doesn't fit
+     */
+    @Nested
+    class Truncation {
+        //header and question, each answer, each name server, and each additional
+        private static final int QUESTION = 25, ANSWER = 25, NAME_SERVER = 32, ADDITIONAL = 27;
+
+        /**
+         * Makes a response with 3 answers, 2 name servers, and 2 additionals
+         * @return the response
+         * @throws ValidationException if invalid (never)
+         * @throws UnknownHostException if invalid address (never)
+         */
+        private Response makeResponse() throws ValidationException, UnknownHostException {
+            Response r = new Response(1, "foo.com.", RCode.NOERROR);
+            for(int i=1; i<=3; i++){
+                r.addAnswer(new A("a.foo.com.", 1, (Inet4Address) Inet4Address.getByName("1.2.3." + i)));
+            }
+            for(int i=1; i<=2; i++){
+                r.addNameServer(new NS("foo.com.", 1, "ns" + i + ".foo.com."));
+                r.addAdditional(new A("ns" + i + ".foo.com.", 1, (Inet4Address) Inet4Address.getByName("1.2.4." + i)));
+            }
+            return r;
+        }
+
+        /**
+         * Encodes the response within maxLength and decodes what was written
+         * @param r response to encode
+         * @param maxLength most bytes to write
+         * @param truncated whether the TrunCation bit should be set
+         * @return the decoded response
+         * @throws ValidationException if the encoding is invalid
+         */
+        private Response encodeDecode(Response r, int maxLength, boolean truncated) throws ValidationException {
+            ByteBuffer buff = ByteBuffer.allocate(1024);
+            assertEquals(truncated, r.encodeTo(buff, maxLength));
+            assertAll(() -> assertTrue(buff.position() <= maxLength),
+                    () -> assertEquals(1024, buff.limit()),
+                    () -> assertEquals(truncated, (buff.get(2) & 0x02) != 0));
+            return (Response) Message.decode(buff.flip());
+        }
+
+        /**
+         * The encoded length is what encoding writes
+         */
+        @Test @DisplayName("Encoded length")
+        void encodedLength() {
+            try {
+                Response r = makeResponse();
+                assertAll(() -> assertEquals(r.encode().length, r.encodedLength()),
+                        () -> assertEquals(QUESTION + 3 * ANSWER + 2 * NAME_SERVER + 2 * ADDITIONAL, r.encodedLength()),
+                        () -> assertEquals(QUESTION, new Query(1, "foo.com.").encodedLength()),
+                        () -> assertEquals(QUESTION, new Query(1, "foo.com.").encode().length));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * A response that fits is encoded whole
+         */
+        @Test @DisplayName("Fits")
+        void fits() {
+            try {
+                Response r = makeResponse();
+                ByteBuffer buff = ByteBuffer.allocate(r.encodedLength());
+                assertFalse(r.encodeTo(buff, r.encodedLength()));
+                assertArrayEquals(r.encode(), buff.array());
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Additional records are left out first, without setting TC
+         */
+        @Test @DisplayName("Additional left out")
+        void additionalLeftOut() {
+            try {
+                Response r = makeResponse();
+                Response decoded = encodeDecode(r, r.encodedLength() - 1, false);
+                assertAll(() -> assertEquals(r.getAnswerList(), decoded.getAnswerList()),
+                        () -> assertEquals(r.getNameServerList(), decoded.getNameServerList()),
+                        () -> assertTrue(decoded.getAdditionalList().isEmpty()));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Authority records are left out next, without setting TC
+         */
+        @Test @DisplayName("Authority left out")
+        void authorityLeftOut() {
+            try {
+                Response r = makeResponse();
+                Response decoded = encodeDecode(r, QUESTION + 3 * ANSWER + 2 * NAME_SERVER - 1, false);
+                assertAll(() -> assertEquals(r.getAnswerList(), decoded.getAnswerList()),
+                        () -> assertTrue(decoded.getNameServerList().isEmpty()),
+                        () -> assertTrue(decoded.getAdditionalList().isEmpty()));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Answers that don't fit are left out last, setting TC
+         */
+        @Test @DisplayName("Answers truncated")
+        void answersTruncated() {
+            try {
+                Response r = makeResponse();
+                Response decoded = encodeDecode(r, QUESTION + 2 * ANSWER + 1, true);
+                Response none = encodeDecode(r, QUESTION, true);
+                assertAll(() -> assertEquals(r.getAnswerList().subList(0, 2), decoded.getAnswerList()),
+                        () -> assertTrue(decoded.getNameServerList().isEmpty()),
+                        () -> assertTrue(decoded.getAdditionalList().isEmpty()),
+                        () -> assertTrue(none.getAnswerList().isEmpty()));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Compression can fit more in, and still never goes past the length
+         */
+        @Test @DisplayName("Compressed")
+        void compressed() {
+            try {
+                Response r = makeResponse();
+                //uncompressed, only the answers fit
+                int maxLength = QUESTION + 3 * ANSWER + NAME_SERVER;
+                ByteBuffer buff = ByteBuffer.allocate(1024);
+                assertFalse(r.encodeCompressedTo(buff, maxLength));
+                assertTrue(buff.position() <= maxLength);
+                Response decoded = (Response) Message.decodeCompressed(buff.flip());
+                assertAll(() -> assertEquals(r.getAnswerList(), decoded.getAnswerList()),
+                        () -> assertEquals(r.getNameServerList(), decoded.getNameServerList()),
+                        () -> assertTrue(decoded.getAdditionalList().isEmpty()));
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * The header and question must fit
+         */
+        @Test @DisplayName("Question doesn't fit")
+        void questionTooLong() {
+            try {
+                Response r = makeResponse();
+                ByteBuffer buff = ByteBuffer.allocate(1024);
+                assertThrows(BufferOverflowException.class, () -> r.encodeTo(buff, QUESTION - 1));
+                assertEquals(1024, buff.limit());
+            } catch (ValidationException | UnknownHostException e) {
+                fail(e.getMessage());
+            }
+        }
     }
 
     /**
@@ -874,7 +1220,7 @@ class ResponseTest {
         byte[] expected = {0, 0,//id
                 -127, 0, //1 0000 0010 000 0000
                 0, 1, //0x0001
-                0, 3, //ANCount
+                0, 4, //ANCount
                 0, 2, //NSCount
                 0, 3, //ARCount
                 //query
@@ -896,6 +1242,13 @@ class ResponseTest {
                 0, 4,
                 -1, 0, -1, -119,
 
+                3, 'f', 'o', 'o', 0,//Unknown (rdata written back as is)
+                1, 5,
+                0, 1, //0x0001
+                0, 0, 0, 0,
+                0, 6,
+                3, 'f', 'o', 'o', -64, 5,
+
                 0,//NS
                 0, 2,
                 0, 1, //0x0001
@@ -0,0 +1,185 @@
+//Contains the ResponseViewTest class (see comments below)
+//Created: 10/17/26
+package sdns.serialization.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import sdns.serialization.*;
+
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ethan Dickey
+ */
+public class ResponseViewTest {
+    /**
+     * Builds the response used by most tests
+     * @return a response with RRs in every section
+     */
+    private static Response makeResponse() {
+        try {
+            Response r = new Response(42, "www.foo.com.", RCode.NAMEERROR);
+            r.addAnswer(new CName("www.foo.com.", 200, "foo.com."));
+            r.addAnswer(new A("www.foo.com.", 200, (Inet4Address) Inet4Address.getByName("20.69.42.21")));
+            r.addNameServer(new SOA("foo.com.", 200, "ns.foo.com.", "dns.foo.com.", 1, 2, 3, 4, 5));
+            r.addAdditional(new MX("foo.com.", 200, "mail.foo.com.", 10));
+            return r;
+        } catch (ValidationException | UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Test wrapping valid responses
+     */
+    @Nested
+    class WrapValid {
+        /**
+         * Header, counts, and every RR match a full decode
+         */
+        @Test @DisplayName("Matches full decode")
+        void matchesDecode() {
+            Response r = makeResponse();
+            try {
+                ResponseView view = ResponseView.wrap(ByteBuffer.wrap(r.encode()));
+                assertAll(() -> assertEquals(42, view.getID()),
+                        () -> assertEquals(RCode.NAMEERROR, view.getRCode()),
+                        () -> assertEquals("www.foo.com.", view.getQuery()),
+                        () -> assertEquals(2, view.getAnswerCount()),
+                        () -> assertEquals(1, view.getNameServerCount()),
+                        () -> assertEquals(1, view.getAdditionalCount()),
+                        () -> assertEquals(r.getAnswerList().get(1), view.getAnswer(1)),
+                        () -> assertEquals(r.getNameServerList().get(0), view.getNameServer(0)),
+                        () -> assertEquals(r.getAdditionalList().get(0), view.getAdditional(0)),
+                        () -> assertEquals(r, view.toResponse()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * The backing bytes are exactly the wrapped message, read only, and the wrapped buffer's position is untouched
+         */
+        @Test @DisplayName("Backing bytes")
+        void backingBytes() {
+            byte[] encoded = makeResponse().encode();
+            ByteBuffer buff = ByteBuffer.allocateDirect(encoded.length + 4);
+            buff.put(new byte[]{9, 9}).put(encoded).put(new byte[]{9, 9});
+            buff.position(2).limit(2 + encoded.length);
+            try {
+                ResponseView view = ResponseView.wrap(buff);
+                ByteBuffer bytes = view.getBytes();
+                byte[] result = new byte[bytes.remaining()];
+                bytes.get(result);
+                assertAll(() -> assertArrayEquals(encoded, result),
+                        () -> assertTrue(view.getBytes().isReadOnly()),
+                        () -> assertEquals(2, buff.position()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Compressed responses are expanded when RRs are asked for
+         */
+        @Test @DisplayName("Compressed")
+        void compressed() {
+            Response r = makeResponse();
+            ByteBuffer buff = ByteBuffer.allocate(1024);
+            r.encodeCompressedTo(buff);
+            buff.flip();
+            try {
+                ResponseView view = ResponseView.wrapCompressed(buff);
+                assertAll(() -> assertEquals("www.foo.com.", view.getQuery()),
+                        () -> assertEquals(r.getAdditionalList().get(0), view.getAdditional(0)),
+                        () -> assertEquals(r, view.toResponse()));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * RRs outside their section are out of bounds
+         */
+        @Test @DisplayName("Out of bounds")
+        void outOfBounds() {
+            try {
+                ResponseView view = ResponseView.wrap(ByteBuffer.wrap(makeResponse().encode()));
+                assertAll(() -> assertThrows(IndexOutOfBoundsException.class, () -> view.getAnswer(2)),
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> view.getNameServer(-1)),
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> view.getAdditional(1)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Test wrapping invalid responses
+     */
+    @Nested
+    class WrapInvalid {
+        /**
+         * Null
+         */
+        @Test @DisplayName("Null")
+        void nullBuffer() {
+            assertThrows(NullPointerException.class, () -> ResponseView.wrap(null));
+        }
+
+        /**
+         * Too short and too long messages are rejected when wrapped
+         */
+        @ParameterizedTest(name = "Bad length: {0}")
+        @ValueSource(ints = {-1, -10, -30, 1})
+        void badLength(int delta) {
+            byte[] encoded = makeResponse().encode();
+            byte[] bad = Arrays.copyOf(encoded, encoded.length + delta);
+            assertThrows(ValidationException.class, () -> ResponseView.wrap(ByteBuffer.wrap(bad)));
+        }
+
+        /**
+         * Queries are not responses
+         */
+        @Test @DisplayName("Query")
+        void query() {
+            try {
+                byte[] encoded = new Query(1, "foo.").encode();
+                assertThrows(ValidationException.class, () -> ResponseView.wrap(ByteBuffer.wrap(encoded)));
+            } catch (ValidationException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        /**
+         * Bad opcode
+         */
+        @Test @DisplayName("Bad opcode")
+        void badOpcode() {
+            byte[] encoded = makeResponse().encode();
+            encoded[2] |= 0x08;
+            assertThrows(ValidationException.class, () -> ResponseView.wrap(ByteBuffer.wrap(encoded)));
+        }
+
+        /**
+         * RR counts that couldn't fit in the bytes left are rejected up front
+         */
+        @Test @DisplayName("Huge RR counts")
+        void hugeCounts() {
+            byte[] encoded = makeResponse().encode();
+            for(int i=6; i<12; i++){
+                encoded[i] = (byte) 0xFF;
+            }
+            ValidationException e = assertThrows(ValidationException.class, () -> ResponseView.wrap(ByteBuffer.wrap(encoded)));
+            assertTrue(e.getMessage().contains("not enough bytes"), e.getMessage());
+        }
+    }
+}
@@ -9,7 +9,10 @@ import sdns.serialization.*;
 import sdns.serialization.test.factories.EqualsAndHashCodeCaseInsensitiveTestFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.Objects;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -98,12 +101,68 @@ class UnknownTest {
     }
 
     /**
-     * Test that it always throws an exception no matter what (varied input) (DONE)
+     * Test that it encodes exactly the bytes it was decoded from, rdata and all
      */
-    @Test @DisplayName("Default encode fail")
+    @Test @DisplayName("Encode verbatim")
     void test0() {
-        Unknown ut = constructUnknownDot321();
-        assertThrows(UnsupportedOperationException.class, () -> ut.encode(System.out));
+        byte[] buff = { 3, 'f', 'o', 'o', 0,
+                0, 16,
+                0, 1, //0x0001
+                0, 0, 1, 65,
+                0, 5,
+                4, 't', 'e', 'x', 't'};
+        try {
+            ResourceRecord fromStream = ResourceRecord.decode(new ByteArrayInputStream(buff));
+            ResourceRecord fromBuffer = ResourceRecord.decode(ByteBuffer.wrap(buff));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            fromStream.encode(out);
+            ByteBuffer buffOut = ByteBuffer.allocate(buff.length);
+            fromBuffer.encodeTo(buffOut);
+            assertAll(() -> assertArrayEquals(buff, out.toByteArray()),
+                    () -> assertArrayEquals(buff, buffOut.array()),
+                    () -> assertEquals(fromStream, fromBuffer),
+                    () -> assertEquals(ByteBuffer.wrap(buff, 15, 5), ((Unknown) fromBuffer).getRData()));
+        } catch (ValidationException | IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test that RRs of the same type with different rdata are different
+     */
+    @Test @DisplayName("Different rdata")
+    void differentRData() {
+        byte[] buff = { 0,
+                0, 8,
+                0, 1, //0x0001
+                0, 0, 1, 65,
+                0, 8,
+                0, 0, 0, 0, 0, 0, 0, 1};
+        Unknown other = constructUnknown(buff);
+        assertNotEquals(constructUnknownDot321(), other);
+    }
+
+    /**
+     * Test that the rdata decoded from a buffer is a view of its bytes, which cannot be changed through the RR
+     */
+    @Test @DisplayName("Rdata not copied")
+    void rdataNotCopied() {
+        byte[] buff = { 0,
+                0, 8,
+                0, 1, //0x0001
+                0, 0, 1, 65,
+                0, 2,
+                7, 7};
+        try {
+            Unknown ut = (Unknown) ResourceRecord.decode(ByteBuffer.wrap(buff));
+            buff[11] = 9;
+            ByteBuffer rdata = ut.getRData();
+            assertAll(() -> assertEquals(9, rdata.get(0)),
+                    () -> assertTrue(rdata.isReadOnly()),
+                    () -> assertThrows(ReadOnlyBufferException.class, () -> rdata.put(0, (byte) 1)));
+        } catch (ValidationException | IOException e) {
+            fail(e.getMessage());
+        }
     }
 
     /**